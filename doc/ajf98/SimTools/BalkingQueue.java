@@ -38,7 +38,7 @@ import doc.ajf98.SimTools.exceptions.*;
 
 /**
  * @author Andrew Ferrier
- * @version 0.1
+ * @version 0.3
  */
 
 public class BalkingQueue extends Queue
@@ -52,11 +52,13 @@ public class BalkingQueue extends Queue
 	/**
 	 * Create a new Balking Queue.
 	 *
+	 * @param sim the simulation whose clock is used to time entries.
 	 * @param maxSize the maximum size which the queue can grow to.
 	 */
 
-	public BalkingQueue(int maxSize)
+	public BalkingQueue(PSim sim, int maxSize)
 	{
+		super(sim);
 		this.maxSize = maxSize;
 	}
 
@@ -76,5 +78,14 @@ public class BalkingQueue extends Queue
 			super.enqueue(o);
 	}
 
+	/**
+	 * @return the maximum size which the queue can grow to.
+	 */
+
+	public int getMaxSize()
+	{
+		return maxSize;
+	}
+
 	private int maxSize;
 }
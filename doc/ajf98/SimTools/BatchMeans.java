@@ -0,0 +1,197 @@
+/*
+
+Copyright (c) 2002, 2012, Andrew Ferrier. Portions based on work by, and (c) 
+Tony Field 2000, 2001. All rights reserved.
+
+Redistribution and use in source and binary forms, with or without 
+modification, are permitted provided that the following conditions are 
+met: 
+
+Redistributions of source code must retain the above copyright notice, 
+this list of conditions and the following disclaimer.
+ 
+Redistributions in binary form must reproduce the above copyright notice, 
+this list of conditions and the following disclaimer in the documentation 
+and/or other materials provided with the distribution. 
+ 
+The name(s) of the author(s) of the software may not be used to endorse or 
+promote products derived from this software without specific prior written 
+permission.
+ 
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS 
+IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, 
+THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR 
+PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR 
+CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, 
+EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, 
+PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR 
+PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF 
+LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING 
+NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS 
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+*/
+
+package doc.ajf98.SimTools;
+
+/**
+ * Estimates the steady-state mean of a quantity, and a confidence
+ * interval for it, by the method of batch means. The run is divided
+ * into batches, each of which gives a value such as a mean response
+ * time or a utilisation, as the ratio of a sum to a weight (a number
+ * of responses, or a length of time). If the batches are long enough,
+ * their values are nearly independent, and the interval is found from
+ * their sample variance.
+ *
+ * There are never more than a fixed number of batches. When that
+ * number is reached, adjacent batches are merged in pairs, and from
+ * then on each batch is made of twice as many of the batches added, so
+ * that the batches lengthen as the run does and their correlation
+ * falls (A. M. Law and W. D. Kelton, "Simulation modeling and
+ * analysis", section 9.5).
+ *
+ * A batch is not complete until it has some weight, so that every
+ * batch has a value: a batch with none, such as one in which a client
+ * had no replies, is lengthened by the next.
+ *
+ * @author Andrew Ferrier
+ * @version 0.2
+ */
+
+public class BatchMeans implements Checkpointable
+{
+	/**
+	 * @param maxBatches the number of batches at which they are
+	 *	merged, which must be even and at least 4.
+	 */
+
+	public BatchMeans(int maxBatches)
+	{
+		if(maxBatches < 4 || maxBatches % 2 != 0)
+			throw new IllegalArgumentException("The number of batches must be even and at least 4, not " + maxBatches);
+
+		sums = new double[maxBatches];
+		weights = new double[maxBatches];
+	}
+
+	/**
+	 * Add the next batch. It is held back until there are enough to
+	 * make up one batch of the current size, and they have some weight.
+	 */
+
+	public void addBatch(double sum, double weight)
+	{
+		pendingSum += sum;
+		pendingWeight += weight;
+
+		if(++pending < size || pendingWeight == 0)
+			return;
+
+		sums[batches] = pendingSum;
+		weights[batches] = pendingWeight;
+		batches++;
+		pendingSum = pendingWeight = 0.0;
+		pending = 0;
+
+		if(batches == sums.length)
+		{
+			for(int i = 0; i < batches / 2; i++)
+			{
+				sums[i] = sums[2 * i] + sums[2 * i + 1];
+				weights[i] = weights[2 * i] + weights[2 * i + 1];
+			}
+
+			batches /= 2;
+			size *= 2;
+		}
+	}
+
+	/**
+	 * @return the number of complete batches.
+	 */
+
+	public int batches()
+	{
+		return batches;
+	}
+
+	/**
+	 * @return the number of batches added which make up each one,
+	 *	apart from any which were lengthened because they had no
+	 *	weight.
+	 */
+
+	public long batchSize()
+	{
+		return size;
+	}
+
+	/**
+	 * @return the mean of the values of the complete batches, or NaN if
+	 *	there are none.
+	 */
+
+	public double mean()
+	{
+		return values().mean();
+	}
+
+	/**
+	 * @param level the level of confidence, such as 0.95.
+	 * @return the half-width of a confidence interval for the mean,
+	 *	or NaN if there are fewer than two batches.
+	 */
+
+	public double confidenceHalfWidth(double level)
+	{
+		return values().confidenceHalfWidth(level);
+	}
+
+	private Measure values()
+	{
+		Measure m = new Measure();
+
+		for(int i = 0; i < batches; i++)
+			m.add(sums[i] / weights[i]);
+
+		return m;
+	}
+
+	public Object saveState()
+	{
+		State s = new State();
+		s.sums = (double[]) sums.clone();
+		s.weights = (double[]) weights.clone();
+		s.batches = batches;
+		s.size = size;
+		s.pending = pending;
+		s.pendingSum = pendingSum;
+		s.pendingWeight = pendingWeight;
+		return s;
+	}
+
+	public void restoreState(Object state)
+	{
+		State s = (State) state;
+		sums = (double[]) s.sums.clone();
+		weights = (double[]) s.weights.clone();
+		batches = s.batches;
+		size = s.size;
+		pending = s.pending;
+		pendingSum = s.pendingSum;
+		pendingWeight = s.pendingWeight;
+	}
+
+	private static class State implements java.io.Serializable
+	{
+		double[] sums, weights;
+		int batches;
+		long size, pending;
+		double pendingSum, pendingWeight;
+	}
+
+	private double[] sums, weights;
+	private int batches = 0;
+	private long size = 1, pending = 0;
+	private double pendingSum = 0.0, pendingWeight = 0.0;
+}
@@ -0,0 +1,313 @@
+/*
+
+Copyright (c) 2002, 2012, Andrew Ferrier. Portions based on work by, and (c) 
+Tony Field 2000, 2001. All rights reserved.
+
+Redistribution and use in source and binary forms, with or without 
+modification, are permitted provided that the following conditions are 
+met: 
+
+Redistributions of source code must retain the above copyright notice, 
+this list of conditions and the following disclaimer.
+ 
+Redistributions in binary form must reproduce the above copyright notice, 
+this list of conditions and the following disclaimer in the documentation 
+and/or other materials provided with the distribution. 
+ 
+The name(s) of the author(s) of the software may not be used to endorse or 
+promote products derived from this software without specific prior written 
+permission.
+ 
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS 
+IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, 
+THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR 
+PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR 
+CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, 
+EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, 
+PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR 
+PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF 
+LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING 
+NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS 
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+*/
+
+package doc.ajf98.SimTools;
+
+/**
+ * An event queue implemented as a calendar queue (R. Brown, "Calendar
+ * Queues: A Fast O(1) Priority Queue Implementation for the Simulation
+ * Event Set Problem", CACM 31(10), 1988).
+ *
+ * Entries are hashed by wake time into an array of 'day' buckets, each
+ * covering a fixed width of virtual time, which together form a 'year'.
+ * Each bucket is a sorted, singly-linked list threaded through the
+ * entries themselves, so no extra nodes are allocated. The number of
+ * buckets is doubled or halved as the queue grows or shrinks, and the
+ * bucket width is re-estimated at the same time from the gaps between the
+ * entries at the front of the queue. The width is also re-estimated if
+ * too many dequeues have to fall back to a search of the whole year, which
+ * happens when the distribution of event times drifts.
+ *
+ * As with {@link HeapEventQueue}, ties are broken by the sequence
+ * numbers of the entries.
+ *
+ * @author Andrew Ferrier
+ * @version 0.3
+ */
+
+public class CalendarEventQueue implements EventQueue
+{
+	public CalendarEventQueue()
+	{
+		buckets = new ProcListEntry[MIN_BUCKETS];
+		width = DEFAULT_WIDTH;
+		setThresholds();
+	}
+
+	public void insert(ProcListEntry e)
+	{
+		enqueue(e);
+		size++;
+
+		if(size > topThreshold)
+			resize(buckets.length * 2);
+	}
+
+	public ProcListEntry removeFirst() throws EmptyListException
+	{
+		if(size == 0)
+			throw new EmptyListException("event queue");
+
+		ProcListEntry e = dequeue();
+		lastTime = e.wakeTime;
+		size--;
+
+		if(size < bottomThreshold)
+			resize(buckets.length / 2);
+		else if(directSearches > DIRECT_SEARCH_LIMIT)
+			resize(buckets.length);
+
+		return e;
+	}
+
+	public ProcListEntry first() throws EmptyListException
+	{
+		if(size == 0)
+			throw new EmptyListException("event queue");
+
+		// Dequeueing the entry moves the scan on to its bucket, and
+		// enqueueing it again puts it back in the same place, so the
+		// order of the queue is not disturbed.
+
+		ProcListEntry e = dequeue();
+		enqueue(e);
+
+		return e;
+	}
+
+	public boolean isEmpty()
+	{
+		return size == 0;
+	}
+
+	public int size()
+	{
+		return size;
+	}
+
+	/**
+	 * @return the current width (in virtual time) of each bucket.
+	 */
+
+	public double bucketWidth()
+	{
+		return width;
+	}
+
+	/**
+	 * @return the current number of buckets.
+	 */
+
+	public int buckets()
+	{
+		return buckets.length;
+	}
+
+	private void enqueue(ProcListEntry e)
+	{
+		long vb = virtualBucket(e.wakeTime);
+		int i = (int) (vb & (buckets.length - 1));
+
+		if(vb < currentBucket)
+			currentBucket = vb;
+
+		ProcListEntry previous = null;
+		ProcListEntry current = buckets[i];
+
+		while(current != null && ProcListEntry.before(current, e))
+		{
+			previous = current;
+			current = current.next;
+		}
+
+		e.next = current;
+
+		if(previous == null)
+			buckets[i] = e;
+		else
+			previous.next = e;
+	}
+
+	/**
+	 * Remove the first entry. Assumes that the queue is not empty.
+	 */
+
+	private ProcListEntry dequeue()
+	{
+		int mask = buckets.length - 1;
+		int i = (int) (currentBucket & mask);
+
+		for(int n = 0; n < buckets.length; n++)
+		{
+			ProcListEntry head = buckets[i];
+
+			if(head != null && virtualBucket(head.wakeTime) <= currentBucket)
+			{
+				buckets[i] = head.next;
+				head.next = null;
+				return head;
+			}
+
+			currentBucket++;
+			i = (i + 1) & mask;
+		}
+
+		// There is nothing in the coming year, so find the earliest
+		// entry directly and restart the scan from there.
+
+		directSearches++;
+
+		int earliest = -1;
+
+		for(int j = 0; j < buckets.length; j++)
+			if(buckets[j] != null && (earliest < 0 || ProcListEntry.before(buckets[j], buckets[earliest])))
+				earliest = j;
+
+		ProcListEntry head = buckets[earliest];
+		buckets[earliest] = head.next;
+		head.next = null;
+		currentBucket = virtualBucket(head.wakeTime);
+
+		return head;
+	}
+
+	private void resize(int newSize)
+	{
+		if(newSize < MIN_BUCKETS)
+			newSize = MIN_BUCKETS;
+
+		// Sample the entries at the front of the queue to estimate
+		// a new width.
+
+		int samples = size < WIDTH_SAMPLES ? size : WIDTH_SAMPLES;
+		ProcListEntry[] sampled = new ProcListEntry[samples];
+
+		for(int i = 0; i < samples; i++)
+			sampled[i] = dequeue();
+
+		double newWidth = estimateWidth(sampled);
+
+		ProcListEntry[] oldBuckets = buckets;
+
+		buckets = new ProcListEntry[newSize];
+		width = newWidth;
+		directSearches = 0;
+		currentBucket = virtualBucket(lastTime);
+		setThresholds();
+
+		for(int i = 0; i < oldBuckets.length; i++)
+		{
+			ProcListEntry e = oldBuckets[i];
+
+			while(e != null)
+			{
+				ProcListEntry next = e.next;
+				enqueue(e);
+				e = next;
+			}
+		}
+
+		for(int i = 0; i < samples; i++)
+			enqueue(sampled[i]);
+	}
+
+	/**
+	 * Estimate a bucket width of about three times the typical gap
+	 * between events, ignoring unusually large gaps (as per Brown) and
+	 * also simultaneous events, which are common in this simulator.
+	 */
+
+	private double estimateWidth(ProcListEntry[] sampled)
+	{
+		double total = 0.0;
+		int gaps = 0;
+
+		for(int i = 1; i < sampled.length; i++)
+		{
+			double gap = sampled[i].wakeTime - sampled[i - 1].wakeTime;
+
+			if(gap > 0)
+			{
+				total += gap;
+				gaps++;
+			}
+		}
+
+		if(gaps == 0)
+			return width;
+
+		double limit = 2.0 * total / gaps;
+
+		total = 0.0;
+		gaps = 0;
+
+		for(int i = 1; i < sampled.length; i++)
+		{
+			double gap = sampled[i].wakeTime - sampled[i - 1].wakeTime;
+
+			if(gap > 0 && gap <= limit)
+			{
+				total += gap;
+				gaps++;
+			}
+		}
+
+		return gaps == 0 ? width : 3.0 * total / gaps;
+	}
+
+	private void setThresholds()
+	{
+		topThreshold = buckets.length * 2;
+		bottomThreshold = buckets.length <= MIN_BUCKETS ? 0 : buckets.length / 2;
+	}
+
+	private long virtualBucket(double t)
+	{
+		return (long) (t / width);
+	}
+
+	private static final int MIN_BUCKETS = 2;
+	private static final int WIDTH_SAMPLES = 25;
+	private static final int DIRECT_SEARCH_LIMIT = 64;
+	private static final double DEFAULT_WIDTH = 1.0;
+
+	private ProcListEntry[] buckets;
+	private double width;
+	private long currentBucket = 0;
+	private double lastTime = 0.0;
+	private int size = 0;
+	private int topThreshold;
+	private int bottomThreshold;
+	private int directSearches = 0;
+}
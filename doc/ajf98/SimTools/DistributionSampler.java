@@ -34,7 +34,60 @@ SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
 
 package doc.ajf98.SimTools;
 
-public abstract class DistributionSampler
+import doc.ajf98.util.Random;
+
+/**
+ * @author Andrew Ferrier
+ * @version 0.4
+ */
+
+public abstract class DistributionSampler implements Checkpointable
 {
+	/**
+	 * Create a sampler which does not need random numbers.
+	 */
+
+	protected DistributionSampler()
+	{
+		this(null);
+	}
+
+	/**
+	 * @param random the random number stream to sample from.
+	 */
+
+	protected DistributionSampler(Random random)
+	{
+		this.random = random;
+	}
+
 	public abstract double next() ;
+
+	/**
+	 * @return a lower bound on the values returned by next(). This
+	 *	is zero unless overridden, which holds for all of the
+	 *	distributions of non-negative values.
+	 */
+
+	public double minimum()
+	{
+		return 0.0;
+	}
+
+	/**
+	 * Samplers have no state of their own unless this is overridden.
+	 * The state of the random number stream is saved with the
+	 * simulation.
+	 */
+
+	public Object saveState()
+	{
+		return null;
+	}
+
+	public void restoreState(Object state)
+	{
+	}
+
+	protected final Random random;
 }
@@ -0,0 +1,83 @@
+/*
+
+Copyright (c) 2002, 2012, Andrew Ferrier. Portions based on work by, and (c) 
+Tony Field 2000, 2001. All rights reserved.
+
+Redistribution and use in source and binary forms, with or without 
+modification, are permitted provided that the following conditions are 
+met: 
+
+Redistributions of source code must retain the above copyright notice, 
+this list of conditions and the following disclaimer.
+ 
+Redistributions in binary form must reproduce the above copyright notice, 
+this list of conditions and the following disclaimer in the documentation 
+and/or other materials provided with the distribution. 
+ 
+The name(s) of the author(s) of the software may not be used to endorse or 
+promote products derived from this software without specific prior written 
+permission.
+ 
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS 
+IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, 
+THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR 
+PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR 
+CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, 
+EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, 
+PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR 
+PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF 
+LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING 
+NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS 
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+*/
+
+package doc.ajf98.SimTools;
+
+/**
+ * An implementation of this interface holds the pending events
+ * (process wakeups) for {@link PSim}, ordered by wake time, then by
+ * priority, then by the sequence number which PSim gives each entry
+ * when it is scheduled (see {@link ProcListEntry#before(ProcListEntry,
+ * ProcListEntry)}). No two entries are equal in this order, so an
+ * implementation need not be stable, and the choice of implementation
+ * never changes the results of a simulation.
+ *
+ * @author Andrew Ferrier
+ * @version 0.3
+ */
+
+public interface EventQueue
+{
+	/**
+	 * Place an entry in the event queue.
+	 *
+	 * @param e the entry to insert.
+	 */
+
+	public void insert(ProcListEntry e);
+
+	/**
+	 * Remove the first entry from the event queue.
+	 *
+	 * @return the first entry.
+	 * @throws EmptyListException if the event queue is empty.
+	 */
+
+	public ProcListEntry removeFirst() throws EmptyListException;
+
+	/**
+	 * @return the first entry, which is left in the event queue.
+	 * @throws EmptyListException if the event queue is empty.
+	 */
+
+	public ProcListEntry first() throws EmptyListException;
+
+	public boolean isEmpty();
+
+	/**
+	 * @return the number of entries currently in the event queue.
+	 */
+
+	public int size();
+}
@@ -0,0 +1,121 @@
+/*
+
+Copyright (c) 2002, 2012, Andrew Ferrier. Portions based on work by, and (c) 
+Tony Field 2000, 2001. All rights reserved.
+
+Redistribution and use in source and binary forms, with or without 
+modification, are permitted provided that the following conditions are 
+met: 
+
+Redistributions of source code must retain the above copyright notice, 
+this list of conditions and the following disclaimer.
+ 
+Redistributions in binary form must reproduce the above copyright notice, 
+this list of conditions and the following disclaimer in the documentation 
+and/or other materials provided with the distribution. 
+ 
+The name(s) of the author(s) of the software may not be used to endorse or 
+promote products derived from this software without specific prior written 
+permission.
+ 
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS 
+IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, 
+THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR 
+PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR 
+CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, 
+EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, 
+PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR 
+PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF 
+LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING 
+NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS 
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+*/
+
+package doc.ajf98.SimTools;
+
+import java.util.concurrent.atomic.*;
+import java.util.concurrent.locks.*;
+
+/**
+ * A semaphore which only ever has a single thread waiting on it (the
+ * 'owner', which is the only thread which calls {@link #down()}), as is
+ * the case for the semaphores used to hand control between the event
+ * loop and the processes in {@link PSim}.
+ *
+ * Waiting is done with {@link LockSupport#park(Object)} rather than a
+ * monitor, so there is no lock to contend for, and a virtual thread
+ * which is waiting does not pin its carrier thread. Optionally, the
+ * owner can spin for a while before parking: if the other thread
+ * hands control back quickly, as it usually does, this avoids the
+ * cost of parking and being unparked altogether, at the expense of
+ * keeping a processor busy.
+ *
+ * @author Andrew Ferrier
+ * @version 0.2
+ */
+
+public class HandoffSemaphore extends Semaphore
+{
+	public HandoffSemaphore()
+	{
+		this(0);
+	}
+
+	/**
+	 * @param spins the number of times to check for a permit before
+	 *	parking.
+	 */
+
+	public HandoffSemaphore(int spins)
+	{
+		this.spins = spins;
+	}
+
+	public void up()
+	{
+		permits.incrementAndGet();
+
+		if(parked)
+			LockSupport.unpark(owner);
+	}
+
+	public void down() throws InterruptedException
+	{
+		owner = Thread.currentThread();
+
+		for(int i = 0; i < spins; i++)
+		{
+			if(tryDown())
+				return;
+
+			Thread.onSpinWait();
+		}
+
+		while(!tryDown())
+		{
+			parked = true;
+
+			// up() might have been called before parked was set.
+
+			if(permits.get() == 0)
+				LockSupport.park(this);
+
+			parked = false;
+
+			if(Thread.interrupted())
+				throw new InterruptedException();
+		}
+	}
+
+	private boolean tryDown()
+	{
+		int p = permits.get();
+		return p > 0 && permits.compareAndSet(p, p - 1);
+	}
+
+	private final AtomicInteger permits = new AtomicInteger();
+	private final int spins;
+	private volatile Thread owner;
+	private volatile boolean parked = false;
+}
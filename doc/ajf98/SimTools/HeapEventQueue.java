@@ -0,0 +1,149 @@
+/*
+
+Copyright (c) 2002, 2012, Andrew Ferrier. Portions based on work by, and (c) 
+Tony Field 2000, 2001. All rights reserved.
+
+Redistribution and use in source and binary forms, with or without 
+modification, are permitted provided that the following conditions are 
+met: 
+
+Redistributions of source code must retain the above copyright notice, 
+this list of conditions and the following disclaimer.
+ 
+Redistributions in binary form must reproduce the above copyright notice, 
+this list of conditions and the following disclaimer in the documentation 
+and/or other materials provided with the distribution. 
+ 
+The name(s) of the author(s) of the software may not be used to endorse or 
+promote products derived from this software without specific prior written 
+permission.
+ 
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS 
+IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, 
+THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR 
+PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR 
+CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, 
+EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, 
+PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR 
+PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF 
+LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING 
+NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS 
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+*/
+
+package doc.ajf98.SimTools;
+
+/**
+ * An event queue implemented as an array-based binary heap, giving
+ * O(log n) insertion and removal. A binary heap is not stable, but ties
+ * between equal wake times are broken by the sequence numbers of the
+ * entries.
+ *
+ * @author Andrew Ferrier
+ * @version 0.3
+ */
+
+public class HeapEventQueue implements EventQueue
+{
+	public HeapEventQueue()
+	{
+		this(DEFAULT_CAPACITY);
+	}
+
+	public HeapEventQueue(int initialCapacity)
+	{
+		if(initialCapacity < 1)
+			initialCapacity = DEFAULT_CAPACITY;
+
+		heap = new ProcListEntry[initialCapacity];
+	}
+
+	public void insert(ProcListEntry e)
+	{
+		if(size == heap.length)
+		{
+			ProcListEntry[] newHeap = new ProcListEntry[heap.length * 2];
+			System.arraycopy(heap, 0, newHeap, 0, size);
+			heap = newHeap;
+		}
+
+		siftUp(size++, e);
+	}
+
+	public ProcListEntry removeFirst() throws EmptyListException
+	{
+		if(size == 0)
+			throw new EmptyListException("event queue");
+
+		ProcListEntry first = heap[0];
+		ProcListEntry last = heap[--size];
+		heap[size] = null;
+
+		if(size > 0)
+			siftDown(0, last);
+
+		return first;
+	}
+
+	public ProcListEntry first() throws EmptyListException
+	{
+		if(size == 0)
+			throw new EmptyListException("event queue");
+
+		return heap[0];
+	}
+
+	public boolean isEmpty()
+	{
+		return size == 0;
+	}
+
+	public int size()
+	{
+		return size;
+	}
+
+	private void siftUp(int i, ProcListEntry e)
+	{
+		while(i > 0)
+		{
+			int parent = (i - 1) >>> 1;
+
+			if(!ProcListEntry.before(e, heap[parent]))
+				break;
+
+			heap[i] = heap[parent];
+			i = parent;
+		}
+
+		heap[i] = e;
+	}
+
+	private void siftDown(int i, ProcListEntry e)
+	{
+		int half = size >>> 1;
+
+		while(i < half)
+		{
+			int child = 2 * i + 1;
+			int right = child + 1;
+
+			if(right < size && ProcListEntry.before(heap[right], heap[child]))
+				child = right;
+
+			if(!ProcListEntry.before(heap[child], e))
+				break;
+
+			heap[i] = heap[child];
+			i = child;
+		}
+
+		heap[i] = e;
+	}
+
+	private static final int DEFAULT_CAPACITY = 64;
+
+	private ProcListEntry[] heap;
+	private int size = 0;
+}
@@ -0,0 +1,349 @@
+/*
+
+Copyright (c) 2002, 2012, Andrew Ferrier. Portions based on work by, and (c) 
+Tony Field 2000, 2001. All rights reserved.
+
+Redistribution and use in source and binary forms, with or without 
+modification, are permitted provided that the following conditions are 
+met: 
+
+Redistributions of source code must retain the above copyright notice, 
+this list of conditions and the following disclaimer.
+ 
+Redistributions in binary form must reproduce the above copyright notice, 
+this list of conditions and the following disclaimer in the documentation 
+and/or other materials provided with the distribution. 
+ 
+The name(s) of the author(s) of the software may not be used to endorse or 
+promote products derived from this software without specific prior written 
+permission.
+ 
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS 
+IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, 
+THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR 
+PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR 
+CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, 
+EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, 
+PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR 
+PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF 
+LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING 
+NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS 
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+*/
+
+package doc.ajf98.SimTools;
+
+import java.util.Arrays;
+
+/**
+ * A histogram of non-negative values, such as response times, from
+ * which percentiles can be read. The buckets are log-linear, as in
+ * Gil Tene's HdrHistogram: each power of two is divided into the same
+ * number of equal sub-buckets, so every value is counted to within
+ * the same relative precision, however large it is. Values are first
+ * counted in whole units, so values smaller than a unit are counted as
+ * zero.
+ *
+ * The counts are kept in pages of buckets, which are only allocated
+ * when a value is first counted in them, and the array of pages grows
+ * when a value is larger than any before, which only happens a few
+ * times. Its size is bounded by the number of sub-buckets and the
+ * 64-bit range of the units.
+ *
+ * Saving the state copies only the array of pages, which the saved
+ * state shares; a shared page is copied the first time a value is
+ * counted in it afterwards. So saving the state often, as an optimistic
+ * partition does, costs little more than the pages which have changed.
+ *
+ * Histograms with the same unit and precision can be merged, for
+ * example to pool the response times of several replications.
+ *
+ * @author Andrew Ferrier
+ * @version 0.3
+ */
+
+public class Histogram implements PercentileEstimator
+{
+	/**
+	 * A histogram with a unit of a microsecond of virtual time and a
+	 * precision of 1 in 128.
+	 */
+
+	public Histogram()
+	{
+		this(DEFAULT_UNIT, DEFAULT_PRECISION_BITS);
+	}
+
+	/**
+	 * @param unit the smallest value which is distinguished from zero.
+	 * @param precisionBits each value is counted to within 1 part in
+	 *	2 to the power of this, which must be between 1 and 16.
+	 */
+
+	public Histogram(double unit, int precisionBits)
+	{
+		if(!(unit > 0))
+			throw new IllegalArgumentException("The unit of a histogram must be positive.");
+
+		if(precisionBits < 1 || precisionBits > 16)
+			throw new IllegalArgumentException("The precision of a histogram must be between 1 and 16 bits.");
+
+		this.unit = unit;
+		this.precisionBits = precisionBits;
+		this.halfCount = 1 << (precisionBits - 1);
+		this.maxBuckets = (65 - precisionBits) * halfCount;
+		this.pages = new long[pageCount(2 * halfCount)][];
+		this.shared = new boolean[pages.length];
+	}
+
+	/**
+	 * Count a value. Negative values are counted as zero.
+	 */
+
+	public void add(double x)
+	{
+		int i = index(x > 0 ? (long) (x / unit) : 0);
+
+		if(i >= pages.length << PAGE_BITS)
+			grow(Math.max(pageCount(i + 1), pages.length * 2));
+
+		page(i >>> PAGE_BITS)[i & PAGE_MASK]++;
+
+		if(n == 0 || x < min)
+			min = x;
+
+		if(n == 0 || x > max)
+			max = x;
+
+		n++;
+	}
+
+	/**
+	 * Add the counts in another histogram to those in this one.
+	 *
+	 * @throws IllegalArgumentException if the other histogram has a
+	 *	different unit or precision.
+	 */
+
+	public void add(Histogram h)
+	{
+		if(h.unit != unit || h.precisionBits != precisionBits)
+			throw new IllegalArgumentException("Only histograms with the same unit and precision can be merged.");
+
+		if(h.n == 0)
+			return;
+
+		if(h.pages.length > pages.length)
+			grow(h.pages.length);
+
+		for(int p = 0; p < h.pages.length; p++)
+		{
+			if(h.pages[p] == null)
+				continue;
+
+			long[] page = page(p);
+
+			for(int i = 0; i < PAGE_SIZE; i++)
+				page[i] += h.pages[p][i];
+		}
+
+		if(n == 0 || h.min < min)
+			min = h.min;
+
+		if(n == 0 || h.max > max)
+			max = h.max;
+
+		n += h.n;
+	}
+
+	public long count()
+	{
+		return n;
+	}
+
+	/**
+	 * @param p the percentage of values, between 0 and 100.
+	 * @return the smallest value which at least p% of the values counted
+	 *	are no larger than, to within the precision of the histogram (it
+	 *	is never smaller), or NaN if no values have been counted.
+	 */
+
+	public double percentile(double p)
+	{
+		if(n == 0)
+			return Double.NaN;
+
+		long rank = Math.max(1, (long) Math.ceil(p / 100.0 * n));
+		long seen = 0;
+
+		for(int j = 0; j < pages.length; j++)
+		{
+			if(pages[j] == null)
+				continue;
+
+			for(int i = 0; i < PAGE_SIZE; i++)
+			{
+				seen += pages[j][i];
+
+				if(seen >= rank)
+					return Math.max(min, Math.min(max, highestEquivalent((j << PAGE_BITS) + i) * unit));
+			}
+		}
+
+		return max;
+	}
+
+	public double min()
+	{
+		return n == 0 ? Double.NaN : min;
+	}
+
+	public double max()
+	{
+		return n == 0 ? Double.NaN : max;
+	}
+
+	public void reset()
+	{
+		Arrays.fill(pages, null);
+		Arrays.fill(shared, false);
+		n = 0;
+		min = max = 0.0;
+	}
+
+	public Object saveState()
+	{
+		State s = new State();
+		s.pages = (long[][]) pages.clone();
+		Arrays.fill(shared, true);
+		s.n = n;
+		s.min = min;
+		s.max = max;
+		return s;
+	}
+
+	public void restoreState(Object state)
+	{
+		State s = (State) state;
+		pages = (long[][]) s.pages.clone();
+		shared = new boolean[pages.length];
+		Arrays.fill(shared, true);
+		n = s.n;
+		min = s.min;
+		max = s.max;
+	}
+
+	private static class State implements java.io.Serializable
+	{
+		long[][] pages;
+		long n;
+		double min, max;
+	}
+
+	/**
+	 * @return page p of the counts, which may be counted in: it is
+	 *	allocated if it was not before, and copied if it is shared with
+	 *	a saved state.
+	 */
+
+	private long[] page(int p)
+	{
+		if(pages[p] == null)
+			pages[p] = new long[PAGE_SIZE];
+		else if(shared[p])
+			pages[p] = (long[]) pages[p].clone();
+
+		shared[p] = false;
+		return pages[p];
+	}
+
+	/**
+	 * Grow the array of pages to hold at least the given number of
+	 * pages, but no more than are needed for the largest number of
+	 * units.
+	 */
+
+	private void grow(int count)
+	{
+		count = Math.min(count, pageCount(maxBuckets));
+		pages = (long[][]) Arrays.copyOf(pages, count);
+		shared = Arrays.copyOf(shared, count);
+	}
+
+	/**
+	 * @return the number of pages needed for the given number of
+	 *	buckets.
+	 */
+
+	private static int pageCount(int buckets)
+	{
+		return (buckets + PAGE_MASK) >>> PAGE_BITS;
+	}
+
+	/**
+	 * Values below 2 * halfCount units each have their own bucket. Above
+	 * that, each power of two has halfCount buckets.
+	 */
+
+	private int index(long v)
+	{
+		if(v < 2 * halfCount)
+			return (int) v;
+
+		int shift = 63 - Long.numberOfLeadingZeros(v) - (precisionBits - 1);
+		return shift * halfCount + (int) (v >>> shift);
+	}
+
+	/**
+	 * @return one more than the largest number of units counted in
+	 *	bucket i.
+	 */
+
+	private double highestEquivalent(int i)
+	{
+		if(i < 2 * halfCount)
+			return i + 1;
+
+		int shift = i / halfCount - 1;
+		long low = ((long) (i % halfCount + halfCount)) << shift;
+		return (double) low + (double) (1L << shift);
+	}
+
+	private static final double DEFAULT_UNIT = 1e-6;
+	private static final int DEFAULT_PRECISION_BITS = 7;
+
+	private final double unit;
+	private final int precisionBits;
+	private final int halfCount;
+
+	/**
+	 * The number of buckets needed for the largest number of units.
+	 */
+
+	private final int maxBuckets;
+
+	/**
+	 * The number of buckets in a page is 2 to the power of PAGE_BITS.
+	 */
+
+	private static final int PAGE_BITS = 6;
+	private static final int PAGE_SIZE = 1 << PAGE_BITS;
+	private static final int PAGE_MASK = PAGE_SIZE - 1;
+
+	/**
+	 * The pages of counts, each of which is null if nothing has been
+	 * counted in it.
+	 */
+
+	private long[][] pages;
+
+	/**
+	 * Whether each page is shared with a saved state, and so must be
+	 * copied before it is counted in.
+	 */
+
+	private boolean[] shared;
+	private long n = 0;
+	private double min = 0.0, max = 0.0;
+}
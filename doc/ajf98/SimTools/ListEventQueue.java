@@ -0,0 +1,101 @@
+/*
+
+Copyright (c) 2002, 2012, Andrew Ferrier. Portions based on work by, and (c) 
+Tony Field 2000, 2001. All rights reserved.
+
+Redistribution and use in source and binary forms, with or without 
+modification, are permitted provided that the following conditions are 
+met: 
+
+Redistributions of source code must retain the above copyright notice, 
+this list of conditions and the following disclaimer.
+ 
+Redistributions in binary form must reproduce the above copyright notice, 
+this list of conditions and the following disclaimer in the documentation 
+and/or other materials provided with the distribution. 
+ 
+The name(s) of the author(s) of the software may not be used to endorse or 
+promote products derived from this software without specific prior written 
+permission.
+ 
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS 
+IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, 
+THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR 
+PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR 
+CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, 
+EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, 
+PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR 
+PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF 
+LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING 
+NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS 
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+*/
+
+package doc.ajf98.SimTools;
+
+/**
+ * The original event list, which is a linear ordered list. Insertion
+ * is O(n) in the number of pending events, so this is only suitable for
+ * small systems; it is retained so that the other implementations can be
+ * compared against it. The entries are chained together through their
+ * own next fields, so that inserting one allocates nothing.
+ *
+ * @author Andrew Ferrier
+ * @author Tony Field
+ * @version 0.4
+ */
+
+public class ListEventQueue implements EventQueue
+{
+	public void insert(ProcListEntry e)
+	{
+		if(head == null || ProcListEntry.before(e, head))
+		{
+			e.next = head;
+			head = e;
+		}
+		else
+		{
+			ProcListEntry before = head;
+
+			while(before.next != null && ProcListEntry.before(before.next, e))
+				before = before.next;
+
+			e.next = before.next;
+			before.next = e;
+		}
+
+		size++;
+	}
+
+	public ProcListEntry removeFirst() throws EmptyListException
+	{
+		ProcListEntry e = first();
+		head = e.next;
+		e.next = null;
+		size--;
+		return e;
+	}
+
+	public ProcListEntry first() throws EmptyListException
+	{
+		if(head == null)
+			throw new EmptyListException("event queue");
+
+		return head;
+	}
+
+	public boolean isEmpty()
+	{
+		return head == null;
+	}
+
+	public int size()
+	{
+		return size;
+	}
+
+	private ProcListEntry head = null;
+	private int size = 0;
+}
@@ -0,0 +1,169 @@
+/*
+
+Copyright (c) 2002, 2012, Andrew Ferrier. Portions based on work by, and (c) 
+Tony Field 2000, 2001. All rights reserved.
+
+Redistribution and use in source and binary forms, with or without 
+modification, are permitted provided that the following conditions are 
+met: 
+
+Redistributions of source code must retain the above copyright notice, 
+this list of conditions and the following disclaimer.
+ 
+Redistributions in binary form must reproduce the above copyright notice, 
+this list of conditions and the following disclaimer in the documentation 
+and/or other materials provided with the distribution. 
+ 
+The name(s) of the author(s) of the software may not be used to endorse or 
+promote products derived from this software without specific prior written 
+permission.
+ 
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS 
+IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, 
+THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR 
+PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR 
+CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, 
+EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, 
+PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR 
+PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF 
+LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING 
+NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS 
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+*/
+
+package doc.ajf98.SimTools;
+
+/**
+ * Finds where the initial transient of an output series ends, by the
+ * MSER-5 rule (K. P. White, "An effective truncation heuristic for
+ * bias reduction in simulation output", Simulation 69(6), 1997). The
+ * observations are averaged in batches of five, and the truncation
+ * point is the number of batches d which minimises the squared
+ * standard error of the mean of the batches after it,
+ *
+ *	MSER(d) = sum over j > d of (Z(j) - mean(d))^2 / (n - d)^2,
+ *
+ * which trades the bias of the early batches against the variance of
+ * having fewer. Only the first half of the series is searched, since
+ * the statistic is unreliable with few batches left after d, and a
+ * minimum at the end of that half means the series has not yet
+ * settled.
+ *
+ * @author Andrew Ferrier
+ * @version 0.1
+ */
+
+public class MserTruncation implements Checkpointable
+{
+	/**
+	 * The number of observations averaged in each batch.
+	 */
+
+	public static final int BATCH_SIZE = 5;
+
+	public void add(double x)
+	{
+		pendingSum += x;
+
+		if(++pending < BATCH_SIZE)
+			return;
+
+		if(batches == means.length)
+		{
+			double[] larger = new double[2 * means.length];
+			System.arraycopy(means, 0, larger, 0, batches);
+			means = larger;
+		}
+
+		means[batches++] = pendingSum / BATCH_SIZE;
+		pendingSum = 0.0;
+		pending = 0;
+	}
+
+	/**
+	 * @return the number of complete batches.
+	 */
+
+	public int batches()
+	{
+		return batches;
+	}
+
+	/**
+	 * @return the number of batches to truncate, at most half of them,
+	 *	which minimises the MSER statistic, or -1 if there are fewer
+	 *	than four batches.
+	 */
+
+	public int truncation()
+	{
+		if(batches < 4)
+			return -1;
+
+		// The mean and sum of squared deviations of the batches from d
+		// on are kept by Welford's method, working backwards.
+
+		double mean = 0.0, m2 = 0.0, best = Double.POSITIVE_INFINITY;
+		int bestD = -1;
+
+		for(int d = batches - 1; d >= 0; d--)
+		{
+			int n = batches - d;
+			double delta = means[d] - mean;
+			mean += delta / n;
+			m2 += delta * (means[d] - mean);
+
+			if(d <= batches / 2 && m2 / ((double) n * n) <= best)
+			{
+				best = m2 / ((double) n * n);
+				bestD = d;
+			}
+		}
+
+		return bestD;
+	}
+
+	/**
+	 * @return whether the truncation point is before the end of the
+	 *	half of the batches searched, and so can be trusted.
+	 */
+
+	public boolean isSettled()
+	{
+		int d = truncation();
+		return d >= 0 && d < batches / 2;
+	}
+
+	public void reset()
+	{
+		batches = 0;
+		pending = 0;
+		pendingSum = 0.0;
+	}
+
+	public Object saveState()
+	{
+		double[] s = new double[batches + 2];
+		System.arraycopy(means, 0, s, 0, batches);
+		s[batches] = pending;
+		s[batches + 1] = pendingSum;
+		return s;
+	}
+
+	public void restoreState(Object state)
+	{
+		double[] s = (double[]) state;
+		batches = s.length - 2;
+		means = new double[Math.max(INITIAL_BATCHES, batches)];
+		System.arraycopy(s, 0, means, 0, batches);
+		pending = (int) s[batches];
+		pendingSum = s[batches + 1];
+	}
+
+	private static final int INITIAL_BATCHES = 64;
+
+	private double[] means = new double[INITIAL_BATCHES];
+	private int batches = 0, pending = 0;
+	private double pendingSum = 0.0;
+}
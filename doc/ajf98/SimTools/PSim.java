@@ -35,67 +35,717 @@ SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
 package doc.ajf98.SimTools;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadFactory;
+
+import doc.ajf98.util.Random;
 
 /**
- * Version 1.0 was Tony Field's version.
+ * Version 1.0 was Tony Field's version. The event list is now
+ * held behind the {@link EventQueue} interface, so that
+ * different implementations can be selected. Processes can be
+ * executed either by handing control between their threads (the
+ * original mode), or directly from the event loop in this class,
+ * without any threads at all: see {@link SimProcess}. The process
+ * threads can be virtual threads, and control can be handed between
+ * threads either with a monitor or by parking and unparking them (see
+ * {@link HandoffSemaphore}).
+ *
+ * Each instance of this class is a separate simulation, with its own
+ * clock, event list, process threads and random number stream, so
+ * several can be run at the same time. An event-driven simulation can
+ * also be advanced in steps, so that it can be kept in step with
+ * others, and its clock, event list and random number stream can be
+ * saved and restored, so that it can be rolled back.
+ *
+ * A scheduled wakeup can be cancelled, or moved to another time, with
+ * the entry returned by {@link #schedule(SimProcess, double)}, which
+ * serves as its handle. A cancelled entry is only marked, and skipped
+ * when it reaches the front of the event list. Once cancelled entries
+ * make up more than half of the event list they are all taken out, so
+ * each cancellation costs O(log n) amortised with any event queue which
+ * inserts in O(log n), and cancelled entries never more than double the
+ * size of the event list.
+ *
+ * The wakeups which processes schedule for themselves, with
+ * {@link SimProcess#hold(double)}, {@link SimProcess#scheduleHold(double)}
+ * and {@link SimProcess#activate()}, are not handles, so their entries
+ * are returned to a pool when they are taken out of the event list and
+ * reused. Once the pool has grown to the largest number of such
+ * wakeups pending at once, scheduling and executing events allocates
+ * nothing.
+ *
+ * Wakeups at the same time are taken in order of priority, lowest
+ * first, and then in the order in which they were scheduled, which is
+ * recorded with a sequence number. The order of the event list is
+ * therefore fully determined by the simulation, whichever event queue
+ * is used, and is saved and restored with it.
  *
  * @author Andrew Ferrier
  * @author Tony Field
- * @version 1.2
+ * @version 2.8
  */
 
-public class PSim
+public class PSim implements Checkpointable
 {
-    protected static void schedule(SimProcess p, double t)
+	/**
+	 * Each process has its own thread.
+	 */
+
+	public static final int EXECUTION_THREADED = 0;
+
+	/**
+	 * Processes are state machines, resumed from a single thread.
+	 */
+
+	public static final int EXECUTION_EVENT_DRIVEN = 1;
+
+	/**
+	 * Each process has its own virtual thread (Java 21 and later).
+	 */
+
+	public static final int EXECUTION_VIRTUAL_THREADED = 2;
+
+	/**
+	 * Control is handed between threads with a monitor-based
+	 * {@link Semaphore} (the original behaviour). This cannot be used
+	 * with virtual threads.
+	 */
+
+	public static final int HANDOFF_MONITOR = 0;
+
+	/**
+	 * Control is handed between threads by parking and unparking them.
+	 */
+
+	public static final int HANDOFF_PARK = 1;
+
+	/**
+	 * As {@link #HANDOFF_PARK}, but threads spin briefly before parking.
+	 */
+
+	public static final int HANDOFF_SPIN = 2;
+
+	/**
+	 * The seed used for the random number stream if none is given.
+	 */
+
+	public static final long DEFAULT_SEED = 0;
+
+	/**
+	 * The priority of wakeups which are not given one.
+	 */
+
+	public static final int DEFAULT_PRIORITY = 0;
+
+	public PSim()
+	{
+		this(DEFAULT_SEED);
+	}
+
+	/**
+	 * @param seed the seed for this simulation's random number stream.
+	 */
+
+	public PSim(long seed)
+	{
+		random = new Random(seed);
+	}
+
+	/**
+	 * Schedule a process to be woken at time t.
+	 *
+	 * @return the entry for the wakeup, with which it can be
+	 *	cancelled or rescheduled.
+	 */
+
+	protected ProcListEntry schedule(SimProcess p, double t)
+	{
+		return schedule(p, t, DEFAULT_PRIORITY);
+	}
+
+	/**
+	 * Schedule a process to be woken at time t, before any other
+	 * wakeups at the same time with higher priority values.
+	 *
+	 * @return the entry for the wakeup, with which it can be
+	 *	cancelled or rescheduled.
+	 */
+
+	protected ProcListEntry schedule(SimProcess p, double t, int priority)
+	{
+		ProcListEntry e = new ProcListEntry(p, t);
+		e.priority = priority;
+		e.sequence = nextSequence++;
+		procList.insert(e);
+		return e;
+	}
+
+	/**
+	 * Schedule a process to be woken at time t, with an entry from the
+	 * pool. The entry is returned to the pool when it is taken out of
+	 * the event list, so it must not be used as a handle.
+	 */
+
+	void wake(SimProcess p, double t)
 	{
-		procList.insert(new ProcListEntry(p, t));
+		wake(p, t, DEFAULT_PRIORITY, nextSequence++);
 	}
 
-	public static double now()
+	private void wake(SimProcess p, double t, int priority, long sequence)
+	{
+		ProcListEntry e = freeEntries;
+
+		if(e == null)
+		{
+			e = new ProcListEntry(p, t);
+			e.pooled = true;
+		}
+		else
+		{
+			freeEntries = e.next;
+			e.next = null;
+			e.proc = p;
+			e.wakeTime = t;
+			e.pending = true;
+		}
+
+		e.priority = priority;
+		e.sequence = sequence;
+		procList.insert(e);
+	}
+
+	/**
+	 * Return an entry to the pool, if it came from there.
+	 */
+
+	private void recycle(ProcListEntry e)
+	{
+		if(e.pooled && !e.cancelled)
+		{
+			e.proc = null;
+			e.next = freeEntries;
+			freeEntries = e;
+		}
+	}
+
+	/**
+	 * Cancel a wakeup. The process is not woken until it is scheduled
+	 * again, so a process which is holding in threaded mode waits until
+	 * it is activated.
+	 *
+	 * @param e the entry returned when the wakeup was scheduled.
+	 * @return false if the wakeup has already happened, or has
+	 *	already been cancelled.
+	 */
+
+	public boolean cancel(ProcListEntry e)
+	{
+		if(!e.pending)
+			return false;
+
+		e.pending = false;
+		e.cancelled = true;
+		cancelledEntries++;
+
+		if(2 * cancelledEntries > procList.size())
+			removeCancelled();
+
+		return true;
+	}
+
+	/**
+	 * Move a wakeup to another time. It is ordered as if it had just
+	 * been scheduled.
+	 *
+	 * @param e the entry returned when the wakeup was scheduled.
+	 * @param t the new time at which to wake the process.
+	 * @return the entry for the new wakeup, which has the same
+	 *	priority.
+	 * @throws IllegalStateException if the wakeup has already
+	 *	happened, or has been cancelled.
+	 */
+
+	public ProcListEntry reschedule(ProcListEntry e, double t)
+	{
+		if(!cancel(e))
+			throw new IllegalStateException("Only a pending wakeup can be rescheduled.");
+
+		return schedule(e.proc, t, e.priority);
+	}
+
+	public double now()
 	{
 		return time;
 	}
 
-	public static void execute(Stoppable b) throws InterruptedException
+	/**
+	 * @return the number of events (process wakeups) which have been
+	 * executed so far.
+	 */
+
+	public long eventsProcessed()
+	{
+		return eventsProcessed;
+	}
+
+	/**
+	 * @return the random number stream for this simulation. All
+	 * sampling in the simulation should be done from this stream, so
+	 * that the simulation can be repeated.
+	 */
+
+	public Random getRandom()
+	{
+		return random;
+	}
+
+	/**
+	 * Set the implementation of the event list. This must be done
+	 * before any process is activated.
+	 *
+	 * @param eventQueue the (empty) event queue to use.
+	 */
+
+	public void setEventQueue(EventQueue eventQueue)
+	{
+		if(!procList.isEmpty())
+			throw new IllegalStateException("The event queue cannot be changed once processes have been scheduled.");
+
+		procList = eventQueue;
+	}
+
+	/**
+	 * Set the execution mode. This must be done before any
+	 * process is created.
+	 *
+	 * @param mode one of {@link #EXECUTION_THREADED},
+	 *	{@link #EXECUTION_EVENT_DRIVEN} or {@link #EXECUTION_VIRTUAL_THREADED}.
+	 */
+
+	public void setExecutionMode(int mode) throws UnsupportedOperationException
+	{
+		if(mode == EXECUTION_VIRTUAL_THREADED)
+			threadFactory = virtualThreadFactory();
+		else if(mode == EXECUTION_THREADED)
+			threadFactory = null;
+		else if(mode != EXECUTION_EVENT_DRIVEN)
+			throw new IllegalArgumentException("Unknown execution mode " + mode);
+
+		executionMode = mode;
+		psem = newSemaphore();
+	}
+
+	/**
+	 * Set the way in which control is handed between the event loop and
+	 * process threads. This must be done before any process is created.
+	 *
+	 * @param handoff one of {@link #HANDOFF_MONITOR}, {@link #HANDOFF_PARK}
+	 *	or {@link #HANDOFF_SPIN}.
+	 */
+
+	public void setHandoff(int handoff)
+	{
+		if(handoff != HANDOFF_MONITOR && handoff != HANDOFF_PARK && handoff != HANDOFF_SPIN)
+			throw new IllegalArgumentException("Unknown handoff " + handoff);
+
+		this.handoff = handoff;
+		psem = newSemaphore();
+	}
+
+	public boolean isEventDriven()
+	{
+		return executionMode == EXECUTION_EVENT_DRIVEN;
+	}
+
+	/**
+	 * Create a semaphore suitable for handing control between the
+	 * event loop and a process thread.
+	 */
+
+	Semaphore newSemaphore()
+	{
+		// Spinning on a single processor just delays the thread
+		// being waited for.
+
+		if(handoff == HANDOFF_SPIN)
+			return new HandoffSemaphore(Runtime.getRuntime().availableProcessors() > 1 ? HANDOFF_SPINS : 0);
+
+		// Waiting on a monitor would pin a virtual thread to its carrier.
+
+		if(handoff == HANDOFF_PARK || executionMode == EXECUTION_VIRTUAL_THREADED)
+			return new HandoffSemaphore();
+		else
+			return new Semaphore();
+	}
+
+	/**
+	 * Create and start a thread to run a process.
+	 */
+
+	void startThread(Runnable r)
+	{
+		Thread t;
+
+		if(threadFactory != null)
+			t = threadFactory.newThread(r);
+		else
+			t = new Thread(threadGroup, r, "SimProcess");
+
+		threads.add(t);
+		t.start();
+	}
+
+	/**
+	 * Forget a thread which has finished, so that it can be collected.
+	 * This is called by the thread itself.
+	 */
+
+	void threadFinished(Thread t)
 	{
-		while(!b.stop())
+		threads.remove(t);
+	}
+
+	/**
+	 * Stop the threads of all the processes in this simulation.
+	 */
+
+	public void killAll()
+	{
+		Iterator i = threads.iterator();
+
+		while(i.hasNext())
+			((Thread) i.next()).interrupt();
+	}
+
+	/**
+	 * Virtual threads are obtained by reflection, so that this
+	 * class can still be compiled and run on earlier versions of Java.
+	 */
+
+	private static ThreadFactory virtualThreadFactory() throws UnsupportedOperationException
+	{
+		try
 		{
-			ProcListEntry e = (ProcListEntry) (procList.removeFromFront());
-			time = e.wakeTime;
-			e.proc.sem.up();
-			psem.down();
+			Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+			Class builderClass = Class.forName("java.lang.Thread$Builder");
+			builder = builderClass.getMethod("name", String.class).invoke(builder, "SimProcess");
+			return (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
 		}
+		catch(Exception e)
+		{
+			throw new UnsupportedOperationException("Virtual threads are not available in this Java runtime (" + System.getProperty("java.version") + ").");
+		}
+	}
+
+	/**
+	 * @return the wake time of the next event, or infinity if there
+	 *	are no events.
+	 */
 
-		SimProcess.allThreads.interrupt();
+	public double nextEventTime()
+	{
+		while(!procList.isEmpty() && procList.first().cancelled)
+		{
+			procList.removeFirst();
+			cancelledEntries--;
+		}
+
+		return procList.isEmpty() ? Double.POSITIVE_INFINITY : procList.first().wakeTime;
 	}
 
 	/**
-	 * I made this class private --- Andrew Ferrier ---
-	 * there was no need for it to be otherwise.
+	 * Execute every event up to and including time t, including any
+	 * which are scheduled by those events (event-driven mode only).
+	 *
+	 * @param t the time to advance to.
 	 */
 
-	private static class ProcList extends OrderedList
+	public void advance(double t)
 	{
-		public boolean before(Object x, Object y)
+		if(!isEventDriven())
+			throw new IllegalStateException("Only an event-driven simulation can be advanced in steps.");
+
+		while(nextEventTime() <= t)
 		{
-			return (((ProcListEntry) x).wakeTime <= ((ProcListEntry) y).wakeTime);
+			SimProcess p = nextProcess();
+			eventsProcessed++;
+			p.resumeProcess();
 		}
 	}
 
-	private static class ProcListEntry
+	/**
+	 * Save the clock, the event list and the state of the random number
+	 * stream (event-driven mode only). The state of the processes
+	 * themselves must be saved separately.
+	 */
+
+	public Object saveState()
+	{
+		if(!isEventDriven())
+			throw new IllegalStateException("Only the state of an event-driven simulation can be saved.");
+
+		State s = new State();
+		s.time = time;
+		s.eventsProcessed = eventsProcessed;
+		s.random = random.getState();
+
+		// The event queues cannot be iterated over, so the entries are
+		// taken out in order and put back.
+
+		removeCancelled();
+
+		int n = procList.size();
+		ProcListEntry[] entries = new ProcListEntry[n];
+		s.procs = new SimProcess[n];
+		s.wakeTimes = new double[n];
+		s.priorities = new int[n];
+		s.sequences = new long[n];
+		s.nextSequence = nextSequence;
+
+		for(int i = 0; i < n; i++)
+		{
+			entries[i] = procList.removeFirst();
+			s.procs[i] = entries[i].proc;
+			s.wakeTimes[i] = entries[i].wakeTime;
+			s.priorities[i] = entries[i].priority;
+			s.sequences[i] = entries[i].sequence;
+		}
+
+		for(int i = 0; i < n; i++)
+			procList.insert(entries[i]);
+
+		return s;
+	}
+
+	public void restoreState(Object state)
 	{
-		double wakeTime;
-		SimProcess proc;
+		State s = (State) state;
 
-		public ProcListEntry(SimProcess p, double t)
+		// The entries which are taken out are no longer handles for
+		// wakeups.
+
+		while(!procList.isEmpty())
 		{
-			wakeTime = t;
-			proc = p;
+			ProcListEntry e = procList.removeFirst();
+			e.pending = false;
+			recycle(e);
 		}
+
+		cancelledEntries = 0;
+
+		for(int i = 0; i < s.procs.length; i++)
+			wake(s.procs[i], s.wakeTimes[i], s.priorities[i], s.sequences[i]);
+
+		nextSequence = s.nextSequence;
+
+		time = s.time;
+		eventsProcessed = s.eventsProcessed;
+		random.setState(s.random);
 	}
 
-	static Semaphore psem = new Semaphore();
-	static double time = 0.0;
+	private static class State implements java.io.Serializable
+	{
+		double time;
+		long eventsProcessed, random, nextSequence;
+		SimProcess[] procs;
+		double[] wakeTimes;
+		int[] priorities;
+		long[] sequences;
+	}
+
+	/**
+	 * Execute events until one later than endTime has been executed.
+	 *
+	 * @param endTime the time to execute until.
+	 */
+
+	public void execute(double endTime) throws InterruptedException
+	{
+		execute(endTime, Long.MAX_VALUE);
+	}
+
+	/**
+	 * Execute events until one later than endTime has been executed,
+	 * or until maxEvents have been executed. Nothing else is checked
+	 * between events. Calling this repeatedly with the same end time
+	 * executes the same events as calling it once, so a simulation
+	 * can be executed in stages, with other work (such as reporting
+	 * progress) done in between. Unlike {@link #execute(Stoppable)},
+	 * this does not stop the process threads at the end.
+	 *
+	 * @param endTime the time to execute until.
+	 * @param maxEvents the most events to execute.
+	 * @return true if an event later than endTime has been executed.
+	 */
+
+	public boolean execute(double endTime, long maxEvents) throws InterruptedException
+	{
+		long n = 0;
+
+		if(isEventDriven())
+		{
+			while(time <= endTime && n < maxEvents)
+			{
+				SimProcess p = nextProcess();
+				eventsProcessed++;
+				p.resumeProcess();
+				n++;
+			}
+		}
+		else
+		{
+			while(time <= endTime && n < maxEvents)
+			{
+				SimProcess p = nextProcess();
+				eventsProcessed++;
+				p.sem.up();
+				psem.down();
+				n++;
+			}
+		}
+
+		return time > endTime;
+	}
+
+	public void execute(Stoppable b) throws InterruptedException
+	{
+		if(isEventDriven())
+		{
+			while(!b.stop())
+			{
+				SimProcess p = nextProcess();
+				eventsProcessed++;
+				p.resumeProcess();
+			}
+		}
+		else
+		{
+			while(!b.stop())
+			{
+				SimProcess p = nextProcess();
+				eventsProcessed++;
+				p.sem.up();
+				psem.down();
+			}
+
+			killAll();
+		}
+	}
+
+	/**
+	 * Take the next wakeup out of the event list, and advance the
+	 * clock to it.
+	 *
+	 * @return the process to wake.
+	 * @throws EmptyListException if there is none.
+	 */
+
+	private SimProcess nextProcess() throws EmptyListException
+	{
+		ProcListEntry e = removeFirst();
+		SimProcess p = e.proc;
+		time = e.wakeTime;
+		recycle(e);
+		return p;
+	}
+
+	/**
+	 * Take the first entry which has not been cancelled out of the
+	 * event list.
+	 *
+	 * @throws EmptyListException if there is none.
+	 */
+
+	private ProcListEntry removeFirst() throws EmptyListException
+	{
+		ProcListEntry e = procList.removeFirst();
+
+		while(e.cancelled)
+		{
+			cancelledEntries--;
+			e = procList.removeFirst();
+		}
+
+		e.pending = false;
+		return e;
+	}
+
+	/**
+	 * Take every cancelled entry out of the event list. The event queues
+	 * cannot be iterated over, so the entries are taken out in order and
+	 * the others are put back.
+	 */
+
+	private void removeCancelled()
+	{
+		if(cancelledEntries == 0)
+			return;
+
+		int n = procList.size() - cancelledEntries;
+		ProcListEntry[] entries = new ProcListEntry[n];
+
+		for(int i = 0; i < n; i++)
+			entries[i] = removeFirst();
+
+		while(!procList.isEmpty())
+			procList.removeFirst();
+
+		for(int i = 0; i < n; i++)
+		{
+			entries[i].pending = true;
+			procList.insert(entries[i]);
+		}
+
+		cancelledEntries = 0;
+	}
+
+	Semaphore psem = new Semaphore();
+	double time = 0.0;
+
+	private int executionMode = EXECUTION_THREADED;
+	private int handoff = HANDOFF_MONITOR;
+	private ThreadFactory threadFactory = null;
+
+	/**
+	 * The number of times a thread checks for control before parking,
+	 * when using {@link #HANDOFF_SPIN}.
+	 */
+
+	private static final int HANDOFF_SPINS = 2000;
+
+	private long eventsProcessed = 0;
+
+	/**
+	 * The sequence number for the next wakeup to be scheduled.
+	 */
+
+	private long nextSequence = 0;
+	private EventQueue procList = new HeapEventQueue();
+
+	/**
+	 * The number of cancelled entries still in the event list.
+	 */
+
+	private int cancelledEntries = 0;
+
+	/**
+	 * The pool of entries for wakeups which are not handles, chained
+	 * through their next fields.
+	 */
+
+	private ProcListEntry freeEntries = null;
+	private final Random random;
+
+	private final ThreadGroup threadGroup = new ThreadGroup("Processes");
+
+	/**
+	 * The threads of the processes which have not finished. Virtual
+	 * threads cannot be placed in a thread group, so this is used to
+	 * interrupt them all at the end of the simulation. Threads are
+	 * started by whichever thread activates a process, and remove
+	 * themselves when they finish, so this must be thread-safe.
+	 */
 
-	private static ProcList procList = new ProcList();
+	private final Set threads = ConcurrentHashMap.newKeySet();
 }
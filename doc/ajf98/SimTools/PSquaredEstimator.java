@@ -0,0 +1,259 @@
+/*
+
+Copyright (c) 2002, 2012, Andrew Ferrier. Portions based on work by, and (c) 
+Tony Field 2000, 2001. All rights reserved.
+
+Redistribution and use in source and binary forms, with or without 
+modification, are permitted provided that the following conditions are 
+met: 
+
+Redistributions of source code must retain the above copyright notice, 
+this list of conditions and the following disclaimer.
+ 
+Redistributions in binary form must reproduce the above copyright notice, 
+this list of conditions and the following disclaimer in the documentation 
+and/or other materials provided with the distribution. 
+ 
+The name(s) of the author(s) of the software may not be used to endorse or 
+promote products derived from this software without specific prior written 
+permission.
+ 
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS 
+IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, 
+THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR 
+PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR 
+CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, 
+EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, 
+PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR 
+PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF 
+LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING 
+NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS 
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+*/
+
+package doc.ajf98.SimTools;
+
+import java.util.Arrays;
+
+/**
+ * Estimates a fixed set of percentiles with the P-squared algorithm
+ * (R. Jain and I. Chlamtac, "The P^2 Algorithm for Dynamic Calculation
+ * of Quantiles and Histograms Without Storing Observations", CACM
+ * 28(10), 1985). Each percentile is tracked by five markers, whose
+ * heights are adjusted with a piecewise-parabolic fit as values are
+ * added, so an estimator takes constant space and adding a value takes
+ * constant time, however many values there are. The estimates are less
+ * exact than those of a {@link Histogram}, particularly for extreme
+ * percentiles and few values, and estimators cannot be merged.
+ *
+ * @author Andrew Ferrier
+ * @version 0.1
+ */
+
+public class PSquaredEstimator implements PercentileEstimator
+{
+	/**
+	 * @param percentiles the percentiles to track, each between 0 and
+	 *	100.
+	 */
+
+	public PSquaredEstimator(double[] percentiles)
+	{
+		this.percentiles = (double[]) percentiles.clone();
+
+		int k = percentiles.length;
+		heights = new double[k][MARKERS];
+		positions = new double[k][MARKERS];
+		desired = new double[k][MARKERS];
+
+		reset();
+	}
+
+	public void add(double x)
+	{
+		n++;
+
+		if(n <= MARKERS)
+		{
+			// The first five values are the initial heights of the
+			// markers for every percentile.
+
+			for(int j = 0; j < percentiles.length; j++)
+			{
+				heights[j][(int) n - 1] = x;
+
+				if(n == MARKERS)
+					Arrays.sort(heights[j]);
+			}
+
+			return;
+		}
+
+		for(int j = 0; j < percentiles.length; j++)
+			add(j, x);
+	}
+
+	private void add(int j, double x)
+	{
+		double[] q = heights[j];
+		double[] pos = positions[j];
+		double[] want = desired[j];
+		double p = percentiles[j] / 100.0;
+
+		int k;
+
+		if(x < q[0])
+		{
+			q[0] = x;
+			k = 0;
+		}
+		else if(x >= q[4])
+		{
+			q[4] = x;
+			k = 3;
+		}
+		else
+		{
+			k = 0;
+
+			while(x >= q[k + 1])
+				k++;
+		}
+
+		for(int i = k + 1; i < MARKERS; i++)
+			pos[i]++;
+
+		want[1] += p / 2;
+		want[2] += p;
+		want[3] += (1 + p) / 2;
+		want[4] += 1;
+
+		for(int i = 1; i < MARKERS - 1; i++)
+		{
+			double d = want[i] - pos[i];
+
+			if((d >= 1 && pos[i + 1] - pos[i] > 1) || (d <= -1 && pos[i - 1] - pos[i] < -1))
+			{
+				int s = d > 0 ? 1 : -1;
+				double h = parabolic(q, pos, i, s);
+
+				if(q[i - 1] < h && h < q[i + 1])
+					q[i] = h;
+				else
+					q[i] += s * (q[i + s] - q[i]) / (pos[i + s] - pos[i]);
+
+				pos[i] += s;
+			}
+		}
+	}
+
+	private static double parabolic(double[] q, double[] pos, int i, int s)
+	{
+		return q[i] + s / (pos[i + 1] - pos[i - 1]) *
+			((pos[i] - pos[i - 1] + s) * (q[i + 1] - q[i]) / (pos[i + 1] - pos[i]) +
+			(pos[i + 1] - pos[i] - s) * (q[i] - q[i - 1]) / (pos[i] - pos[i - 1]));
+	}
+
+	/**
+	 * Until there are five values, the percentile is taken directly
+	 * from those there are.
+	 *
+	 * @throws IllegalArgumentException if the percentile is not one of
+	 *	those tracked.
+	 */
+
+	public double percentile(double p)
+	{
+		int j = 0;
+
+		while(j < percentiles.length && percentiles[j] != p)
+			j++;
+
+		if(j == percentiles.length)
+			throw new IllegalArgumentException("The " + p + "th percentile is not being estimated.");
+
+		if(n == 0)
+			return Double.NaN;
+
+		if(n < MARKERS)
+		{
+			double[] values = Arrays.copyOf(heights[j], (int) n);
+			Arrays.sort(values);
+			return values[(int) Math.max(0, Math.ceil(p / 100.0 * n) - 1)];
+		}
+
+		return heights[j][2];
+	}
+
+	public long count()
+	{
+		return n;
+	}
+
+	public void reset()
+	{
+		n = 0;
+
+		for(int j = 0; j < percentiles.length; j++)
+		{
+			double p = percentiles[j] / 100.0;
+
+			for(int i = 0; i < MARKERS; i++)
+				positions[j][i] = i;
+
+			desired[j][0] = 0;
+			desired[j][1] = 2 * p;
+			desired[j][2] = 4 * p;
+			desired[j][3] = 2 + 2 * p;
+			desired[j][4] = 4;
+		}
+	}
+
+	public Object saveState()
+	{
+		State s = new State();
+		s.n = n;
+		s.heights = copy(heights);
+		s.positions = copy(positions);
+		s.desired = copy(desired);
+		return s;
+	}
+
+	public void restoreState(Object state)
+	{
+		State s = (State) state;
+		n = s.n;
+		heights = copy(s.heights);
+		positions = copy(s.positions);
+		desired = copy(s.desired);
+	}
+
+	private static double[][] copy(double[][] a)
+	{
+		double[][] b = new double[a.length][];
+
+		for(int i = 0; i < a.length; i++)
+			b[i] = (double[]) a[i].clone();
+
+		return b;
+	}
+
+	private static class State implements java.io.Serializable
+	{
+		long n;
+		double[][] heights, positions, desired;
+	}
+
+	private static final int MARKERS = 5;
+
+	private final double[] percentiles;
+
+	/**
+	 * The heights, actual positions and desired positions of the
+	 * markers for each percentile. Positions count from zero.
+	 */
+
+	private double[][] heights, positions, desired;
+	private long n;
+}
@@ -0,0 +1,138 @@
+/*
+
+Copyright (c) 2002, 2012, Andrew Ferrier. Portions based on work by, and (c) 
+Tony Field 2000, 2001. All rights reserved.
+
+Redistribution and use in source and binary forms, with or without 
+modification, are permitted provided that the following conditions are 
+met: 
+
+Redistributions of source code must retain the above copyright notice, 
+this list of conditions and the following disclaimer.
+ 
+Redistributions in binary form must reproduce the above copyright notice, 
+this list of conditions and the following disclaimer in the documentation 
+and/or other materials provided with the distribution. 
+ 
+The name(s) of the author(s) of the software may not be used to endorse or 
+promote products derived from this software without specific prior written 
+permission.
+ 
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS 
+IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, 
+THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR 
+PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR 
+CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, 
+EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, 
+PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR 
+PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF 
+LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING 
+NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS 
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+*/
+
+package doc.ajf98.SimTools;
+
+/**
+ * An entry in the {@link EventQueue}: a process and the virtual
+ * time at which it should be woken. This used to be a private class
+ * within {@link PSim}. It is also the handle with which the wakeup
+ * can be cancelled or rescheduled, unless it came from the pool in
+ * {@link PSim}.
+ *
+ * @author Andrew Ferrier
+ * @author Tony Field
+ * @version 1.4
+ */
+
+public class ProcListEntry
+{
+	ProcListEntry(SimProcess p, double t)
+	{
+		wakeTime = t;
+		proc = p;
+	}
+
+	public double getWakeTime()
+	{
+		return wakeTime;
+	}
+
+	public SimProcess getProcess()
+	{
+		return proc;
+	}
+
+	public int getPriority()
+	{
+		return priority;
+	}
+
+	/**
+	 * @return true until the process has been woken, or the wakeup
+	 *	has been cancelled.
+	 */
+
+	public boolean isPending()
+	{
+		return pending;
+	}
+
+	double wakeTime;
+	SimProcess proc;
+	boolean pending = true;
+
+	/**
+	 * Set when the wakeup is cancelled. The entry is left in the event
+	 * queue, and skipped when it is removed.
+	 */
+
+	boolean cancelled = false;
+
+	/**
+	 * The order in which entries are taken out of the event list:
+	 * by wake time, then with the lowest priority value first, then
+	 * in the order in which they were scheduled.
+	 *
+	 * @return true if x comes before y.
+	 */
+
+	static boolean before(ProcListEntry x, ProcListEntry y)
+	{
+		if(x.wakeTime != y.wakeTime)
+			return x.wakeTime < y.wakeTime;
+
+		if(x.priority != y.priority)
+			return x.priority < y.priority;
+
+		return x.sequence < y.sequence;
+	}
+
+	/**
+	 * Wakeups at the same time are ordered by priority, lowest first.
+	 */
+
+	int priority = PSim.DEFAULT_PRIORITY;
+
+	/**
+	 * Given by {@link PSim} when the wakeup is scheduled, to order
+	 * wakeups with the same time and priority.
+	 */
+
+	long sequence;
+
+	/**
+	 * Set if the entry came from the pool, and is returned to it when
+	 * it is taken out of the event list.
+	 */
+
+	boolean pooled = false;
+
+	/**
+	 * Used by event queues which chain entries together, and by the
+	 * pool.
+	 */
+
+	ProcListEntry next;
+}
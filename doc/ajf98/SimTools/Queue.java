@@ -48,11 +48,22 @@ import doc.ajf98.SimTools.exceptions.*;
  *
  * @author Andrew Ferrier
  * @author Tony Field
- * @version 1.1.1
+ * @version 1.8
  */
 
-public class Queue
+public class Queue implements Checkpointable
 {
+	/**
+	 * @param sim the simulation whose clock is used to time entries.
+	 */
+
+	public Queue(PSim sim)
+	{
+		this.sim = sim;
+		this.popMeasure = new SystemMeasure(sim);
+		this.lengths = new TimeWeightedDistribution(sim);
+	}
+
 	public int queueLength()
 	{
 		return q.size();
@@ -65,15 +76,19 @@ public class Queue
 
 	public void enqueue(Object o) throws QueueFullException
 	{
-		q.add(new QueueEntry(o));
+		q.add(new QueueEntry(o, sim.time));
 		popMeasure.update((float) q.size());
+		lengths.update(q.size());
 	}
 
 	public Object dequeue()
 	{
 		QueueEntry e = (QueueEntry) q.removeFirst();
 		popMeasure.update((float) q.size());
-		responseTimeMeasure.add(PSim.time - e.entryTime);
+		lengths.update(q.size());
+		lastTimeInQueue = sim.time - e.entryTime;
+		responseTimeMeasure.add(lastTimeInQueue);
+		responseTimePercentiles.add(lastTimeInQueue);
 		return e.entry;
 	}
 
@@ -97,15 +112,78 @@ public class Queue
 		return popMeasure.variance();
 	}
 
+	/**
+	 * @return the distribution of the length of this queue over time,
+	 *	from which the capacity of a {@link BalkingQueue} which would
+	 *	rarely be full can be read.
+	 */
+
+	public TimeWeightedDistribution queueLengthDistribution()
+	{
+		return lengths;
+	}
+
+	/**
+	 * @return the time which the entry last dequeued spent in the queue.
+	 */
+
+	public double lastTimeInQueue()
+	{
+		return lastTimeInQueue;
+	}
+
 	public double meanTimeInQueue()
 	{
 		return responseTimeMeasure.mean();
 	}
 
+	/**
+	 * @return the estimator of the percentiles of the times which
+	 *	entries have spent in the queue.
+	 */
+
+	public PercentileEstimator timeInQueuePercentiles()
+	{
+		return responseTimePercentiles;
+	}
+
+	/**
+	 * Set the estimator of the percentiles of the times which entries
+	 * spend in the queue, which is a {@link Histogram} unless this is
+	 * called. This must be done before anything is queued.
+	 */
+
+	public void setTimeInQueuePercentiles(PercentileEstimator e)
+	{
+		responseTimePercentiles = e;
+	}
+
 	public void reset()
 	{
 		responseTimeMeasure.reset();
+		responseTimePercentiles.reset();
 		popMeasure.reset();
+		lengths.reset();
+	}
+
+	/**
+	 * The entries themselves are never changed, so the saved state
+	 * shares them.
+	 */
+
+	public Object saveState()
+	{
+		return new Object[] { q.clone(), responseTimeMeasure.saveState(), popMeasure.saveState(), responseTimePercentiles.saveState(), lengths.saveState() };
+	}
+
+	public void restoreState(Object state)
+	{
+		Object[] s = (Object[]) state;
+		q = (LinkedList) ((LinkedList) s[0]).clone();
+		responseTimeMeasure.restoreState(s[1]);
+		popMeasure.restoreState(s[2]);
+		responseTimePercentiles.restoreState(s[3]);
+		lengths.restoreState(s[4]);
 	}
 
 	/**
@@ -113,20 +191,24 @@ public class Queue
 	 * for it to be friendly. Ditto the static modifier.
 	 */
 
-	private static class QueueEntry
+	private static class QueueEntry implements java.io.Serializable
 	{
 		double entryTime;
 		Object entry;
 
-		public QueueEntry(Object o)
+		public QueueEntry(Object o, double entryTime)
 		{
-			entryTime = PSim.time;
+			this.entryTime = entryTime;
 			entry = o;
 		}
 	}
 
 	private Measure responseTimeMeasure = new Measure();
-	private SystemMeasure popMeasure = new SystemMeasure();
+	private PercentileEstimator responseTimePercentiles = new Histogram();
+	private SystemMeasure popMeasure;
+	private TimeWeightedDistribution lengths;
+	private double lastTimeInQueue = 0.0;
+	private PSim sim;
 
 	private LinkedList q = new LinkedList();
 }
@@ -41,14 +41,39 @@ package doc.ajf98.SimTools;
  *
  * @author Andrew Ferrier
  * @author Tony Field
- * @version 1.2
+ * @version 1.5
  */
 
-public class Resource
+public class Resource implements Checkpointable
 {
+	/**
+	 * @param sim the simulation whose clock is used to measure
+	 *	utilisation.
+	 */
+
+	public Resource(PSim sim)
+	{
+		this.sim = sim;
+		utilisationMeasure = new SystemMeasure(sim);
+	}
+
 	public void claim()
 	{
-		claimed++;
+		// A claim at the same time as the release which made this
+		// resource idle, as when a processor is handed on at the end
+		// of a time slice, continues the busy period.
+
+		if(claimed++ == 0)
+		{
+			if(idleSince != sim.time)
+			{
+				endBusyPeriod();
+				busySince = sim.time;
+			}
+
+			idleSince = Double.NaN;
+		}
+
 		utilisationMeasure.update(1.0);
 	}
 
@@ -57,7 +82,10 @@ public class Resource
 		claimed--;
 
 		if (claimed == 0)
+		{
 			utilisationMeasure.update(0.0);
+			idleSince = sim.time;
+		}
 	} 
 
 	public boolean isBusy()
@@ -70,11 +98,88 @@ public class Resource
 		return utilisationMeasure.mean();
 	}
 
+	/**
+	 * @return the lengths of the busy periods of this resource, each of
+	 *	which is counted once it has ended.
+	 */
+
+	public Measure busyPeriods()
+	{
+		if(idleSince < sim.time)
+			endBusyPeriod();
+
+		return busyPeriods;
+	}
+
+	public PercentileEstimator busyPeriodPercentiles()
+	{
+		if(idleSince < sim.time)
+			endBusyPeriod();
+
+		return busyPeriodPercentiles;
+	}
+
+	/**
+	 * Count the busy period which ended when this resource became idle,
+	 * if it has not been counted.
+	 */
+
+	private void endBusyPeriod()
+	{
+		if(!Double.isNaN(idleSince))
+		{
+			busyPeriods.add(idleSince - busySince);
+			busyPeriodPercentiles.add(idleSince - busySince);
+			idleSince = Double.NaN;
+		}
+	}
+
+	/**
+	 * Set the estimator of the percentiles of the lengths of busy
+	 * periods, which is a {@link Histogram} unless this is called. This
+	 * must be done before the resource is claimed.
+	 */
+
+	public void setBusyPeriodPercentiles(PercentileEstimator e)
+	{
+		busyPeriodPercentiles = e;
+	}
+
 	public void reset()
 	{
 		utilisationMeasure.reset();
+		busyPeriods.reset();
+		busyPeriodPercentiles.reset();
+		idleSince = Double.NaN;
+	}
+
+	public Object saveState()
+	{
+		return new Object[] { Integer.valueOf(claimed), utilisationMeasure.saveState(), new double[] { busySince, idleSince },
+			busyPeriods.saveState(), busyPeriodPercentiles.saveState() };
+	}
+
+	public void restoreState(Object state)
+	{
+		Object[] s = (Object[]) state;
+		claimed = ((Integer) s[0]).intValue();
+		utilisationMeasure.restoreState(s[1]);
+		busySince = ((double[]) s[2])[0];
+		idleSince = ((double[]) s[2])[1];
+		busyPeriods.restoreState(s[3]);
+		busyPeriodPercentiles.restoreState(s[4]);
 	}
 
 	private int claimed = 0;
-	private SystemMeasure utilisationMeasure = new SystemMeasure() ;
+	private SystemMeasure utilisationMeasure;
+	private PSim sim;
+
+	/**
+	 * The time at which the current or last busy period started, and
+	 * the time at which it ended if it has not been counted yet.
+	 */
+
+	private double busySince, idleSince = Double.NaN;
+	private Measure busyPeriods = new Measure();
+	private PercentileEstimator busyPeriodPercentiles = new Histogram();
 }
@@ -39,9 +39,10 @@ import doc.ajf98.util.*;
 /**
  * Tony Field's original version of this class is
  * considered by me to be version 1.0. I have made
- * some performance optimisations.
+ * some performance optimisations. Each sampler now draws from the
+ * random number stream it is given.
  *
- * @version 1.3.3.1
+ * @version 1.3.6
  */
 
 public class Samplers
@@ -58,13 +59,19 @@ public class Samplers
 			return value;
 		}
 
+		public double minimum()
+		{
+			return value;
+		}
+
 		private double value;
 	}
 
 	public static class Erlang extends DistributionSampler
 	{
-		public Erlang(double k, double theta)
+		public Erlang(double k, double theta, Random random)
 		{
+			super(random);
 			this.k = k;
 			this.theta = theta;
 			this.kTheta = k * theta;
@@ -86,8 +93,9 @@ public class Samplers
 
 	public static class Exp extends DistributionSampler
 	{
-		public Exp(double rate)
+		public Exp(double rate, Random random)
 		{
+			super(random);
 			this.rate = rate; 
 		}
 
@@ -170,8 +178,9 @@ public class Samplers
 
 	public static class Normal extends DistributionSampler
 	{
-		public Normal( double mu, double sigma )
+		public Normal(double mu, double sigma, Random random)
 		{
+			super(random);
 			this.mu = mu;
 			this.sigma = sigma;
 		}
@@ -193,6 +202,29 @@ public class Samplers
 				return k * Math.sin(TWOPI * r2)	* sigma	+ mu;
 		}
 
+		public double minimum()
+		{
+			return Double.NEGATIVE_INFINITY;
+		}
+
+		/**
+		 * The second of each pair of values is kept for the
+		 * next call.
+		 */
+
+		public Object saveState()
+		{
+			return new double[] { mustRedo ? 1.0 : 0.0, r2, k };
+		}
+
+		public void restoreState(Object state)
+		{
+			double[] s = (double[]) state;
+			mustRedo = s[0] != 0.0;
+			r2 = s[1];
+			k = s[2];
+		}
+
 		private static final double TWOPI = 2 * Math.PI;
 		private double mu, sigma, r2, k;
 		private boolean mustRedo = false;
@@ -200,9 +232,9 @@ public class Samplers
 
 	public static class PositiveNormal extends DistributionSampler
 	{
-        public PositiveNormal(double mu, double sigma)
+        public PositiveNormal(double mu, double sigma, Random random)
 		{
-			norm = new Normal(mu, sigma);
+			norm = new Normal(mu, sigma, random);
 		}
 
 		public double next()
@@ -210,13 +242,24 @@ public class Samplers
 			return Math.abs(norm.next());
 		}
 
+		public Object saveState()
+		{
+			return norm.saveState();
+		}
+
+		public void restoreState(Object state)
+		{
+			norm.restoreState(state);
+		}
+
 		private Normal norm;
 	}
 
 	public static class Uniform extends DistributionSampler
 	{
-		public Uniform( double a, double b )
+		public Uniform(double a, double b, Random random)
 		{
+			super(random);
 			this.a = a ;
 			this.b = b ;
 		}
@@ -225,14 +268,20 @@ public class Samplers
 		{
 			return random.nextDouble() * (b - a) + a;
 		}
+
+		public double minimum()
+		{
+			return Math.min(a, b);
+		}
 		
 		private double a, b; 
 	}
 
 	public static class Weibull extends DistributionSampler
 	{
-        public Weibull(double alpha, double beta)
+        public Weibull(double alpha, double beta, Random random)
 		{
+			super(random);
 			this.alpha = alpha ;
 			this.beta = beta ;
 		}
@@ -247,8 +296,9 @@ public class Samplers
 
 	public static class Geometric extends DistributionSampler
 	{
-        public Geometric(double p)
+        public Geometric(double p, Random random)
 		{
+			super(random);
 			q = Math.log(1 - p);
 		}
 
@@ -266,8 +316,9 @@ public class Samplers
 		 * @param lambda must be greater than 0
 		 */
 
-		public Pareto(double a) throws IllegalArgumentException
+		public Pareto(double a, Random random) throws IllegalArgumentException
 		{
+			super(random);
 			if (!(a > 0))
 				throw new IllegalArgumentException("The parameter must be greater than 0");
 
@@ -284,8 +335,9 @@ public class Samplers
 
 	public static class ContinuousEmpirical extends DistributionSampler
 	{
-        public ContinuousEmpirical(double xs[], double fs[])
+        public ContinuousEmpirical(double xs[], double fs[], Random random)
 		{
+			super(random);
 			if(xs.length != (fs.length + 1) || fs.length == 0)
 				throw new IllegalArgumentException("Empirical distribution array error");
 
@@ -317,13 +369,25 @@ public class Samplers
 				(xs[index + 1] - xs[index]) ;
 		}
 
+		public double minimum()
+		{
+			double min = xs[0];
+
+			for(int i = 1; i < xs.length; i++)
+				if(xs[i] < min)
+					min = xs[i];
+
+			return min;
+		}
+
 		private double xs[], cs[];
 	}      
 
 	public static class DiscreteEmpirical extends DistributionSampler
 	{
-        public DiscreteEmpirical(double xs[], double fs[])
+        public DiscreteEmpirical(double xs[], double fs[], Random random)
 		{
+			super(random);
 			if(xs.length != fs.length || fs.length == 0)
 				throw new IllegalArgumentException("Empirical distribution array error");
 
@@ -353,6 +417,17 @@ public class Samplers
 			return xs[index];
 		}
 
+		public double minimum()
+		{
+			double min = xs[0];
+
+			for(int i = 1; i < xs.length; i++)
+				if(xs[i] < min)
+					min = xs[i];
+
+			return min;
+		}
+
 		private double xs[], cs[];
 	}    
 
@@ -389,6 +464,4 @@ public class Samplers
 			return x;
 		}
 	} */
-
-	private static final Random random = Random.getRandom();
 }
@@ -39,27 +39,77 @@ package doc.ajf98.SimTools;
 /**
  * This class represents an executable simulation process.
  *
+ * A process can be executed in one of two ways, depending upon
+ * the execution mode of {@link PSim}. In the threaded mode, each
+ * process has its own thread, which runs {@link #runProcess()} and
+ * blocks in {@link #hold(double)} and {@link #passivate()}. In the
+ * event-driven mode there are no threads: {@link #resumeProcess()} is
+ * called directly from the event loop each time the process is woken,
+ * and must return after calling {@link #scheduleHold(double)} or
+ * {@link #schedulePassivate()}. Subclasses must implement both, and
+ * they must behave identically.
+ *
+ * The threads used in the threaded mode can be either platform
+ * threads or, on Java 21 and later, virtual threads. A process is only
+ * given its thread when it is first activated, and the thread is
+ * released if {@link #runProcess()} returns, so a system with many
+ * processes which are never activated does not have many idle
+ * threads. A process whose thread has been released is given a new
+ * one, which runs {@link #runProcess()} from the start, if it is
+ * activated again.
+ *
+ * Every process belongs to a single simulation, given when it is
+ * created.
+ *
+ * The state saved by {@link #saveState()} is only whether the process
+ * is active; subclasses add their own. The position of an
+ * event-driven process in its code must be held in fields, so it is
+ * saved with them, but that of a threaded process cannot be saved.
+ *
  * I consider version 1.0 of this class to be written
  * by Tony Field.
  *
  * @author Andrew Ferrier
  * @author Tony Field
- * @version 1.3
+ * @version 2.5
  */
 
-public abstract class SimProcess
+public abstract class SimProcess implements Checkpointable
 {
-	public SimProcess()
+	/**
+	 * @param sim the simulation which this process is part of.
+	 */
+
+	public SimProcess(PSim sim)
 	{
-		(new SimThread()).start();
+		this.sim = sim;
 	}
 
 	/**
-	 * Run this simulation process.
+	 * Run this simulation process (threaded mode).
 	 */
 
 	protected abstract void runProcess() throws InterruptedException;
 
+	/**
+	 * Run this simulation process from the point at which it
+	 * was last suspended, up until the point at which it next
+	 * suspends itself (event-driven mode). This is called on the
+	 * first activation of the process and every time it is woken
+	 * thereafter.
+	 */
+
+	protected abstract void resumeProcess();
+
+	/**
+	 * @return the simulation which this process is part of.
+	 */
+
+	public PSim getSimulation()
+	{
+		return sim;
+	}
+
 	/**
 	 * Hold this simulation process for t virtual time units.
 	 *
@@ -68,7 +118,7 @@ public abstract class SimProcess
 
     protected void hold(double t) throws InterruptedException
 	{
-		PSim.schedule(this, PSim.time + t);
+		sim.wake(this, sim.time + t);
 		waitToBeWoken();
 	}
 
@@ -78,6 +128,58 @@ public abstract class SimProcess
 		waitToBeWoken();
 	}
 
+	/**
+	 * Arrange for this process to be resumed after t virtual time
+	 * units (event-driven mode). The equivalent of
+	 * {@link #hold(double)}; resumeProcess() should return straight
+	 * after calling this.
+	 *
+	 * @param t the number of virtual time units to hold for.
+	 */
+
+	protected void scheduleHold(double t)
+	{
+		sim.wake(this, sim.time + t);
+	}
+
+	/**
+	 * As {@link #scheduleHold(double)}, but the wakeup can be cancelled
+	 * or rescheduled (see {@link PSim#cancel(ProcListEntry)}).
+	 *
+	 * @param t the number of virtual time units to hold for.
+	 * @return the entry for the wakeup.
+	 */
+
+	protected ProcListEntry scheduleTimeout(double t)
+	{
+		return sim.schedule(this, sim.time + t);
+	}
+
+	/**
+	 * As {@link #scheduleTimeout(double)}, but the process is woken
+	 * before any others at the same time with higher priority values.
+	 *
+	 * @param t the number of virtual time units to hold for.
+	 * @param priority the priority of the wakeup.
+	 * @return the entry for the wakeup.
+	 */
+
+	protected ProcListEntry scheduleTimeout(double t, int priority)
+	{
+		return sim.schedule(this, sim.time + t, priority);
+	}
+
+	/**
+	 * Arrange for this process not to be resumed until it is activated
+	 * (event-driven mode). The equivalent of {@link #passivate()};
+	 * resumeProcess() should return straight after calling this.
+	 */
+
+	protected void schedulePassivate()
+	{
+		isActive = false;
+	}
+
 	public static boolean isActive(SimProcess p)
 	{
 		return p.isActive;
@@ -94,7 +196,11 @@ public abstract class SimProcess
 	public static void activate(SimProcess p)
 	{
 		p.isActive = true;
-		PSim.schedule(p, PSim.time);
+
+		if(p.sem == null && !p.sim.isEventDriven())
+			p.start();
+
+		p.sim.wake(p, p.sim.time);
 	}
 
 	public void activate()
@@ -102,29 +208,47 @@ public abstract class SimProcess
 		SimProcess.activate(this);
 	}
 
+	public Object saveState()
+	{
+		return Boolean.valueOf(isActive);
+	}
+
+	public void restoreState(Object state)
+	{
+		isActive = ((Boolean) state).booleanValue();
+	}
+
 	private void waitToBeWoken() throws InterruptedException
 	{
-		PSim.psem.up();
+		sim.psem.up();
 		sem.down(); 
 	}
 
-	private void die() throws InterruptedException
+	/**
+	 * Give this process a thread (threaded mode), which waits until the
+	 * process is first woken.
+	 */
+
+	private void start()
 	{
-		PSim.psem.up();
+		sem = sim.newSemaphore();
+		sim.startThread(new SimThread());
 	}
 
-	public static void killAll()
+	/**
+	 * Release the thread of this process before handing control back,
+	 * so that it is started again if the process is activated again.
+	 */
+
+	private void die() throws InterruptedException
 	{
-		allThreads.destroy();
+		sem = null;
+		sim.threadFinished(Thread.currentThread());
+		sim.psem.up();
 	}
 
-	private class SimThread extends Thread
+	private class SimThread implements Runnable
 	{
-		public SimThread()
-		{
-			super(allThreads, "SimProcess");
-		}
-
 		public void run()
 		{
 			try
@@ -135,12 +259,18 @@ public abstract class SimProcess
 			}
 			catch(InterruptedException e)
 			{
+				sim.threadFinished(Thread.currentThread());
 			}
 		}
 	}
 
-	Semaphore sem = new Semaphore();
-	static ThreadGroup allThreads = new ThreadGroup("Processes");
+	/**
+	 * The semaphore which the thread of this process waits on, or null
+	 * if it does not have a thread.
+	 */
+
+	Semaphore sem = null;
 
+	private final PSim sim;
 	private boolean isActive = false;
 }
@@ -34,41 +34,70 @@ SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
 
 package doc.ajf98.SimTools;
 
+import java.util.Arrays;
+
 /**
  * Version 1.0 was Tony Field's version. I have
  * made changes very similar to those changes
  * I documented for the Measure class.
  *
+ * As in {@link Measure}, the mean and variance are kept with a
+ * weighted form of Welford's method (D. West, "Updating mean and
+ * variance estimates: an improved method", CACM 22(9), 1979), each
+ * value being weighted by the time for which it was held, and sums of
+ * higher powers are only kept if asked for. The time since the last
+ * change is not counted until the next one, as before, so the mean is
+ * taken over the whole time since the last reset but the current value
+ * does not contribute to it yet.
+ *
  * @author Andrew Ferrier
  * @author Tony Field
- * @version 1.2
+ * @version 1.6
  */
 
-public class SystemMeasure
+public class SystemMeasure implements Checkpointable
 {
-	public SystemMeasure()
+	/**
+	 * @param sim the simulation whose clock the measurements are
+	 *	weighted by.
+	 */
+
+	public SystemMeasure(PSim sim)
 	{
-		this(DEFAULT_MEASURE_SIZE);
+		this(sim, DEFAULT_MEASURE_SIZE);
 	}
 
-	public SystemMeasure(int noMoments)
+	public SystemMeasure(PSim sim, int noMoments)
 	{
-		if (noMoments < 2)
-			noMoments = DEFAULT_MEASURE_SIZE;
+		this.sim = sim;
 
-		moments = new double[noMoments + 1];
+		if (noMoments > DEFAULT_MEASURE_SIZE)
+		{
+			moments = new double[noMoments];
+			compensations = new double[noMoments];
+		}
 
-		resetTime = PSim.time;
+		resetTime = sim.time;
 	}
 
 	public void update(double x)
 	{
-		for(int i = 0; i < moments.length; i++)
-			moments[i] += (Math.pow(current, (double) (i + 1))) * 
-						  (PSim.time - lastChange);
+		double w = sim.time - lastChange;
+
+		if(w > 0)
+		{
+			weight += w;
+
+			double d = current - mean;
+			mean += d * w / weight;
+			m2 += w * d * (current - mean);
+
+			if(moments != null)
+				addPowers(current, w);
+		}
 
 		current = x;
-		lastChange = PSim.time;
+		lastChange = sim.time;
 		n++;
 	} 
 
@@ -87,35 +116,133 @@ public class SystemMeasure
 		return lastChange;
 	}
 
+	private void addPowers(double x, double w)
+	{
+		double power = w;
+
+		for(int i = 0; i < moments.length; i++)
+		{
+			power *= x;
+
+			double y = power - compensations[i];
+			double sum = moments[i] + y;
+			compensations[i] = (sum - moments[i]) - y;
+			moments[i] = sum;
+		}
+	}
+
 	public double mean()
 	{
-		return moments[0] / (PSim.time - resetTime);
+		return mean * weight / (sim.time - resetTime);
 	}
 
+	/**
+	 * This is the mean of the square less the square of the mean, as
+	 * before, but rearranged so that no large terms cancel.
+	 */
+
 	public double variance()
 	{
-		double mean = this.mean();
-		return moments[1] / (PSim.time - resetTime) - mean * mean;
+		double f = weight / (sim.time - resetTime);
+		return m2 / (sim.time - resetTime) + mean * mean * f * (1 - f);
 	}
 
+	/**
+	 * @return the sum of the xth powers of the values held, each
+	 *	multiplied by the time for which it was held. Unless more than
+	 *	two moments were asked for, only the first two are available,
+	 *	and are worked out from the mean and variance.
+	 */
+
 	public double moment(int x)
 	{
-		return moments[x - 1];
+		if(moments != null)
+			return moments[x - 1];
+		else if(x == 1)
+			return weight * mean;
+		else if(x == 2)
+			return m2 + weight * mean * mean;
+		else
+			throw new IllegalArgumentException("Only the first " + DEFAULT_MEASURE_SIZE + " moments are kept.");
 	}
 
 	public void reset()
 	{
-		resetTime = PSim.time;
+		resetTime = sim.time;
 		n = 0;
-		for(int i = 0; i < moments.length; i++)
-			moments[i] = 0.0;
+		weight = mean = m2 = 0.0;
+
+		if(moments != null)
+		{
+			Arrays.fill(moments, 0.0);
+			Arrays.fill(compensations, 0.0);
+		}
 	} 
 
+	public Object saveState()
+	{
+		State s = new State();
+		s.lastChange = lastChange;
+		s.n = n;
+		s.weight = weight;
+		s.mean = mean;
+		s.m2 = m2;
+		s.current = current;
+		s.resetTime = resetTime;
+
+		if(moments != null)
+		{
+			s.moments = (double[]) moments.clone();
+			s.compensations = (double[]) compensations.clone();
+		}
+
+		return s;
+	}
+
+	public void restoreState(Object state)
+	{
+		State s = (State) state;
+		lastChange = s.lastChange;
+		n = s.n;
+		weight = s.weight;
+		mean = s.mean;
+		m2 = s.m2;
+		current = s.current;
+		resetTime = s.resetTime;
+
+		if(moments != null)
+		{
+			System.arraycopy(s.moments, 0, moments, 0, moments.length);
+			System.arraycopy(s.compensations, 0, compensations, 0, compensations.length);
+		}
+	}
+
+	private static class State implements java.io.Serializable
+	{
+		double lastChange, current, resetTime, weight, mean, m2;
+		long n;
+		double[] moments, compensations;
+	}
+
 	private double lastChange = 0.0;
 	private long n = 0;
-	private double moments[];
+
+	/**
+	 * The time over which values have been counted, their weighted
+	 * mean, and the weighted sum of their squared differences from it.
+	 */
+
+	private double weight = 0.0, mean = 0.0, m2 = 0.0;
+
+	/**
+	 * The sums of powers, and their Kahan compensations, if more than
+	 * two moments are kept.
+	 */
+
+	private double moments[], compensations[];
 	private double current = 0.0;
 	private double resetTime = 0.0;
+	private PSim sim;
 
 	private static final int DEFAULT_MEASURE_SIZE = 2;
 }   
@@ -0,0 +1,269 @@
+/*
+
+Copyright (c) 2002, 2012, Andrew Ferrier. Portions based on work by, and (c) 
+Tony Field 2000, 2001. All rights reserved.
+
+Redistribution and use in source and binary forms, with or without 
+modification, are permitted provided that the following conditions are 
+met: 
+
+Redistributions of source code must retain the above copyright notice, 
+this list of conditions and the following disclaimer.
+ 
+Redistributions in binary form must reproduce the above copyright notice, 
+this list of conditions and the following disclaimer in the documentation 
+and/or other materials provided with the distribution. 
+ 
+The name(s) of the author(s) of the software may not be used to endorse or 
+promote products derived from this software without specific prior written 
+permission.
+ 
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS 
+IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, 
+THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR 
+PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR 
+CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, 
+EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, 
+PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR 
+PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF 
+LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING 
+NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS 
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+*/
+
+package doc.ajf98.SimTools;
+
+import java.util.Arrays;
+
+/**
+ * The time-weighted distribution of a level which changes over time,
+ * such as the length of a queue: for each level, the time for which it
+ * was held. Levels are counted in log-linear buckets, as in
+ * {@link Histogram}, so small levels are counted exactly and large ones
+ * to within the same relative precision, however large they grow. The
+ * largest level ever held is kept as well.
+ *
+ * A change allocates nothing except when the level is larger than any
+ * before, and the array of times has to grow to hold it, which only
+ * happens a few times.
+ *
+ * Unlike {@link SystemMeasure}, the time since the last change is
+ * counted, so the distribution is always up to date.
+ *
+ * @author Andrew Ferrier
+ * @version 0.2
+ */
+
+public class TimeWeightedDistribution implements Checkpointable
+{
+	/**
+	 * A distribution which counts levels below 128 exactly, and larger
+	 * ones to within 1 part in 64.
+	 */
+
+	public TimeWeightedDistribution(PSim sim)
+	{
+		this(sim, DEFAULT_PRECISION_BITS);
+	}
+
+	/**
+	 * @param precisionBits levels below 2 to the power of this are
+	 *	counted exactly, and larger ones to within 1 part in 2 to the
+	 *	power of one less. It must be between 1 and 16.
+	 */
+
+	public TimeWeightedDistribution(PSim sim, int precisionBits)
+	{
+		if(precisionBits < 1 || precisionBits > 16)
+			throw new IllegalArgumentException("The precision of a distribution must be between 1 and 16 bits.");
+
+		this.sim = sim;
+		this.precisionBits = precisionBits;
+		this.halfCount = 1 << (precisionBits - 1);
+		this.times = new double[2 * halfCount];
+		this.lastChange = sim.time;
+	}
+
+	/**
+	 * The level has changed.
+	 */
+
+	public void update(int level)
+	{
+		times[index(current)] += sim.time - lastChange;
+		lastChange = sim.time;
+		current = level;
+
+		if(level > max)
+		{
+			max = level;
+
+			if(index(max) >= times.length)
+				times = Arrays.copyOf(times, Math.max(index(max) + 1, times.length * 2));
+		}
+	}
+
+	/**
+	 * @return the fraction of the time since the last reset for which
+	 *	the level was at least k, or NaN if no time has passed. This is
+	 *	exact for k which is counted exactly, and otherwise takes the
+	 *	time in k's bucket to be spread evenly over its levels.
+	 */
+
+	public double probabilityAtLeast(int k)
+	{
+		double total = 0.0, atLeast = 0.0;
+
+		k = Math.max(k, 0);
+		int bucket = index(k);
+
+		for(int i = 0; i < times.length; i++)
+		{
+			double t = time(i);
+			total += t;
+
+			if(i > bucket)
+				atLeast += t;
+			else if(i == bucket)
+				atLeast += t * (highest(i) + 1 - k) / (highest(i) + 1 - lowest(i));
+		}
+
+		return atLeast / total;
+	}
+
+	/**
+	 * @param p the percentile, between 0 and 100.
+	 * @return the smallest level which was not exceeded for p% of the
+	 *	time, to within the precision of the distribution (it is never
+	 *	smaller, nor larger than the largest level held), or NaN if no
+	 *	time has passed.
+	 */
+
+	public double percentile(double p)
+	{
+		double total = 0.0;
+
+		for(int i = 0; i < times.length; i++)
+			total += time(i);
+
+		if(total == 0.0)
+			return Double.NaN;
+
+		double below = 0.0;
+
+		for(int i = 0; i < times.length; i++)
+		{
+			below += time(i);
+
+			if(below >= total * p / 100)
+				return Math.min(highest(i), max);
+		}
+
+		return max;
+	}
+
+	/**
+	 * @return the largest level held since the last reset.
+	 */
+
+	public int max()
+	{
+		return max;
+	}
+
+	/**
+	 * The time held at the levels in bucket i, including the time since
+	 * the last change.
+	 */
+
+	private double time(int i)
+	{
+		return times[i] + (i == index(current) ? sim.time - lastChange : 0.0);
+	}
+
+	/**
+	 * Levels below 2 * halfCount each have their own bucket. Above that,
+	 * each power of two has halfCount buckets.
+	 */
+
+	private int index(int level)
+	{
+		if(level < 2 * halfCount)
+			return level;
+
+		int shift = 31 - Integer.numberOfLeadingZeros(level) - (precisionBits - 1);
+		return shift * halfCount + (level >>> shift);
+	}
+
+	/**
+	 * @return the smallest level counted in bucket i.
+	 */
+
+	private long lowest(int i)
+	{
+		if(i < 2 * halfCount)
+			return i;
+
+		int shift = i / halfCount - 1;
+		return ((long) (i % halfCount + halfCount)) << shift;
+	}
+
+	/**
+	 * @return the largest level counted in bucket i.
+	 */
+
+	private long highest(int i)
+	{
+		if(i < 2 * halfCount)
+			return i;
+
+		return lowest(i) + (1L << (i / halfCount - 1)) - 1;
+	}
+
+	/**
+	 * Forget the times held so far, but not the current level.
+	 */
+
+	public void reset()
+	{
+		Arrays.fill(times, 0.0);
+		lastChange = sim.time;
+		max = current;
+	}
+
+	public Object saveState()
+	{
+		State s = new State();
+		s.times = (double[]) times.clone();
+		s.lastChange = lastChange;
+		s.current = current;
+		s.max = max;
+		return s;
+	}
+
+	public void restoreState(Object state)
+	{
+		State s = (State) state;
+		times = (double[]) s.times.clone();
+		lastChange = s.lastChange;
+		current = s.current;
+		max = s.max;
+	}
+
+	private static class State implements java.io.Serializable
+	{
+		double[] times;
+		double lastChange;
+		int current, max;
+	}
+
+	private static final int DEFAULT_PRECISION_BITS = 7;
+
+	private final PSim sim;
+	private final int precisionBits;
+	private final int halfCount;
+	private double[] times;
+	private double lastChange;
+	private int current = 0, max = 0;
+}
@@ -34,65 +34,90 @@ SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
 
 package doc.ajf98.util;
 
-import java.util.*;
-
 /**
  * This class is modelled around the standard Java API
  * class java.util.Random. It is a wrapper which provides
  * additional functionality.
  *
+ * Each simulation has its own instance, so that simulations which
+ * are run at the same time do not disturb one another's random
+ * number streams.
+ *
+ * The generator is the linear congruential generator of
+ * java.util.Random, implemented here so that its state can be saved
+ * and restored; it produces exactly the same numbers.
+ *
  * @author Andrew Ferrier
- * @version 0.2
+ * @version 0.4
  */
 
 public class Random
 {
-	private Random()
+	/**
+	 * @param seed the seed for the random number stream.
+	 */
+
+	public Random(long seed)
 	{
+		this.seed = (seed ^ MULTIPLIER) & MASK;
 	}
 
 	public double nextDouble()
 	{
-		//iterate();
-		//return ((double) x) / ((double) MAX_LONG);
-
-		return javaRandom.nextDouble();
+		return (((long) next(26) << 27) + next(27)) * 0x1.0p-53;
 	}
 
 	public float nextFloat()
 	{
-		return javaRandom.nextFloat();
+		return next(24) / ((float) (1 << 24));
 	}
 
 	public int nextInt(int ubound)
 	{
-		return javaRandom.nextInt(ubound);
+		if(ubound <= 0)
+			throw new IllegalArgumentException("The bound must be positive.");
+
+		int r = next(31);
+		int m = ubound - 1;
+
+		if((ubound & m) == 0)
+			return (int) ((ubound * (long) r) >> 31);
+
+		for(int u = r; u - (r = u % ubound) + m < 0; u = next(31))
+			;
+
+		return r;
 	}
 		
 	public long nextLong()
 	{
-		return javaRandom.nextLong();
+		return ((long) next(32) << 32) + next(32);
 	}
 
-	/* private void iterate()
-	{
-		x = (MULTIPLIER * x + ADDITIVE) % MAX_LONG;
-	} */
+	/**
+	 * @return the current state of the generator, which can be given
+	 *	to {@link #setState(long)} to repeat the numbers which follow.
+	 */
 
-	public static doc.ajf98.util.Random getRandom()
+	public long getState()
 	{
-		return instance;
+		return seed;
 	}
 
-	private final java.util.Random javaRandom = new java.util.Random(0);
+	public void setState(long state)
+	{
+		seed = state & MASK;
+	}
 
-	private static final doc.ajf98.util.Random instance
-		= new doc.ajf98.util.Random();
+	private int next(int bits)
+	{
+		seed = (seed * MULTIPLIER + ADDEND) & MASK;
+		return (int) (seed >>> (48 - bits));
+	}
 
-	/* private long x = 0x0ABCDEFAAAAAAAAAL;
+	private long seed;
 
-	private static final long MULTIPLIER = 5;
-	private static final long ADDITIVE = 3;
-	private static final int LONG_BITS = 60;
-	private static final long MAX_LONG = (long) Math.pow(2, LONG_BITS); */
+	private static final long MULTIPLIER = 0x5DEECE66DL;
+	private static final long ADDEND = 0xBL;
+	private static final long MASK = (1L << 48) - 1;
 }
@@ -0,0 +1,179 @@
+/*
+
+Copyright (c) 2002, 2012, Andrew Ferrier. Portions based on work by, and (c) 
+Tony Field 2000, 2001. All rights reserved.
+
+Redistribution and use in source and binary forms, with or without 
+modification, are permitted provided that the following conditions are 
+met: 
+
+Redistributions of source code must retain the above copyright notice, 
+this list of conditions and the following disclaimer.
+ 
+Redistributions in binary form must reproduce the above copyright notice, 
+this list of conditions and the following disclaimer in the documentation 
+and/or other materials provided with the distribution. 
+ 
+The name(s) of the author(s) of the software may not be used to endorse or 
+promote products derived from this software without specific prior written 
+permission.
+ 
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS 
+IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, 
+THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR 
+PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR 
+CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, 
+EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, 
+PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR 
+PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF 
+LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING 
+NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS 
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+*/
+
+package doc.ajf98.websim;
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.regex.*;
+
+/**
+ * Checks that a model gives the same results every time it is run,
+ * as a partitioned system should however its threads are scheduled.
+ * The model is run several times, each in a separate JVM and with
+ * tracing turned off, and the final information of each run is
+ * compared with that of the first, leaving out the lines which depend
+ * on real time or on how the partitions happened to be scheduled
+ * (such as the number of null messages or rollbacks). The threads of
+ * the partitions interleave most on a machine with more than one
+ * processor, so that is where the check is most searching.
+ *
+ * @author Andrew Ferrier
+ * @version 0.1
+ */
+
+public class DeterminismCheck
+{
+	public static void main(String[] args) throws Exception
+	{
+		if(args.length < 2 || args.length > 3)
+		{
+			System.err.println("Usage: java doc.ajf98.websim.DeterminismCheck <model> <schema> [runs]");
+			System.exit(1);
+		}
+
+		File model = new File(args[0]);
+		File schema = new File(args[1]).getAbsoluteFile();
+		int runs = args.length == 3 ? Integer.parseInt(args[2]) : DEFAULT_RUNS;
+
+		String xml = new String(Files.readAllBytes(model.toPath()), "UTF-8");
+
+		xml = xml.replaceAll("\\straceLevel=\"[^\"]*\"", "");
+		xml = xml.replaceFirst("<system\\s", "<system traceLevel=\"0\" ");
+
+		Path dir = Files.createTempDirectory("ws3");
+		boolean same = true;
+
+		try
+		{
+			Path copy = dir.resolve(model.getName());
+			Files.write(copy, xml.getBytes("UTF-8"));
+
+			List first = run(copy, schema);
+
+			if(first.isEmpty())
+			{
+				System.out.println(model.getName() + " printed no final information.");
+				System.exit(1);
+			}
+
+			System.out.println("Run 1 of " + model.getName() + " on " + Runtime.getRuntime().availableProcessors() + " processors: " + first.size() + " lines of results.");
+
+			for(int i = 2; i <= runs; i++)
+			{
+				List results = run(copy, schema);
+				int line = firstDifference(first, results);
+
+				if(line < 0)
+					System.out.println("Run " + i + ": the same.");
+				else
+				{
+					same = false;
+					System.out.println("Run " + i + ": differs at line " + (line + 1) + ":\n< " +
+						(line < first.size() ? first.get(line) : "") + "\n> " + (line < results.size() ? results.get(line) : ""));
+				}
+			}
+		}
+		finally
+		{
+			File[] files = dir.toFile().listFiles();
+
+			for(int i = 0; i < files.length; i++)
+				files[i].delete();
+
+			Files.delete(dir);
+		}
+
+		System.exit(same ? 0 : 1);
+	}
+
+	/**
+	 * @return the index of the first line at which two results differ,
+	 *	or -1 if they are the same.
+	 */
+
+	private static int firstDifference(List a, List b)
+	{
+		for(int i = 0; i < Math.min(a.size(), b.size()); i++)
+			if(!a.get(i).equals(b.get(i)))
+				return i;
+
+		return a.size() == b.size() ? -1 : Math.min(a.size(), b.size());
+	}
+
+	/**
+	 * Run a model in a new JVM, and return the lines of its final
+	 * information which should be the same every time.
+	 */
+
+	private static List run(Path model, File schema) throws IOException, InterruptedException
+	{
+		List arguments = new ArrayList();
+
+		arguments.add(System.getProperty("java.home") + File.separator + "bin" + File.separator + "java");
+		arguments.add("-cp");
+		arguments.add(System.getProperty("java.class.path"));
+		arguments.add(WebSim.class.getName());
+		arguments.add(model.toString());
+		arguments.add(schema.toString());
+
+		Process process = new ProcessBuilder(arguments).redirectErrorStream(true).start();
+		BufferedReader output = new BufferedReader(new InputStreamReader(process.getInputStream()));
+
+		List results = new ArrayList();
+		boolean finalInformation = false;
+		String line;
+
+		while((line = output.readLine()) != null)
+		{
+			if(line.startsWith("Final Information:"))
+				finalInformation = true;
+			else if(finalInformation && !VARIES.matcher(line).find())
+				results.add(line);
+		}
+
+		process.waitFor();
+
+		return results;
+	}
+
+	private static final int DEFAULT_RUNS = 5;
+
+	/**
+	 * The lines of the final information which may differ from run to
+	 * run.
+	 */
+
+	private static final Pattern VARIES = Pattern.compile("\\(real\\)|Speedup|sent each other|optimistically|Allocated|Free VM");
+}
@@ -0,0 +1,229 @@
+/*
+
+Copyright (c) 2002, 2012, Andrew Ferrier. Portions based on work by, and (c) 
+Tony Field 2000, 2001. All rights reserved.
+
+Redistribution and use in source and binary forms, with or without 
+modification, are permitted provided that the following conditions are 
+met: 
+
+Redistributions of source code must retain the above copyright notice, 
+this list of conditions and the following disclaimer.
+ 
+Redistributions in binary form must reproduce the above copyright notice, 
+this list of conditions and the following disclaimer in the documentation 
+and/or other materials provided with the distribution. 
+ 
+The name(s) of the author(s) of the software may not be used to endorse or 
+promote products derived from this software without specific prior written 
+permission.
+ 
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS 
+IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, 
+THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR 
+PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR 
+CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, 
+EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, 
+PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR 
+PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF 
+LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING 
+NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS 
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+*/
+
+package doc.ajf98.websim;
+
+import java.util.concurrent.Phaser;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Computes the global virtual time of the {@link OptimisticPartition}s
+ * of a system: the earliest time which any of them could still be
+ * rolled back to. Any partition can ask for it to be computed; each
+ * partition then stops at its next event, and they compute it together.
+ *
+ * In between, each partition publishes the time of its next event, so
+ * that the others can limit how far ahead of it they execute.
+ *
+ * @author Andrew Ferrier
+ * @version 0.2
+ */
+
+class GlobalVirtualTime
+{
+	/**
+	 * @param count the number of partitions.
+	 */
+
+	GlobalVirtualTime(int count)
+	{
+		barrier = new Phaser(count);
+		minima = new double[count];
+		nextEventTimes = new AtomicLongArray(count);
+	}
+
+	/**
+	 * Publish the time of a partition's next event.
+	 */
+
+	void setNextEventTime(int index, double t)
+	{
+		nextEventTimes.set(index, Double.doubleToRawLongBits(t));
+	}
+
+	/**
+	 * Lower the published time of a partition's next event, when it has
+	 * been sent a message which it may not have received yet.
+	 */
+
+	void lowerNextEventTime(int index, double t)
+	{
+		long bits;
+
+		do
+		{
+			bits = nextEventTimes.get(index);
+
+			if(Double.longBitsToDouble(bits) <= t)
+				return;
+		}
+		while(!nextEventTimes.compareAndSet(index, bits, Double.doubleToRawLongBits(t)));
+	}
+
+	/**
+	 * @return the earliest time of the next event of any partition other
+	 *	than the given one, as last published.
+	 */
+
+	double earliestNextEventTime(int index)
+	{
+		double t = Double.POSITIVE_INFINITY;
+
+		for(int i = 0; i < nextEventTimes.length(); i++)
+			if(i != index)
+				t = Math.min(t, Double.longBitsToDouble(nextEventTimes.get(i)));
+
+		return t;
+	}
+
+	void request()
+	{
+		requested = true;
+	}
+
+	boolean isRequested()
+	{
+		return requested;
+	}
+
+	/**
+	 * Wait for all the partitions to reach this point.
+	 *
+	 * @throws Abandoned if another partition has failed.
+	 */
+
+	void await()
+	{
+		if(barrier.arriveAndAwaitAdvance() < 0)
+			throw new Abandoned();
+	}
+
+	/**
+	 * Record that a partition received something while the partitions
+	 * were waiting for the messages in transit to arrive.
+	 */
+
+	void setActive()
+	{
+		active = true;
+	}
+
+	boolean isActive()
+	{
+		return active;
+	}
+
+	void clearActive()
+	{
+		active = false;
+	}
+
+	/**
+	 * Record the time of a partition's next event, once there are no
+	 * messages in transit. The first partition also clears the request.
+	 */
+
+	void setMinimum(int index, double t)
+	{
+		minima[index] = t;
+
+		if(index == 0)
+		{
+			requested = false;
+			computations++;
+		}
+	}
+
+	/**
+	 * @return the global virtual time, once every partition has given
+	 *	the time of its next event.
+	 */
+
+	double compute()
+	{
+		double t = Double.POSITIVE_INFINITY;
+
+		for(int i = 0; i < minima.length; i++)
+			t = Math.min(t, minima[i]);
+
+		value = t;
+		return t;
+	}
+
+	/**
+	 * @return the global virtual time last computed.
+	 */
+
+	double value()
+	{
+		return value;
+	}
+
+	long computations()
+	{
+		return computations;
+	}
+
+	/**
+	 * Release the other partitions when one has failed.
+	 */
+
+	void fail()
+	{
+		requested = true;
+		barrier.forceTermination();
+	}
+
+	/**
+	 * Thrown in a partition when another partition has failed.
+	 */
+
+	static class Abandoned extends RuntimeException
+	{
+	}
+
+	private final Phaser barrier;
+	private final double[] minima;
+
+	/**
+	 * The time of each partition's next event, as bits.
+	 */
+
+	private final AtomicLongArray nextEventTimes;
+
+	private volatile boolean requested = false;
+	private volatile boolean active = false;
+	private volatile double value = 0.0;
+	private volatile long computations = 0;
+}
@@ -0,0 +1,197 @@
+/*
+
+Copyright (c) 2002, 2012, Andrew Ferrier. Portions based on work by, and (c) 
+Tony Field 2000, 2001. All rights reserved.
+
+Redistribution and use in source and binary forms, with or without 
+modification, are permitted provided that the following conditions are 
+met: 
+
+Redistributions of source code must retain the above copyright notice, 
+this list of conditions and the following disclaimer.
+ 
+Redistributions in binary form must reproduce the above copyright notice, 
+this list of conditions and the following disclaimer in the documentation 
+and/or other materials provided with the distribution. 
+ 
+The name(s) of the author(s) of the software may not be used to endorse or 
+promote products derived from this software without specific prior written 
+permission.
+ 
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS 
+IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, 
+THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR 
+PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR 
+CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, 
+EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, 
+PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR 
+PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF 
+LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING 
+NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS 
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+*/
+
+package doc.ajf98.websim;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.regex.*;
+
+import doc.ajf98.SimTools.PSim;
+import doc.ajf98.SimTools.SimProcess;
+import doc.ajf98.SimTools.Stoppable;
+
+/**
+ * Measures how quickly control is handed between threads, in events
+ * per second, for each kind of handoff (see {@link PSim#setHandoff(int)}):
+ * first with two processes which just hold repeatedly, so that every
+ * event is a handoff to a different thread, and then with a real model.
+ * The model is run with tracing turned off, so that it measures the
+ * simulation rather than the trace file.
+ *
+ * Each run is made in a separate JVM, so that one run cannot affect
+ * the next through the JIT compiler or the garbage collector.
+ *
+ * @author Andrew Ferrier
+ * @version 0.1
+ */
+
+public class HandoffBenchmark
+{
+	public static void main(String[] args) throws Exception
+	{
+		if(args.length == 3 && args[0].equals(PING_PONG))
+		{
+			pingPong(args[1], Long.parseLong(args[2]));
+		}
+		else if(args.length == 2)
+		{
+			File model = new File(args[0]);
+			File schema = new File(args[1]).getAbsoluteFile();
+
+			System.out.println("handoff\tping-pong (events/s)\t" + model.getName() + " (events/s)");
+
+			for(int i = 0; i < HANDOFFS.length; i++)
+			{
+				System.out.println(HANDOFFS[i] + "\t" +
+					run(new String[] {HandoffBenchmark.class.getName(), PING_PONG, HANDOFFS[i], Long.toString(PING_PONG_EVENTS)}) + "\t" +
+					runModel(model, schema, HANDOFFS[i]));
+			}
+		}
+		else
+		{
+			System.err.println("Usage: java doc.ajf98.websim.HandoffBenchmark <model> <schema>");
+			System.exit(1);
+		}
+	}
+
+	private static void pingPong(String handoff, final long events) throws InterruptedException
+	{
+		final PSim sim = new PSim();
+
+		sim.setHandoff(handoff.equals("park") ? PSim.HANDOFF_PARK :
+			handoff.equals("spin") ? PSim.HANDOFF_SPIN : PSim.HANDOFF_MONITOR);
+
+		new Player(sim).activate();
+		new Player(sim).activate();
+
+		long start = System.currentTimeMillis();
+
+		sim.execute(new Stoppable()
+		{
+			public boolean stop()
+			{
+				return sim.eventsProcessed() >= events;
+			}
+		});
+
+		double realSeconds = (System.currentTimeMillis() - start) / 1000.0;
+
+		System.out.println("Executed " + sim.eventsProcessed() + " events, " + WebSim.formatDouble(sim.eventsProcessed() / realSeconds) + " events/s (real).");
+	}
+
+	private static String runModel(File model, File schema, String handoff) throws Exception
+	{
+		String xml = new String(Files.readAllBytes(model.toPath()), "UTF-8");
+
+		xml = xml.replaceAll("\\s(traceLevel|execution|handoff)=\"[^\"]*\"", "");
+		xml = xml.replaceFirst("<system\\s", "<system traceLevel=\"0\" handoff=\"" + handoff + "\" ");
+
+		Path dir = Files.createTempDirectory("ws3");
+
+		try
+		{
+			Path copy = dir.resolve(model.getName());
+			Files.write(copy, xml.getBytes("UTF-8"));
+
+			return run(new String[] {WebSim.class.getName(), copy.toString(), schema.toString()});
+		}
+		finally
+		{
+			File[] files = dir.toFile().listFiles();
+
+			for(int i = 0; i < files.length; i++)
+				files[i].delete();
+
+			Files.delete(dir);
+		}
+	}
+
+	/**
+	 * Run a class in a new JVM, and return the events/s it reports.
+	 */
+
+	private static String run(String[] command) throws IOException, InterruptedException
+	{
+		List arguments = new ArrayList();
+
+		arguments.add(System.getProperty("java.home") + File.separator + "bin" + File.separator + "java");
+		arguments.add("-cp");
+		arguments.add(System.getProperty("java.class.path"));
+		arguments.addAll(Arrays.asList(command));
+
+		Process process = new ProcessBuilder(arguments).redirectErrorStream(true).start();
+		BufferedReader output = new BufferedReader(new InputStreamReader(process.getInputStream()));
+
+		String rate = "?";
+		String line;
+
+		while((line = output.readLine()) != null)
+		{
+			Matcher matcher = RATE.matcher(line);
+
+			if(matcher.find())
+				rate = matcher.group(1);
+		}
+
+		process.waitFor();
+
+		return rate;
+	}
+
+	private static class Player extends SimProcess
+	{
+		Player(PSim sim)
+		{
+			super(sim);
+		}
+
+		protected void runProcess() throws InterruptedException
+		{
+			while(true)
+				hold(1.0);
+		}
+
+		protected void resumeProcess()
+		{
+			scheduleHold(1.0);
+		}
+	}
+
+	private static final String PING_PONG = "-pingpong";
+	private static final String[] HANDOFFS = {"monitor", "park", "spin"};
+	private static final long PING_PONG_EVENTS = 1000000L;
+	private static final Pattern RATE = Pattern.compile("([0-9.,]+) events/s");
+}
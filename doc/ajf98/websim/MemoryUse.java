@@ -0,0 +1,127 @@
+/*
+
+Copyright (c) 2002, 2012, Andrew Ferrier. Portions based on work by, and (c) 
+Tony Field 2000, 2001. All rights reserved.
+
+Redistribution and use in source and binary forms, with or without 
+modification, are permitted provided that the following conditions are 
+met: 
+
+Redistributions of source code must retain the above copyright notice, 
+this list of conditions and the following disclaimer.
+ 
+Redistributions in binary form must reproduce the above copyright notice, 
+this list of conditions and the following disclaimer in the documentation 
+and/or other materials provided with the distribution. 
+ 
+The name(s) of the author(s) of the software may not be used to endorse or 
+promote products derived from this software without specific prior written 
+permission.
+ 
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS 
+IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, 
+THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR 
+PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR 
+CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, 
+EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, 
+PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR 
+PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF 
+LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING 
+NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS 
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+*/
+
+package doc.ajf98.websim;
+
+import java.lang.management.*;
+import java.lang.reflect.Method;
+import java.util.*;
+
+/**
+ * The memory allocated, and the garbage collection done, while a
+ * simulation system runs, which shows how much garbage the event loop
+ * is producing.
+ *
+ * Allocation is counted per thread, with the extension to
+ * ThreadMXBean in HotSpot-based runtimes. It is looked up by
+ * reflection, so that other runtimes report the garbage collections
+ * alone.
+ *
+ * @author Andrew Ferrier
+ * @version 0.1
+ */
+
+class MemoryUse
+{
+	/**
+	 * @return the number of bytes which the calling thread has
+	 *	allocated since it started, or -1 if this cannot be measured.
+	 */
+
+	static long threadAllocatedBytes()
+	{
+		if(threadAllocatedBytes == null)
+			return -1;
+
+		try
+		{
+			Long bytes = (Long) threadAllocatedBytes.invoke(ManagementFactory.getThreadMXBean(), Long.valueOf(Thread.currentThread().getId()));
+			return bytes.longValue();
+		}
+		catch(Exception e)
+		{
+			return -1;
+		}
+	}
+
+	/**
+	 * @return the number of garbage collections done so far.
+	 */
+
+	static long collections()
+	{
+		long n = 0;
+		Iterator i = ManagementFactory.getGarbageCollectorMXBeans().iterator();
+
+		while(i.hasNext())
+			n += Math.max(0, ((GarbageCollectorMXBean) i.next()).getCollectionCount());
+
+		return n;
+	}
+
+	/**
+	 * @return the time, in milliseconds, spent on garbage collection
+	 *	so far.
+	 */
+
+	static long collectionMillis()
+	{
+		long ms = 0;
+		Iterator i = ManagementFactory.getGarbageCollectorMXBeans().iterator();
+
+		while(i.hasNext())
+			ms += Math.max(0, ((GarbageCollectorMXBean) i.next()).getCollectionTime());
+
+		return ms;
+	}
+
+	private static Method allocatedBytesMethod()
+	{
+		try
+		{
+			Class c = Class.forName("com.sun.management.ThreadMXBean");
+
+			if(!c.isInstance(ManagementFactory.getThreadMXBean()))
+				return null;
+
+			return c.getMethod("getThreadAllocatedBytes", long.class);
+		}
+		catch(Exception e)
+		{
+			return null;
+		}
+	}
+
+	private static final Method threadAllocatedBytes = allocatedBytesMethod();
+}
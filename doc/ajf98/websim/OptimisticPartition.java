@@ -0,0 +1,710 @@
+/*
+
+Copyright (c) 2002, 2012, Andrew Ferrier. Portions based on work by, and (c) 
+Tony Field 2000, 2001. All rights reserved.
+
+Redistribution and use in source and binary forms, with or without 
+modification, are permitted provided that the following conditions are 
+met: 
+
+Redistributions of source code must retain the above copyright notice, 
+this list of conditions and the following disclaimer.
+ 
+Redistributions in binary form must reproduce the above copyright notice, 
+this list of conditions and the following disclaimer in the documentation 
+and/or other materials provided with the distribution. 
+ 
+The name(s) of the author(s) of the software may not be used to endorse or 
+promote products derived from this software without specific prior written 
+permission.
+ 
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS 
+IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, 
+THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR 
+PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR 
+CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, 
+EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, 
+PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR 
+PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF 
+LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING 
+NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS 
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+*/
+
+package doc.ajf98.websim;
+
+import java.util.*;
+import java.util.concurrent.locks.LockSupport;
+
+import doc.ajf98.websim.objects.Message;
+import doc.ajf98.websim.processes.abs.RouteableSystemObject;
+
+import java.util.List;
+
+/**
+ * A partition which is executed optimistically, with the Time Warp
+ * algorithm. It executes its events without waiting for the other
+ * partitions, a step at a time: each step executes the events at the
+ * time of the next one. Every so many steps it saves its state (see
+ * {@link Partition#saveState()}). If a message then arrives from
+ * another partition with a time earlier than the current one (a
+ * 'straggler'), the partition is rolled back to the last state saved
+ * before then. Each message sent at or after the time of the straggler
+ * is cancelled with an anti-message, which may in turn roll back the
+ * partition which it was sent to.
+ *
+ * As in a conservative partition, the messages due at each time are
+ * delivered after the other events at that time, in the order of
+ * {@link Partition.DeliveryOrder}, so a message which arrives at the
+ * current time is a straggler too. The results therefore do not depend
+ * on when the messages arrive, and are the same as those of a
+ * conservative run.
+ *
+ * Since states are only saved every so often, a rollback usually
+ * restores a state from before the last events which were executed
+ * before the straggler. Those events are executed again ('coasting
+ * forward'), without sending again the messages which they sent, which
+ * still stand. They are given the same messages, so they do exactly
+ * what they did before; that the same messages are sent again is
+ * checked.
+ *
+ * A partition does not get more than a window of virtual time ahead of
+ * the next events of the others, which the others publish, and which
+ * a partition lowers when it sends them a message. The window is
+ * halved by each rollback and grows slowly while there are none, so
+ * that a partition is only as optimistic as has paid off.
+ *
+ * Messages which have arrived but are not yet due are held apart from
+ * the event list, so that they are not part of the saved states.
+ * After a rollback they are worked out again from the messages
+ * received.
+ *
+ * Every so many events the partitions compute the global virtual time
+ * (GVT), the time of the earliest event which has not been executed by
+ * any of them. No partition can be rolled back beyond that, so older
+ * saved states and messages are discarded. A partition which has saved
+ * as many states as it may keep waits until then. The partitions
+ * finish once the GVT has passed the run time of the system.
+ *
+ * @author Andrew Ferrier
+ * @version 0.4
+ */
+
+class OptimisticPartition extends Partition
+{
+	/**
+	 * @param gvt the GVT computation shared by all the partitions.
+	 */
+
+	OptimisticPartition(SimulationSystem system, int index, int count, long seed, GlobalVirtualTime gvt)
+	{
+		super(system, index, count, seed);
+		this.gvt = gvt;
+	}
+
+	/**
+	 * Messages are never held back, so there is no lookahead to speak of.
+	 */
+
+	boolean hasNoLookahead()
+	{
+		return false;
+	}
+
+	/**
+	 * While coasting forward, the message was already sent the first
+	 * time round, so it is only checked against that one.
+	 */
+
+	public void send(Partition to, RouteableSystemObject target, Message message)
+	{
+		if(coasting)
+		{
+			Envelope e = resent < unsent ? (Envelope) sent.get(sent.size() - unsent + resent) : null;
+
+			if(e == null || e.to != to || e.target != target || e.time != now())
+				throw new IllegalStateException(this + " did not send the same messages when it executed its events again.");
+
+			resent++;
+			return;
+		}
+
+		Envelope e = new Envelope(this, to, now(), target, message);
+		Envelope last = sent.isEmpty() ? null : (Envelope) sent.get(sent.size() - 1);
+
+		// Number the message among those sent at the same time, which
+		// are all sent again after a rollback to that time.
+
+		e.number = last != null && last.time == e.time ? last.number + 1 : 0;
+
+		gvt.lowerNextEventTime(to.index, e.time);
+		to.post(e);
+		sent.add(e);
+		messagesSent++;
+	}
+
+	/**
+	 * @return the time of the next event, or of the next message
+	 *	which is due, whichever is earlier.
+	 */
+
+	public double nextEventTime()
+	{
+		while(!pending.isEmpty() && ((Envelope) pending.first()).cancelled)
+			pending.remove(pending.first());
+
+		double t = super.nextEventTime();
+
+		if(!pending.isEmpty())
+			t = Math.min(t, ((Envelope) pending.first()).time);
+
+		return t;
+	}
+
+	/**
+	 * Take everything from the inbox, rolling back for each straggler
+	 * and for each anti-message whose message may already have been
+	 * delivered.
+	 */
+
+	boolean receive()
+	{
+		boolean anything = false;
+		Envelope e;
+
+		while((e = (Envelope) inbox.poll()) != null)
+		{
+			anything = true;
+
+			if(e.cancels != null)
+			{
+				e.cancels.cancelled = true;
+
+				if(e.cancels.time <= now())
+					rollBack(e.cancels.time);
+			}
+			else
+			{
+				if(e.time <= now())
+					rollBack(e.time);
+
+				e.sequence = nextSequence++;
+				received.add(e);
+				pending.add(e);
+			}
+		}
+
+		return anything;
+	}
+
+	void executeInParallel()
+	{
+		double runTime = system.getRuntime();
+
+		current.set(this);
+		saveCheckpoint(Double.NEGATIVE_INFINITY);
+
+		try
+		{
+			while(true)
+			{
+				receive();
+				publishNextEventTime();
+
+				// A message may have arrived since it was looked for,
+				// which the time just published does not allow for.
+
+				if(!inbox.isEmpty())
+					continue;
+
+				if(gvt.isRequested())
+				{
+					if(computeGVT() > runTime)
+						break;
+				}
+				else if(nextEventTime() <= runTime && checkpoints.size() < MAX_CHECKPOINTS)
+				{
+					if(isAhead())
+					{
+						// Too far ahead of the others to be likely to
+						// stand: let them catch up.
+
+						waitForOthers();
+						continue;
+					}
+
+					long before = eventsProcessed();
+
+					executeStep();
+
+					Checkpoint last = (Checkpoint) checkpoints.get(checkpoints.size() - 1);
+
+					if(steps - last.steps >= CHECKPOINT_INTERVAL)
+					{
+						// Be more optimistic after each interval with
+						// no rollback.
+
+						if(rollbacks == last.rollbacks)
+							window += WINDOW_GROWTH * (now() - Math.max(last.time, 0.0)) / CHECKPOINT_INTERVAL;
+
+						saveCheckpoint(now());
+					}
+
+					eventsSinceGVT += eventsProcessed() - before;
+
+					if(eventsSinceGVT >= GVT_INTERVAL)
+						requestGVT();
+				}
+				else if(!waitForMessages(IDLE_NANOSECONDS) && !gvt.isRequested())
+				{
+					// Either this partition has nothing to do before
+					// the run time, or it has got so far ahead that it
+					// must wait for its old states to be discarded.
+
+					requestGVT();
+				}
+			}
+
+			// Make sure that the statistics have been reset.
+
+			step(runTime);
+		}
+		catch(GlobalVirtualTime.Abandoned a)
+		{
+		}
+		catch(RuntimeException re)
+		{
+			failure = re;
+			gvt.fail();
+		}
+	}
+
+	/**
+	 * Publish the time of the next event of this partition, and if it is
+	 * later than before, wake the partitions which may have been waiting
+	 * for it.
+	 */
+
+	private void publishNextEventTime()
+	{
+		double t = nextEventTime();
+
+		gvt.setNextEventTime(index, t);
+
+		if(t > published)
+			wakeOthers();
+
+		published = t;
+	}
+
+	/**
+	 * Ask for the GVT to be computed, waking the partitions which may be
+	 * waiting so that they take part at once.
+	 */
+
+	private void requestGVT()
+	{
+		gvt.request();
+		wakeOthers();
+	}
+
+	private void wakeOthers()
+	{
+		for(int i = 0; i < system.getPartitionCount(); i++)
+		{
+			Partition p = system.getPartition(i);
+
+			if(p != this && p.waiting)
+				LockSupport.unpark(p.worker);
+		}
+	}
+
+	/**
+	 * Execute the events at the time of the next one, then deliver the
+	 * messages which are due then.
+	 */
+
+	private void executeStep()
+	{
+		double t = nextEventTime();
+		List due = new ArrayList();
+
+		// The messages are taken out first, since the next event time
+		// allows for them.
+
+		while(!pending.isEmpty() && ((Envelope) pending.first()).time <= t)
+		{
+			due.add(pending.first());
+			pending.remove(pending.first());
+		}
+
+		step(t);
+
+		for(int i = 0; i < due.size(); i++)
+		{
+			Envelope e = (Envelope) due.get(i);
+
+			if(!e.cancelled)
+				schedule(new Delivery(this, e), e.time);
+		}
+
+		step(t);
+		steps++;
+	}
+
+	/**
+	 * Compute the GVT with the other partitions, and discard
+	 * everything which is older.
+	 *
+	 * @return the GVT.
+	 */
+
+	private double computeGVT()
+	{
+		// First make sure that every message which has been sent has
+		// arrived. Receiving one may cause a rollback, which sends
+		// anti-messages, so this is repeated until nothing arrives.
+
+		boolean active;
+
+		do
+		{
+			gvt.await();
+
+			if(receive())
+				gvt.setActive();
+
+			gvt.await();
+			active = gvt.isActive();
+			gvt.await();
+
+			if(index == 0)
+				gvt.clearActive();
+		}
+		while(active);
+
+		gvt.setMinimum(index, nextEventTime());
+		gvt.await();
+
+		double t = gvt.compute();
+		collectFossils(t);
+		eventsSinceGVT = 0;
+
+		return t;
+	}
+
+	/**
+	 * @return whether the next event of this partition is too far ahead
+	 *	of those of the others to execute yet.
+	 */
+
+	private boolean isAhead()
+	{
+		return nextEventTime() > gvt.earliestNextEventTime(index) + window;
+	}
+
+	/**
+	 * Wait until a message arrives or another partition publishes a
+	 * later time, which wakes this one, or for a while in case it does
+	 * not. The tests are repeated once waiting is set, so that a time
+	 * published or a GVT requested just before it was set is not
+	 * missed.
+	 */
+
+	private void waitForOthers()
+	{
+		waiting = true;
+
+		if(inbox.isEmpty() && !gvt.isRequested() && isAhead())
+			LockSupport.parkNanos(this, THROTTLE_NANOSECONDS);
+
+		waiting = false;
+	}
+
+	private boolean waitForMessages(long nanoseconds)
+	{
+		waiting = true;
+
+		if(inbox.isEmpty() && !gvt.isRequested())
+			LockSupport.parkNanos(this, nanoseconds);
+
+		waiting = false;
+
+		return !inbox.isEmpty();
+	}
+
+	private void saveCheckpoint(double time)
+	{
+		Checkpoint c = new Checkpoint();
+		c.time = time;
+		c.state = saveState();
+		c.eventsProcessed = eventsProcessed();
+		c.steps = steps;
+		c.rollbacks = rollbacks;
+		c.received = received.size();
+		c.sent = sent.size();
+
+		checkpoints.add(c);
+	}
+
+	/**
+	 * Return to the last state saved before time t, and coast forward
+	 * to just before t.
+	 */
+
+	private void rollBack(double t)
+	{
+		int i = checkpoints.size() - 1;
+
+		while(i >= 0 && ((Checkpoint) checkpoints.get(i)).time >= t)
+			i--;
+
+		if(i < 0)
+			throw new IllegalStateException(this + " cannot be rolled back to " + t + ", which is before the global virtual time.");
+
+		Checkpoint c = (Checkpoint) checkpoints.get(i);
+
+		eventsRolledBack += eventsProcessed() - c.eventsProcessed;
+		rollbacks++;
+		window /= 2;
+
+		restoreState(c.state);
+		steps = c.steps;
+		checkpoints.subList(i + 1, checkpoints.size()).clear();
+
+		// Cancel everything sent at or after t: it will be sent again
+		// if it should be. What was sent before then still stands.
+
+		int kept = sent.size();
+
+		while(kept > c.sent && ((Envelope) sent.get(kept - 1)).time >= t)
+			kept--;
+
+		for(int j = kept; j < sent.size(); j++)
+		{
+			Envelope e = (Envelope) sent.get(j);
+			gvt.lowerNextEventTime(e.to.index, e.time);
+			e.to.post(new Envelope(this, e.to, e.time, null, null, e));
+			antiMessagesSent++;
+		}
+
+		sent.subList(kept, sent.size()).clear();
+
+		// Everything received since the state was saved, and
+		// everything received before which was not yet due, is due
+		// again.
+
+		pending.clear();
+
+		for(int j = 0; j < received.size(); j++)
+		{
+			Envelope e = (Envelope) received.get(j);
+
+			if(!e.cancelled && (j >= c.received || e.time > c.time))
+				pending.add(e);
+		}
+
+		coastForward(t, kept - c.sent);
+	}
+
+	/**
+	 * Execute again the events before time t, which were executed
+	 * after the state which has been restored.
+	 *
+	 * @param unsent the number of messages which they sent.
+	 */
+
+	private void coastForward(double t, int unsent)
+	{
+		this.coasting = true;
+		this.unsent = unsent;
+		this.resent = 0;
+
+		try
+		{
+			while(nextEventTime() < t)
+				executeStep();
+		}
+		finally
+		{
+			coasting = false;
+		}
+
+		if(resent != unsent)
+			throw new IllegalStateException(this + " did not send the same messages when it executed its events again.");
+	}
+
+	/**
+	 * Discard the saved states which can no longer be rolled back to,
+	 * and the messages which were sent or received before them, other
+	 * than those received which were not yet due.
+	 */
+
+	private void collectFossils(double gvt)
+	{
+		int i = checkpoints.size() - 1;
+
+		while(i > 0 && ((Checkpoint) checkpoints.get(i)).time >= gvt)
+			i--;
+
+		if(i == 0)
+			return;
+
+		Checkpoint oldest = (Checkpoint) checkpoints.get(i);
+		int receivedBefore = oldest.received;
+		int sentBefore = oldest.sent;
+
+		checkpoints.subList(0, i).clear();
+		sent.subList(0, sentBefore).clear();
+
+		List older = received.subList(0, receivedBefore);
+		int kept = 0;
+
+		for(int j = 0; j < older.size(); j++)
+		{
+			Envelope e = (Envelope) older.get(j);
+
+			if(!e.cancelled && e.time > oldest.time)
+				older.set(kept++, e);
+		}
+
+		older.subList(kept, older.size()).clear();
+
+		for(int j = 0; j < checkpoints.size(); j++)
+		{
+			Checkpoint c = (Checkpoint) checkpoints.get(j);
+			c.received -= receivedBefore - kept;
+			c.sent -= sentBefore;
+		}
+	}
+
+	public long rollbacks()
+	{
+		return rollbacks;
+	}
+
+	public long eventsRolledBack()
+	{
+		return eventsRolledBack;
+	}
+
+	public long antiMessagesSent()
+	{
+		return antiMessagesSent;
+	}
+
+	/**
+	 * A saved state, the number of steps executed, and how much had been
+	 * received and sent when it was saved.
+	 */
+
+	private static class Checkpoint
+	{
+		double time;
+		Object state;
+		long eventsProcessed, steps, rollbacks;
+		int received, sent;
+	}
+
+	private final GlobalVirtualTime gvt;
+
+	/**
+	 * The saved states, oldest first. The first is the latest saved
+	 * before the GVT.
+	 */
+
+	private final List checkpoints = new ArrayList();
+
+	/**
+	 * The messages received since the first saved state (and any
+	 * received before which were not yet due then), and those sent.
+	 */
+
+	private final List received = new ArrayList();
+	private final List sent = new ArrayList();
+
+	/**
+	 * The messages received which are not yet due.
+	 */
+
+	private final SortedSet pending = new TreeSet(new DeliveryOrder());
+
+	private long nextSequence = 0;
+	private long eventsSinceGVT = 0;
+
+	/**
+	 * The number of steps executed, which is rolled back with the state.
+	 */
+
+	private long steps = 0;
+
+	/**
+	 * Whether the partition is coasting forward, how many messages the
+	 * events executed again sent the first time round, and how many of
+	 * them they have sent again.
+	 */
+
+	private boolean coasting = false;
+	private int unsent, resent;
+
+	/**
+	 * How far ahead of the next event of any other partition this one
+	 * executes events. It is halved by each rollback, and grows while
+	 * there are none.
+	 */
+
+	private double window = 0.0;
+
+	/**
+	 * The time of the next event which this partition last published.
+	 */
+
+	private double published = Double.NEGATIVE_INFINITY;
+
+	private long rollbacks = 0;
+	private long eventsRolledBack = 0;
+	private long antiMessagesSent = 0;
+
+	/**
+	 * The number of steps between saved states.
+	 */
+
+	private static final long CHECKPOINT_INTERVAL = 32;
+
+	/**
+	 * The fraction of the mean virtual time of a step by which the
+	 * window grows after each interval between saved states with no
+	 * rollback.
+	 */
+
+	private static final double WINDOW_GROWTH = 1.0 / 16;
+
+	/**
+	 * The number of events which a partition executes before asking
+	 * for the GVT to be computed.
+	 */
+
+	private static final long GVT_INTERVAL = 1000;
+
+	/**
+	 * The most states which a partition keeps. A partition which has
+	 * got this far ahead of the GVT waits for it to catch up.
+	 */
+
+	private static final int MAX_CHECKPOINTS = 100;
+
+	/**
+	 * How long a partition with nothing to do waits for a message,
+	 * before asking for the GVT to be computed.
+	 */
+
+	private static final long IDLE_NANOSECONDS = 1000000;
+
+	/**
+	 * How long a partition which is too far ahead of the others waits
+	 * for them to catch up, before looking again.
+	 */
+
+	private static final long THROTTLE_NANOSECONDS = 1000000;
+}
@@ -0,0 +1,588 @@
+/*
+
+Copyright (c) 2002, 2012, Andrew Ferrier. Portions based on work by, and (c) 
+Tony Field 2000, 2001. All rights reserved.
+
+Redistribution and use in source and binary forms, with or without 
+modification, are permitted provided that the following conditions are 
+met: 
+
+Redistributions of source code must retain the above copyright notice, 
+this list of conditions and the following disclaimer.
+ 
+Redistributions in binary form must reproduce the above copyright notice, 
+this list of conditions and the following disclaimer in the documentation 
+and/or other materials provided with the distribution. 
+ 
+The name(s) of the author(s) of the software may not be used to endorse or 
+promote products derived from this software without specific prior written 
+permission.
+ 
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS 
+IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, 
+THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR 
+PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR 
+CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, 
+EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, 
+PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR 
+PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF 
+LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING 
+NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS 
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+*/
+
+package doc.ajf98.websim;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.LockSupport;
+
+import doc.ajf98.SimTools.*;
+import doc.ajf98.websim.objects.Message;
+import doc.ajf98.websim.processes.abs.RouteableSystemObject;
+
+import java.util.List;
+import java.util.Queue;
+
+/**
+ * A partition of a simulation system, which executes some of its
+ * system objects in parallel with the other partitions. Each partition
+ * has its own clock, event list and random number stream, and its
+ * objects are only ever executed by its own thread.
+ *
+ * A message sent to an object in another partition is placed in that
+ * partition's inbox, stamped with the sender's time, and is delivered
+ * to the object at that time. The partitions are kept in step with the
+ * conservative Chandy-Misra-Bryant algorithm. Each partition only
+ * executes events up to the earliest time at which a message could
+ * still arrive from one of the partitions which can send to it. After
+ * each step it tells each partition which it can send to the earliest
+ * time at which it could next send anything, with a 'null' message if
+ * necessary. That time can only be later than its next event by its
+ * lookahead: the shortest time which any of its objects can take to
+ * pass on a message from another partition.
+ *
+ * A message can arrive at the time to which a partition has already
+ * executed events, so messages are held until every message for their
+ * time has arrived, and are then delivered after the other events at
+ * that time, in the order of the partitions which sent them and then
+ * the order in which they were sent. Because nothing which a message
+ * sets off can reach another partition before its lookahead has
+ * passed, the events at each time, and so the results, do not depend
+ * on when the messages arrive.
+ *
+ * The state of a partition, which is saved by {@link #saveState()},
+ * includes that of its system objects.
+ *
+ * @author Andrew Ferrier
+ * @version 0.6
+ */
+
+public class Partition extends PSim implements Runnable
+{
+	/**
+	 * @param system the system which this is a partition of.
+	 * @param index the index of this partition, from 0.
+	 * @param count the number of partitions in the system.
+	 * @param seed the seed for the random number stream.
+	 */
+
+	Partition(SimulationSystem system, int index, int count, long seed)
+	{
+		super(seed);
+		setExecutionMode(EXECUTION_EVENT_DRIVEN);
+
+		this.system = system;
+		this.index = index;
+		this.channelTimes = new double[count];
+
+		// Partitions which cannot send to this one never hold it back.
+
+		Arrays.fill(channelTimes, Double.POSITIVE_INFINITY);
+	}
+
+	/**
+	 * Get the seed for a partition's random number stream. The
+	 * seeds are spread out as in {@link Replications#seed(int)}.
+	 *
+	 * @param systemSeed the seed of the system.
+	 * @param index the index of the partition, from 0.
+	 */
+
+	static long seed(long systemSeed, int index)
+	{
+		long z = systemSeed + (index + 1) * 0x9E3779B97F4A7C15L;
+		z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+		z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+		return z ^ (z >>> 31);
+	}
+
+	/**
+	 * @return the current time of the partition being executed by the
+	 *	calling thread, or zero if there is none.
+	 */
+
+	static double currentTime()
+	{
+		Partition p = (Partition) current.get();
+		return p == null ? 0.0 : p.now();
+	}
+
+	void addSystemObject(RouteableSystemObject rso)
+	{
+		systemObjects.add(rso);
+	}
+
+	/**
+	 * Record that a partition can send messages to an object in this
+	 * partition.
+	 */
+
+	void connect(Partition from, RouteableSystemObject to)
+	{
+		if(channelTimes[from.index] == Double.POSITIVE_INFINITY)
+		{
+			channelTimes[from.index] = 0.0;
+			from.outputs.add(this);
+		}
+
+		lookahead = Math.min(lookahead, to.getLookahead());
+	}
+
+	/**
+	 * @return true if messages can be sent to this partition, but one
+	 *	of the objects which they can be sent to can pass them on
+	 *	straight away.
+	 */
+
+	boolean hasNoLookahead()
+	{
+		return lookahead <= 0.0;
+	}
+
+	void setWorker(Thread worker)
+	{
+		this.worker = worker;
+	}
+
+	/**
+	 * Send a message to an object in another partition, to be
+	 * delivered at the current time of this one.
+	 *
+	 * @param to the partition of the object.
+	 * @param target the object.
+	 * @param message the message.
+	 */
+
+	public void send(Partition to, RouteableSystemObject target, Message message)
+	{
+		Envelope e = new Envelope(this, to, now(), target, message);
+		e.number = messagesSent++;
+		to.post(e);
+	}
+
+	public long messagesSent()
+	{
+		return messagesSent;
+	}
+
+	public long nullMessagesSent()
+	{
+		return nullMessagesSent;
+	}
+
+	void post(Envelope e)
+	{
+		inbox.add(e);
+
+		if(waiting)
+			LockSupport.unpark(worker);
+	}
+
+	/**
+	 * Take everything from the inbox, and hold each message until it
+	 * is delivered by {@link #step(double, double)}.
+	 *
+	 * @return true if there was anything in the inbox.
+	 */
+
+	boolean receive()
+	{
+		boolean received = false;
+		Envelope e;
+
+		while((e = (Envelope) inbox.poll()) != null)
+		{
+			received = true;
+
+			if(e.time > channelTimes[e.from.index])
+				channelTimes[e.from.index] = e.time;
+
+			if(e.message != null)
+				undelivered.add(e);
+		}
+
+		return received;
+	}
+
+	/**
+	 * Execute every event up to and including time t. The statistics
+	 * of the objects in this partition are reset when it first passes
+	 * the reset time of the system.
+	 */
+
+	void step(double t)
+	{
+		current.set(this);
+
+		double resetTime = system.getResetTime();
+
+		if(resetTime > 0 && !resetYet && t > resetTime)
+		{
+			advance(resetTime);
+
+			for(int i = 0; i < systemObjects.size(); i++)
+				((RouteableSystemObject) systemObjects.get(i)).reset();
+
+			resetYet = true;
+		}
+
+		advance(t);
+	}
+
+	/**
+	 * Execute every event up to and including time t, and deliver the
+	 * messages held which are due by then and before time before,
+	 * each after the other events at its time.
+	 */
+
+	void step(double t, double before)
+	{
+		while(!undelivered.isEmpty())
+		{
+			Envelope first = (Envelope) undelivered.first();
+
+			if(first.time > t || first.time >= before)
+				break;
+
+			step(first.time);
+
+			while(!undelivered.isEmpty() && ((Envelope) undelivered.first()).time == first.time)
+			{
+				Envelope e = (Envelope) undelivered.first();
+				undelivered.remove(e);
+				schedule(new Delivery(this, e), e.time);
+			}
+		}
+
+		step(t);
+	}
+
+	/**
+	 * @return the time of the next message held, or infinity if there
+	 *	are none.
+	 */
+
+	double nextDeliveryTime()
+	{
+		return undelivered.isEmpty() ? Double.POSITIVE_INFINITY : ((Envelope) undelivered.first()).time;
+	}
+
+	/**
+	 * Execute this partition in parallel with the others, counting the
+	 * memory which its thread allocates.
+	 */
+
+	public void run()
+	{
+		long before = MemoryUse.threadAllocatedBytes();
+
+		try
+		{
+			executeInParallel();
+		}
+		finally
+		{
+			long after = MemoryUse.threadAllocatedBytes();
+			allocatedBytes = before < 0 || after < 0 ? -1 : after - before;
+		}
+	}
+
+	/**
+	 * @return the number of bytes allocated by the thread which
+	 *	executed this partition, zero if it was not executed by its
+	 *	own thread, or -1 if that is not known.
+	 */
+
+	long allocatedBytes()
+	{
+		return allocatedBytes;
+	}
+
+	/**
+	 * Execute this partition until the run time of the system.
+	 */
+
+	void executeInParallel()
+	{
+		double runTime = system.getRuntime();
+
+		try
+		{
+			while(true)
+			{
+				receive();
+
+				// No message can now arrive from another partition
+				// any earlier than this, but more may still arrive
+				// at this time.
+
+				double safeTime = Double.POSITIVE_INFINITY;
+
+				for(int i = 0; i < channelTimes.length; i++)
+					safeTime = Math.min(safeTime, channelTimes[i]);
+
+				step(Math.min(safeTime, runTime), safeTime);
+
+				if(safeTime > runTime && nextEventTime() > runTime)
+					break;
+
+				sendNullMessages(Math.min(nextEventTime(), safeTime + lookahead));
+				waitForMessages();
+			}
+		}
+		catch(RuntimeException re)
+		{
+			failure = re;
+		}
+		finally
+		{
+			// Do not hold back the partitions which are still running.
+
+			sendNullMessages(Double.POSITIVE_INFINITY);
+		}
+	}
+
+	/**
+	 * If the thread executing this partition failed, throw the
+	 * exception which it failed with.
+	 */
+
+	void rethrowFailure()
+	{
+		if(failure != null)
+			throw failure;
+	}
+
+	public Object saveState()
+	{
+		Object[] s = new Object[systemObjects.size() + 2];
+		s[0] = super.saveState();
+		s[1] = Boolean.valueOf(resetYet);
+
+		for(int i = 0; i < systemObjects.size(); i++)
+			s[i + 2] = ((RouteableSystemObject) systemObjects.get(i)).saveState();
+
+		return s;
+	}
+
+	public void restoreState(Object state)
+	{
+		Object[] s = (Object[]) state;
+		super.restoreState(s[0]);
+		resetYet = ((Boolean) s[1]).booleanValue();
+
+		for(int i = 0; i < systemObjects.size(); i++)
+			((RouteableSystemObject) systemObjects.get(i)).restoreState(s[i + 2]);
+	}
+
+	/**
+	 * Tell the partitions which this one can send to that it will not
+	 * send them anything earlier than time t.
+	 */
+
+	private void sendNullMessages(double t)
+	{
+		if(t <= nullMessageTime)
+			return;
+
+		for(int i = 0; i < outputs.size(); i++)
+		{
+			Partition to = (Partition) outputs.get(i);
+			to.post(new Envelope(this, to, t, null, null));
+			nullMessagesSent++;
+		}
+
+		nullMessageTime = t;
+	}
+
+	private void waitForMessages()
+	{
+		waiting = true;
+
+		while(inbox.isEmpty())
+			LockSupport.park(this);
+
+		waiting = false;
+	}
+
+	public String toString()
+	{
+		return system + " partition " + index;
+	}
+
+	/**
+	 * A message (or a null message, if it has no contents) from
+	 * another partition, or the cancellation of one.
+	 */
+
+	static class Envelope
+	{
+		Envelope(Partition from, Partition to, double time, RouteableSystemObject target, Message message)
+		{
+			this(from, to, time, target, message, null);
+		}
+
+		Envelope(Partition from, Partition to, double time, RouteableSystemObject target, Message message, Envelope cancels)
+		{
+			this.from = from;
+			this.to = to;
+			this.time = time;
+			this.target = target;
+			this.message = message;
+			this.cancels = cancels;
+		}
+
+		final Partition from, to;
+		final double time;
+		final RouteableSystemObject target;
+		final Message message;
+
+		/**
+		 * The envelope which this one cancels, if it is an anti-message.
+		 */
+
+		final Envelope cancels;
+
+		/**
+		 * Set by the receiving partition once an anti-message for this
+		 * envelope has arrived.
+		 */
+
+		boolean cancelled = false;
+
+		/**
+		 * The order in which the envelope was received, set by an
+		 * optimistic partition.
+		 */
+
+		long sequence;
+
+		/**
+		 * The order in which the message was sent by its partition, or
+		 * by an optimistic one among those sent at the same time.
+		 */
+
+		long number;
+	}
+
+	/**
+	 * Orders messages by time, then by the partition which sent them,
+	 * then by the order in which they were sent. The order in which
+	 * they were received only tells apart a cancelled message from the
+	 * one sent again in its place.
+	 */
+
+	static class DeliveryOrder implements Comparator
+	{
+		public int compare(Object o1, Object o2)
+		{
+			Envelope e1 = (Envelope) o1, e2 = (Envelope) o2;
+
+			if(e1.time != e2.time)
+				return e1.time < e2.time ? -1 : 1;
+			else if(e1.from.index != e2.from.index)
+				return e1.from.index < e2.from.index ? -1 : 1;
+			else if(e1.number != e2.number)
+				return e1.number < e2.number ? -1 : 1;
+			else
+				return e1.sequence < e2.sequence ? -1 : (e1.sequence == e2.sequence ? 0 : 1);
+		}
+	}
+
+	/**
+	 * A process which gives a message from another partition to its
+	 * target when it is woken, unless it has been cancelled.
+	 */
+
+	static class Delivery extends SimProcess
+	{
+		Delivery(Partition partition, Envelope envelope)
+		{
+			super(partition);
+			this.envelope = envelope;
+		}
+
+		protected void runProcess()
+		{
+			if(!envelope.cancelled)
+				envelope.target.messageIn(envelope.message);
+		}
+
+		protected void resumeProcess()
+		{
+			runProcess();
+			schedulePassivate();
+		}
+
+		private final Envelope envelope;
+	}
+
+	final SimulationSystem system;
+	final int index;
+
+	/**
+	 * The time of the latest message from each partition, or infinity
+	 * for those which cannot send to this one.
+	 */
+
+	private final double[] channelTimes;
+
+	/**
+	 * The partitions which this one can send to.
+	 */
+
+	private final List outputs = new ArrayList();
+
+	final List systemObjects = new ArrayList();
+	final Queue inbox = new ConcurrentLinkedQueue();
+
+	/**
+	 * The messages received which have not yet been delivered.
+	 */
+
+	private final SortedSet undelivered = new TreeSet(new DeliveryOrder());
+
+	private double lookahead = Double.POSITIVE_INFINITY;
+	private double nullMessageTime = Double.NEGATIVE_INFINITY;
+	private boolean resetYet = false;
+	long messagesSent = 0;
+	private long nullMessagesSent = 0;
+	RuntimeException failure = null;
+	private long allocatedBytes = 0;
+
+	Thread worker;
+
+	/**
+	 * True while the worker is waiting for its inbox to be filled.
+	 */
+
+	volatile boolean waiting = false;
+
+	/**
+	 * The partition being executed by each thread, for tracing.
+	 */
+
+	static final ThreadLocal current = new ThreadLocal();
+}
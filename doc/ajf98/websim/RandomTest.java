@@ -38,14 +38,14 @@ import doc.ajf98.util.Random;
 
 /**
  * @author Andrew Ferrier
- * @version 0.2
+ * @version 0.3
  */
 
 public class RandomTest
 {	
 	public static void main(String[] args)
 	{
-		Random random = Random.getRandom();
+		Random random = new Random(0);
 	
 		double first = random.nextDouble();
 		double now;
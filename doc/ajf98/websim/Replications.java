@@ -0,0 +1,232 @@
+/*
+
+Copyright (c) 2002, 2012, Andrew Ferrier. Portions based on work by, and (c) 
+Tony Field 2000, 2001. All rights reserved.
+
+Redistribution and use in source and binary forms, with or without 
+modification, are permitted provided that the following conditions are 
+met: 
+
+Redistributions of source code must retain the above copyright notice, 
+this list of conditions and the following disclaimer.
+ 
+Redistributions in binary form must reproduce the above copyright notice, 
+this list of conditions and the following disclaimer in the documentation 
+and/or other materials provided with the distribution. 
+ 
+The name(s) of the author(s) of the software may not be used to endorse or 
+promote products derived from this software without specific prior written 
+permission.
+ 
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS 
+IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, 
+THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR 
+PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR 
+CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, 
+EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, 
+PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR 
+PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF 
+LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING 
+NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS 
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+*/
+
+package doc.ajf98.websim;
+
+import java.io.PrintStream;
+import java.util.*;
+import java.util.concurrent.*;
+
+import doc.ajf98.SimTools.*;
+import doc.ajf98.websim.processes.abs.*;
+
+import java.util.List;
+
+/**
+ * A set of independent replications of a simulation system, which
+ * differ only in the seed of their random number streams. They are
+ * run at the same time, and the results of each are pooled to give
+ * confidence intervals for the mean response time of each client and
+ * the utilisation of each server and network node. The response time
+ * histograms of each client are also merged, to give percentiles over
+ * all the replications. P-squared estimators cannot be merged, so
+ * their estimates are averaged instead.
+ *
+ * @author Andrew Ferrier
+ * @version 0.3
+ */
+
+public class Replications
+{
+	/**
+	 * @param replications the replications, which must all have been
+	 *	created from the same system specification.
+	 */
+
+	public Replications(SimulationSystem[] replications)
+	{
+		this.replications = replications;
+	}
+
+	/**
+	 * Get the seed for a replication. The first replication uses
+	 * the default seed, so that it gives the same results as the
+	 * system would on its own. The others are spread over the whole
+	 * range of seeds (by the SplitMix64 finaliser), since
+	 * java.util.Random gives correlated streams for seeds which are
+	 * close together.
+	 *
+	 * @param replication the number of the replication, from 0.
+	 */
+
+	public static long seed(int replication)
+	{
+		if(replication == 0)
+			return PSim.DEFAULT_SEED;
+
+		long z = PSim.DEFAULT_SEED + replication * 0x9E3779B97F4A7C15L;
+		z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+		z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+		return z ^ (z >>> 31);
+	}
+
+	/**
+	 * Run all the replications, on a fork-join pool with one thread
+	 * per processor.
+	 */
+
+	public void run() throws InterruptedException
+	{
+		ForkJoinPool pool = new ForkJoinPool(Math.min(replications.length, Runtime.getRuntime().availableProcessors()));
+		List tasks = new ArrayList();
+
+		for(int i = 0; i < replications.length; i++)
+		{
+			final SimulationSystem system = replications[i];
+
+			tasks.add(pool.submit(new Callable()
+			{
+				public Object call() throws InterruptedException
+				{
+					try
+					{
+						system.run();
+						return null;
+					}
+					catch(InterruptedException ie)
+					{
+						system.killAll();
+						throw ie;
+					}
+				}
+			}));
+		}
+
+		pool.shutdown();
+
+		for(int i = 0; i < tasks.size(); i++)
+		{
+			try
+			{
+				((Future) tasks.get(i)).get();
+			}
+			catch(ExecutionException ee)
+			{
+				replications[i].killAll();
+				ee.getCause().printStackTrace();
+			}
+		}
+	}
+
+	/**
+	 * Print the time taken by each replication, then the pooled
+	 * results.
+	 */
+
+	public void printSummary(PrintStream out)
+	{
+		for(int i = 0; i < replications.length; i++)
+			out.println("Replication " + i + " (seed " + seed(i) + ") executed " + replications[i].eventsProcessed() + " events in " + WebSim.formatDouble(replications[i].getRealTime()) + "s (real).");
+
+		out.println("\nMeans over " + replications.length + " replications, with 95% confidence intervals:\n");
+
+		RouteableSystemObject[] systemObjects = replications[0].getSystemObjects();
+
+		for(int j = 0; j < systemObjects.length; j++)
+		{
+			if(systemObjects[j] instanceof HasResponseTime)
+			{
+				Measure responseTime = new Measure();
+
+				for(int i = 0; i < replications.length; i++)
+					responseTime.add(((HasResponseTime) replications[i].getSystemObjects()[j]).getMeanResponseTime());
+
+				printInterval(out, systemObjects[j].getName() + " response time", responseTime);
+
+				printPercentiles(out, j);
+			}
+
+			if(systemObjects[j] instanceof HasUtilisation)
+			{
+				Measure utilisation = new Measure();
+
+				for(int i = 0; i < replications.length; i++)
+					utilisation.add(((HasUtilisation) replications[i].getSystemObjects()[j]).getUtilisation());
+
+				printInterval(out, systemObjects[j].getName() + " utilisation", utilisation);
+			}
+		}
+	}
+
+	/**
+	 * Print the percentiles of the response times of system object j
+	 * over all the replications.
+	 */
+
+	private void printPercentiles(PrintStream out, int j)
+	{
+		double[] percentiles = replications[0].getPercentiles();
+		String name = replications[0].getSystemObjects()[j].getName();
+		PercentileEstimator[] estimators = new PercentileEstimator[replications.length];
+		boolean histograms = true;
+
+		for(int i = 0; i < replications.length; i++)
+		{
+			estimators[i] = ((HasResponseTime) replications[i].getSystemObjects()[j]).getResponseTimePercentiles();
+			histograms = histograms && estimators[i] instanceof Histogram;
+		}
+
+		if(histograms)
+		{
+			Histogram pooled = new Histogram();
+
+			for(int i = 0; i < estimators.length; i++)
+				pooled.add((Histogram) estimators[i]);
+
+			out.println(name + " response time percentiles: " + WebSim.formatPercentiles(pooled, percentiles));
+			return;
+		}
+
+		String s = "";
+
+		for(int k = 0; k < percentiles.length; k++)
+		{
+			Measure m = new Measure();
+
+			for(int i = 0; i < estimators.length; i++)
+				m.add(estimators[i].percentile(percentiles[k]));
+
+			s += (k > 0 ? ", " : "") + WebSim.formatPercentile(percentiles[k]) + "%: " + WebSim.formatDouble(m.mean()) + " +/- " + WebSim.formatDouble(m.confidenceHalfWidth());
+		}
+
+		out.println(name + " response time percentiles (means): " + s);
+	}
+
+	private static void printInterval(PrintStream out, String what, Measure m)
+	{
+		out.println(what + ": " + WebSim.formatDouble(m.mean()) + " +/- " + WebSim.formatDouble(m.confidenceHalfWidth()));
+	}
+
+	private SimulationSystem[] replications;
+}
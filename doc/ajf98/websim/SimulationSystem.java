@@ -34,155 +34,1250 @@ SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
 
 package doc.ajf98.websim;
 
+import java.io.*;
+import java.util.*;
+
 import doc.ajf98.websim.objects.*;
 import doc.ajf98.websim.processes.DataDump;
 import doc.ajf98.websim.processes.abs.RouteableSystemObject;
 import doc.ajf98.SimTools.*;
 
+import java.util.List;
+
 /**
  * This class represents a single simulation system, which
  * can be executed.
  *
- * It is currently not supported to create more than one
- * instance of this object. This is because many of the supporting
- * classes upon which this class depends rely on the ability to
- * create static caches or the like, which will cause indeterminate
- * behaviour if more than one instance of this class is created.
+ * Everything belonging to a simulation system --- its clock, event
+ * list, random number stream, the registry of its system objects and
+ * its trace file --- is held by its instance of this class, so several
+ * systems can be created and run at the same time.
+ *
+ * An event-driven system can also be divided into {@link Partition}s,
+ * each of which executes some of its system objects, in parallel with
+ * the others. The system itself then only holds what is shared between
+ * them. The partitions are kept in step either conservatively or
+ * optimistically (see {@link OptimisticPartition}).
+ *
+ * A system which is executed by events, and is not partitioned, can
+ * write a {@link Snapshot} of its state every so often, and be resumed
+ * from it later. It can also be warm started from the point at which
+ * another system, with the same system objects but different
+ * parameters, reset its statistics.
  *
  * @author Andrew Ferrier
- * @version 1.1.4
+ * @version 1.15
  */
 
 public class SimulationSystem extends PSim
 {
-	public SimulationSystem(String name, RouteableSystemObject[] systemObjects, double runTime, int defaultTTL, DataDump dataDump, double resetTime)
+	/**
+	 * No partition executes an event until it is sure that no
+	 * earlier message can arrive from another.
+	 */
+
+	public static final int SYNCHRONISATION_CONSERVATIVE = 0;
+
+	/**
+	 * Partitions execute events speculatively, and are rolled back if
+	 * an earlier message arrives from another.
+	 */
+
+	public static final int SYNCHRONISATION_OPTIMISTIC = 1;
+
+	/**
+	 * When the trace buffer is full, wait until there is room.
+	 */
+
+	public static final int TRACE_OVERFLOW_BLOCK = 0;
+
+	/**
+	 * When the trace buffer is full, drop the record and count it.
+	 */
+
+	public static final int TRACE_OVERFLOW_DROP = 1;
+
+	/**
+	 * Percentiles are read from a {@link Histogram} for each object.
+	 */
+
+	public static final int PERCENTILES_HISTOGRAM = 0;
+
+	/**
+	 * Percentiles are estimated with a {@link PSquaredEstimator} for
+	 * each object, which uses less memory than a histogram.
+	 */
+
+	public static final int PERCENTILES_P_SQUARED = 1;
+
+	/**
+	 * The percentiles which are reported unless others are set.
+	 */
+
+	public static final double[] DEFAULT_PERCENTILES = { 50, 90, 99, 99.9 };
+
+	/**
+	 * Create a new simulation system. Its system objects are created
+	 * afterwards, and then given to it with
+	 * {@link #setSystemObjects(RouteableSystemObject[], DataDump)}.
+	 *
+	 * @param traceLevel one of the WebSim.TRACE_ constants.
+	 * @param traceFile the stream to write the trace to.
+	 * @param seed the seed for the random number stream.
+	 */
+
+	public SimulationSystem(String name, double runTime, int defaultTTL, double resetTime, int traceLevel, PrintStream traceFile, long seed)
 	{
+		super(seed);
+		this.seed = seed;
+
+		if(defaultTTL <= 0)
+			throw new IllegalArgumentException("The default time to live must be greater than zero.");
+
 		this.name = name;
-		this.systemObjects = systemObjects;
 		this.runTime = runTime;
-		this.dataDump = dataDump;
+		this.defaultTTL = defaultTTL;
 		this.resetTime = resetTime;
-		Message.setDefaultTimeToLive(defaultTTL);
+		this.traceLevel = traceLevel;
+		this.traceFile = traceFile;
 	} 
 
-	public void run() throws InterruptedException
+	/**
+	 * Divide this system into partitions, which are executed in
+	 * parallel. This must be done once the system has been made
+	 * event-driven, and before any system object is created. Each
+	 * object must then be assigned to a partition with
+	 * {@link #assignPartition(SystemObjectID, int)} before it is created.
+	 *
+	 * @param count the number of partitions.
+	 */
+
+	public void setPartitions(int count)
 	{
-		// Before we execute the simulation, we'll force
-		// the Java system to tidy up: this should _help_
-		// to keep our numbers consistent.
+		setPartitions(count, SYNCHRONISATION_CONSERVATIVE);
+	}
 
-        System.gc();
-		System.runFinalization();
+	/**
+	 * @param count the number of partitions.
+	 * @param synchronisation {@link #SYNCHRONISATION_CONSERVATIVE} or
+	 *	{@link #SYNCHRONISATION_OPTIMISTIC}.
+	 */
 
-        WebSim.systemStatusTrace("Free VM memory: " + Runtime.getRuntime().freeMemory() + "b");
+	public void setPartitions(int count, int synchronisation)
+	{
+		if(!isEventDriven())
+			throw new IllegalStateException("Only an event-driven system can be partitioned.");
 
-		for(int i = 0; i < systemObjects.length; i++)
-			systemObjects[i].activate();
+		partitions = new Partition[count];
 
-		dataDump.activate();
+		if(synchronisation == SYNCHRONISATION_OPTIMISTIC)
+		{
+			gvt = new GlobalVirtualTime(count);
 
-		before = System.currentTimeMillis();
-		super.execute(new FinishSimulationSystem(before, runTime, resetTime, systemObjects));
-		after = System.currentTimeMillis();
+			for(int i = 0; i < count; i++)
+				partitions[i] = new OptimisticPartition(this, i, count, Partition.seed(seed, i), gvt);
+		}
+		else if(synchronisation == SYNCHRONISATION_CONSERVATIVE)
+		{
+			for(int i = 0; i < count; i++)
+				partitions[i] = new Partition(this, i, count, Partition.seed(seed, i));
+		}
+		else
+			throw new IllegalArgumentException("Unknown synchronisation " + synchronisation);
 	}
 
-	public void printFinalInformation()
+	/**
+	 * @return the number of partitions which this system is divided
+	 *	into, which is 1 if it is not partitioned.
+	 */
+
+	public int getPartitionCount()
 	{
-        for(int i = 0; i < systemObjects.length; i++)
+		return partitions == null ? 1 : partitions.length;
+	}
+
+	/**
+	 * @param index the index of the partition, from 0.
+	 */
+
+	public Partition getPartition(int index)
+	{
+		return partitions[index];
+	}
+
+	/**
+	 * Assign a system object to a partition.
+	 *
+	 * @param partition the index of the partition, from 0.
+	 */
+
+	public void assignPartition(SystemObjectID soid, int partition)
+	{
+		partitionMap.put(soid, partitions[partition]);
+	}
+
+	/**
+	 * @return the simulation which executes the given system object:
+	 *	its partition, if this system is partitioned, or otherwise
+	 *	the system itself.
+	 */
+
+	public PSim simulationFor(SystemObjectID soid)
+	{
+		if(partitions == null)
+			return this;
+
+		PSim partition = (PSim) partitionMap.get(soid);
+		return partition == null ? partitions[0] : partition;
+	}
+
+	/**
+	 * @param systemObjects all the system objects in this system.
+	 * @param dataDump the process which dumps data about them.
+	 */
+
+	public void setSystemObjects(RouteableSystemObject[] systemObjects, DataDump dataDump)
+	{
+		this.systemObjects = systemObjects;
+		this.dataDump = dataDump;
+		processes.add(dataDump);
+	}
+
+	/**
+	 * Register a process, so that it can be referred to in a snapshot.
+	 * Every system object is registered when it is created.
+	 */
+
+	public void addProcess(SimProcess p)
+	{
+		processes.add(p);
+	}
+
+	/**
+	 * @return every process which has been registered, in the order
+	 *	in which they were registered.
+	 */
+
+	List getProcesses()
+	{
+		return processes;
+	}
+
+	/**
+	 * Register a system object, so that it can be found by its ID.
+	 * This is done when the object is created.
+	 */
+
+	public void addSystemObject(RouteableSystemObject rso)
+	{
+		String soName = rso.getSOID().getName();
+		Integer count = (Integer) instances.get(soName);
+
+		systemMap.put(rso.getSOID(), rso);
+		instances.put(soName, Integer.valueOf(count == null ? 1 : count.intValue() + 1));
+	}
+
+	/**
+	 * Get the RouteableSystemObject object corresponding to the SystemObjectID
+	 * provided. If the ID is not for a specific instance, an instance
+	 * is chosen at random.
+	 *
+	 * @param random the random number stream to choose an instance
+	 *	with, which should be that of the caller's simulation.
+	 */
+
+	public RouteableSystemObject getSystemObject(SystemObjectID soidToGet, doc.ajf98.util.Random random)
+	{
+		if (soidToGet.specificInstance())
+			return (RouteableSystemObject) systemMap.get(soidToGet);
+		else
 		{
-			System.out.println(systemObjects[i].toFinalString());
+			int totalInstances = ((Integer) instances.get(soidToGet.getName())).intValue();
+			return (RouteableSystemObject) systemMap.get(new SystemObjectID(soidToGet.getName(), random.nextInt(totalInstances)));
 		}
+	}
+
+	/**
+	 * @return the number of events which have been executed so far,
+	 *	including those executed by the partitions of this system.
+	 */
+
+	public long eventsProcessed()
+	{
+		long events = super.eventsProcessed();
 
-		double realSeconds = (after - before) / MS_IN_SECOND;
-		double virtualSeconds = PSim.now();
-		double speedUp = runTime / realSeconds;
+		if(partitions != null)
+			for(int i = 0; i < partitions.length; i++)
+				events += partitions[i].eventsProcessed();
 
-		System.out.println("Simulation took " + WebSim.formatDouble(realSeconds) + "s (real), " + WebSim.formatDouble(virtualSeconds) + "s (virtual) to execute.");
-		System.out.println("Speedup of " + WebSim.formatDouble(speedUp) + " over virtual time.");
+		return events;
 	}
 
-	public String toString()
+	/**
+	 * @return the time to live for newly created messages.
+	 */
+
+	public int getDefaultTimeToLive()
 	{
-		return name;
+		return defaultTTL;
 	}
 
-	public double getRuntime()
+	/**
+	 * Set how often progress is reported while this system is
+	 * executed.
+	 *
+	 * @param seconds the real time between reports, or zero for none.
+	 */
+
+	public void setProgressInterval(double seconds)
 	{
-		return runTime;
+		progressMillis = (long) (seconds * MS_IN_SECOND);
+	}
+
+	/**
+	 * Set which percentiles of response times and the like are
+	 * reported, and how they are found. This must be done before any
+	 * system object is created.
+	 *
+	 * @param percentiles the percentiles, each between 0 and 100.
+	 * @param estimator {@link #PERCENTILES_HISTOGRAM} or
+	 *	{@link #PERCENTILES_P_SQUARED}.
+	 */
+
+	public void setPercentiles(double[] percentiles, int estimator)
+	{
+		if(estimator != PERCENTILES_HISTOGRAM && estimator != PERCENTILES_P_SQUARED)
+			throw new IllegalArgumentException("Unknown percentile estimator " + estimator);
+
+		this.percentiles = (double[]) percentiles.clone();
+		this.percentileEstimator = estimator;
+	}
+
+	public double[] getPercentiles()
+	{
+		return percentiles;
+	}
+
+	/**
+	 * @return a new estimator for the percentiles which this system
+	 *	reports.
+	 */
+
+	public PercentileEstimator newPercentileEstimator()
+	{
+		if(percentileEstimator == PERCENTILES_P_SQUARED)
+			return new PSquaredEstimator(percentiles);
+		else
+			return new Histogram();
+	}
+
+	/**
+	 * @return the time at which statistics are reset, or a
+	 *	non-positive number if they are not.
+	 */
+
+	public double getResetTime()
+	{
+		return resetTime;
+	}
+
+	/**
+	 * Reset the statistics once the warm-up period is found to be over
+	 * by MSER-5, rather than at a fixed time, looking for it until half
+	 * of the run time. Only a system which is not partitioned, and has
+	 * no reset time, can do so, and this must be done once its objects
+	 * have been set.
+	 *
+	 * @param interval the virtual time between observations, or zero
+	 *	for a ten-thousandth of the run time.
+	 */
+
+	public void setWarmUpDetection(double interval)
+	{
+		if(partitions != null || resetTime > 0)
+			throw new IllegalStateException("Only a system which is not partitioned, and has no reset time, can detect its warm-up period.");
+
+		if(interval <= 0)
+			interval = runTime / 10000;
+
+		warmUpDetector = new WarmUpDetector(this, interval);
+	}
+
+	/**
+	 * End the run early, once the confidence interval of every mean
+	 * response time and utilisation is narrow enough, as found by the
+	 * method of batch means. The run time is still the longest the
+	 * run can take. Only a system which is not partitioned can do so,
+	 * and this must be done once its objects have been set.
+	 *
+	 * @param precision the largest half-width of each interval, as a
+	 *	fraction of its mean.
+	 * @param confidence the level of confidence, such as 0.95.
+	 * @param batchLength the virtual time of each batch, or zero for a
+	 *	thousandth of the run time.
+	 */
+
+	public void setStoppingRule(double precision, double confidence, double batchLength)
+	{
+		if(partitions != null)
+			throw new IllegalStateException("Only a system which is not partitioned can be stopped by a stopping rule.");
+
+		if(batchLength <= 0)
+			batchLength = runTime / 1000;
+
+		stoppingRule = new StoppingRule(this, precision, confidence, batchLength);
+	}
+
+	/**
+	 * Write the trace of operations from a buffer, by a background
+	 * thread, while this system runs, so that the threads which execute
+	 * it do not wait to format and write each line. This only takes
+	 * effect if operations are traced.
+	 *
+	 * @param records the number of records the buffer holds, or zero to
+	 *	write each line as it is traced.
+	 * @param overflow {@link #TRACE_OVERFLOW_BLOCK} or
+	 *	{@link #TRACE_OVERFLOW_DROP}.
+	 */
+
+	public void setTraceBuffer(int records, int overflow)
+	{
+		if(overflow != TRACE_OVERFLOW_BLOCK && overflow != TRACE_OVERFLOW_DROP)
+			throw new IllegalArgumentException("Unknown trace overflow policy " + overflow);
+
+		this.traceBufferRecords = records;
+		this.traceOverflow = overflow;
+	}
+
+	/**
+	 * Write a snapshot of this system to a file every so often while
+	 * it is executed. Only a system which is executed by events, and
+	 * is not partitioned, can do so.
+	 *
+	 * @param file the file to write, which is replaced each time.
+	 * @param seconds the real time between snapshots.
+	 */
+
+	public void setSnapshot(File file, double seconds)
+	{
+		if(!isEventDriven() || partitions != null)
+			throw new IllegalStateException("Only an event-driven system which is not partitioned can write snapshots.");
+
+		snapshotFile = file;
+		snapshotMillis = (long) (seconds * MS_IN_SECOND);
+	}
+
+	/**
+	 * Restore this system to the state in a snapshot, so that running it
+	 * continues from where the snapshot was written, with the same
+	 * results as if it had never been stopped. This must be done once
+	 * every object has been created, and before the system is run.
+	 */
+
+	public void resume(File file) throws IOException
+	{
+		if(!isEventDriven() || partitions != null)
+			throw new IllegalStateException("Only an event-driven system which is not partitioned can be resumed.");
+
+		Snapshot.read(this, file);
+		started = true;
+	}
+
+	/**
+	 * Execute this system until its statistics have been reset, and take
+	 * a snapshot of it there. Other systems can be warm started from the
+	 * snapshot with {@link #warmStart(byte[])}, and running this system
+	 * afterwards carries on from the same point.
+	 *
+	 * @return the snapshot.
+	 */
+
+	public byte[] warmUp() throws InterruptedException, IOException
+	{
+		if(!isEventDriven() || partitions != null || (resetTime <= 0 && warmUpDetector == null))
+			throw new IllegalStateException("Only an event-driven system which is not partitioned, and has a reset point, can be warmed up.");
+
+		start();
+		before = System.currentTimeMillis();
+		executeUntilReset();
+
+		ByteArrayOutputStream snapshot = new ByteArrayOutputStream();
+		Snapshot.write(this, snapshot);
+		return snapshot.toByteArray();
+	}
+
+	/**
+	 * Start this system from a snapshot taken by {@link #warmUp()}. Each
+	 * object of this system carries on from the state of the object
+	 * with the same name, but with its own parameters, and the system
+	 * runs until its own run time.
+	 */
+
+	public void warmStart(byte[] snapshot) throws IOException
+	{
+		if(!isEventDriven() || partitions != null)
+			throw new IllegalStateException("Only an event-driven system which is not partitioned can be warm started.");
+
+		Snapshot.read(this, new ByteArrayInputStream(snapshot), false);
+		started = true;
 	}
 
 	/**
-	 * This class is declared static for performance.
+	 * The state of this system includes that of the data dump, the
+	 * warm-up detector and stopping rule if there are any, and every
+	 * system object, which is saved by name.
 	 */
 
-	private static class FinishSimulationSystem implements Stoppable
+	public Object saveState()
+	{
+		Map objects = new HashMap();
+
+		for(int i = 0; i < systemObjects.length; i++)
+			objects.put(systemObjects[i].getName(), systemObjects[i].saveState());
+
+		return new Object[] { super.saveState(), Boolean.valueOf(resetYet), dataDump.saveState(), objects,
+			stoppingRule == null ? null : stoppingRule.saveState(),
+			warmUpDetector == null ? null : warmUpDetector.saveState() };
+	}
+
+	public void restoreState(Object state)
 	{
-		FinishSimulationSystem(long startTime, double runTime, double resetTime, RouteableSystemObject[] systemObjects)
+		Object[] s = (Object[]) state;
+		Map objects = (Map) s[3];
+
+		if(objects.size() != systemObjects.length)
+			throw new IllegalStateException("The state is of a system with " + objects.size() + " system objects, not " + systemObjects.length + ".");
+
+		super.restoreState(s[0]);
+		resetYet = ((Boolean) s[1]).booleanValue();
+		dataDump.restoreState(s[2]);
+
+		if(stoppingRule != null && s[4] != null)
+			stoppingRule.restoreState(s[4]);
+
+		if(warmUpDetector != null && s[5] != null)
+			warmUpDetector.restoreState(s[5]);
+
+		for(int i = 0; i < systemObjects.length; i++)
 		{
-			this.startTime = startTime;
-			this.runTime = runTime;
-			this.resetTime = resetTime;
-			this.systemObjects = systemObjects;
+			Object objectState = objects.get(systemObjects[i].getName());
+
+			if(objectState == null)
+				throw new IllegalStateException("There is no state for " + systemObjects[i].getName() + ".");
+
+			systemObjects[i].restoreState(objectState);
 		}
+	}
 
-		public boolean stop()
-		{
-			long realTimeSinceStart = System.currentTimeMillis() - startTime;
-			long roundedDifference = realTimeSinceStart - (realTimeSinceStart % NOTIFY_MILLISECONDS);
+	public void run() throws InterruptedException
+	{
+		// Before we execute the simulation, we'll force
+		// the Java system to tidy up: this should _help_
+		// to keep our numbers consistent.
 
-			if(roundedDifference > previousDifference)
-			{
-				double virtualTimeRatio = (runTime - PSim.now()) / PSim.now();
+        System.gc();
+		System.runFinalization();
 
-				long ETA = (long) (virtualTimeRatio * realTimeSinceStart);
+        systemStatusTrace("Free VM memory: " + Runtime.getRuntime().freeMemory() + "b");
 
-                System.out.println("Still progress, real time " + roundedDifference / MS_IN_SECOND + "s, virtual time " + WebSim.formatDouble(PSim.now()) + "s. ETA " + (ETA / MS_IN_SECOND) + " real s.");
+		long allocatedBefore = MemoryUse.threadAllocatedBytes();
+		collections = -MemoryUse.collections();
+		collectionMillis = -MemoryUse.collectionMillis();
 
-				WebSim.systemStatusTrace("Free VM memory: " + Runtime.getRuntime().freeMemory() + "b");
-				
-				previousDifference = roundedDifference;
-			}
+		if(traceBufferRecords > 0 && isTraceObjectOperation())
+			traceWriter = new TraceWriter(traceFile, traceBufferRecords, traceOverflow == TRACE_OVERFLOW_DROP, name);
 
-			if(resetTime > 0)
-			{
-				if(PSim.now() > resetTime && !resetYet)
-				{
-					for(int i = 0; i < systemObjects.length; i++)
-						systemObjects[i].reset();
-					resetYet = true;
-				}
-			}
+		start();
+		before = System.currentTimeMillis();
+
+		try
+		{
+			if(partitions == null)
+				executeInStages();
+			else
+				runPartitions();
+		}
+		finally
+		{
+			after = System.currentTimeMillis();
 
-			/* try
+			if(traceWriter != null)
 			{
-				if(System.in.available() > 0)
-				{
-					WebSim.warning("Key pressed: aborting simulation.");
-					return true;
-				}
+				traceWriter.close();
+				tracesDropped = traceWriter.dropped();
+				traceWriter = null;
 			}
-			catch(java.io.IOException ioe)
-			{
-			} */
-            
-			return PSim.now() > runTime;
 		}
 
-		private boolean resetYet = false;
-		private long previousDifference = 0;
-		private long startTime;
-		private double runTime;
-		private double resetTime;
-		private RouteableSystemObject[] systemObjects;
-		private static final long NOTIFY_MILLISECONDS = 10 * MS_IN_SECOND;
+		collections += MemoryUse.collections();
+		collectionMillis += MemoryUse.collectionMillis();
+		allocatedBytes = allocatedBytes(allocatedBefore);
+
+		traceFile.flush();
 	}
 
-	private DataDump dataDump;
-	private String name;
-	private RouteableSystemObject[] systemObjects;
-	private double runTime;
-	private double resetTime;
-	private long before, after;
+	/**
+	 * @param before the number of bytes which this thread had allocated
+	 *	when the system started to run.
+	 * @return the number of bytes allocated by the threads which
+	 *	executed this system, or -1 if that is not known. The threads of
+	 *	the processes in threaded mode are not counted, so it is not
+	 *	known in that mode.
+	 */
 
-	private static final int MS_IN_SECOND = 1000;
+	private long allocatedBytes(long before)
+	{
+		long after = MemoryUse.threadAllocatedBytes();
+
+		if(before < 0 || after < 0 || (partitions == null && !isEventDriven()))
+			return -1;
+
+		long bytes = after - before;
+
+		for(int i = 0; partitions != null && i < partitions.length; i++)
+		{
+			if(partitions[i].allocatedBytes() < 0)
+				return -1;
+
+			bytes += partitions[i].allocatedBytes();
+		}
+
+		return bytes;
+	}
+
+	/**
+	 * Execute this system, which is not partitioned. The statistics are
+	 * reset once the first event after the reset time has been executed,
+	 * and the system stops once the first event after the run time has
+	 * been executed. Nothing else is done between events: the real time
+	 * is only looked at every {@link #PROGRESS_EVENTS} events, which is
+	 * also when snapshots are written. A warm-up detector or stopping
+	 * rule is only looked at between its observations or batches, which
+	 * are also when the real time is looked at, since there may be fewer
+	 * events than that in each.
+	 */
+
+	private void executeInStages() throws InterruptedException
+	{
+		executeUntilReset();
+
+		if(stoppingRule == null || !executeUntilPrecise())
+			executeReportingProgress(runTime);
+
+		if(!isEventDriven())
+			killAll();
+	}
+
+	private void executeUntilReset() throws InterruptedException
+	{
+		if(resetTime > 0 && !resetYet)
+		{
+			executeReportingProgress(Math.min(resetTime, runTime));
+
+			if(now() > resetTime)
+				for(int i = 0; i < systemObjects.length; i++)
+					systemObjects[i].reset();
+
+			resetYet = true;
+		}
+		else if(warmUpDetector != null && !resetYet)
+		{
+			executeUntilWarm();
+			resetYet = true;
+		}
+	}
+
+	/**
+	 * Execute this system an observation interval at a time, until the
+	 * warm-up period is found to be over, when the statistics are
+	 * reset, or half of the run time has passed.
+	 */
+
+	private void executeUntilWarm() throws InterruptedException
+	{
+		warmUpDetector.start();
+
+		while(warmUpDetector.nextObservation() < runTime / 2)
+		{
+			executeReportingProgress(warmUpDetector.nextObservation());
+
+			if(warmUpDetector.observe())
+			{
+				for(int i = 0; i < systemObjects.length; i++)
+					systemObjects[i].reset();
+
+				return;
+			}
+
+			reportProgress(now());
+			writeSnapshot();
+		}
+	}
+
+	/**
+	 * Execute this system a batch at a time, until the stopping rule is
+	 * met or the last batch would end after the run time.
+	 *
+	 * @return whether the stopping rule was met.
+	 */
+
+	private boolean executeUntilPrecise() throws InterruptedException
+	{
+		stoppingRule.start();
+
+		while(!stoppingRule.hasStopped() && stoppingRule.nextBatchEnd() < runTime)
+		{
+			executeReportingProgress(stoppingRule.nextBatchEnd());
+			stoppingRule.endBatch();
+			reportProgress(now());
+			writeSnapshot();
+		}
+
+		return stoppingRule.hasStopped();
+	}
+
+	/**
+	 * Activate every system object, and the data dump if this system is
+	 * not partitioned, unless this system has already been started.
+	 */
+
+	private void start()
+	{
+		if(started)
+			return;
+
+		for(int i = 0; i < systemObjects.length; i++)
+			systemObjects[i].activate();
+
+		if(partitions == null)
+			dataDump.activate();
+
+		started = true;
+	}
+
+	/**
+	 * Execute this system until the end time, in batches of events if
+	 * progress is reported or snapshots are written, so that the real
+	 * time can be looked at between them. Each of those is only done if
+	 * it is wanted.
+	 */
+
+	private void executeReportingProgress(double endTime) throws InterruptedException
+	{
+		long maxEvents = progressMillis > 0 || snapshotFile != null ? PROGRESS_EVENTS : Long.MAX_VALUE;
+
+		while(!execute(endTime, maxEvents))
+		{
+			reportProgress(now());
+			writeSnapshot();
+		}
+	}
+
+	/**
+	 * Print the progress made, if progress is reported and it has not
+	 * been printed for the progress interval.
+	 */
+
+	private void reportProgress(double virtualTime)
+	{
+		if(progressMillis <= 0)
+			return;
+
+		long realTimeSinceStart = System.currentTimeMillis() - before;
+
+		if(realTimeSinceStart - lastProgress >= progressMillis)
+		{
+			printProgress(realTimeSinceStart, virtualTime);
+			lastProgress = realTimeSinceStart;
+		}
+	}
+
+	/**
+	 * Write a snapshot, if there is to be one and it has not been
+	 * written for the snapshot interval. A snapshot which cannot be
+	 * written is only warned about, since the run itself can go on.
+	 */
+
+	private void writeSnapshot()
+	{
+		if(snapshotFile == null)
+			return;
+
+		long realTimeSinceStart = System.currentTimeMillis() - before;
+
+		if(realTimeSinceStart - lastSnapshot >= snapshotMillis)
+		{
+			try
+			{
+				Snapshot.write(this, snapshotFile);
+				systemStatusTrace("Wrote snapshot at virtual time " + WebSim.formatDouble(now()) + "s to " + snapshotFile + ".");
+			}
+			catch(IOException ioe)
+			{
+				warning("Could not write snapshot to " + snapshotFile + ": " + ioe.getMessage());
+			}
+
+			lastSnapshot = realTimeSinceStart;
+		}
+	}
+
+	/**
+	 * Execute the partitions of this system. If every partition which
+	 * can be sent messages has some lookahead, each is executed by its
+	 * own thread. Otherwise the partitions could not get ahead of one
+	 * another, so they are executed in turn by this thread.
+	 */
+
+	private void runPartitions() throws InterruptedException
+	{
+		for(int i = 0; i < systemObjects.length; i++)
+			connectPartitions(systemObjects[i]);
+
+		for(int i = 0; i < partitions.length; i++)
+		{
+			if(partitions[i].hasNoLookahead())
+			{
+				warning("Partition " + i + " has no lookahead: one of its objects which can be sent messages from another partition " +
+					"is a server with a finite queue, or has a service time distribution with no positive minimum. " +
+					"The partitions will be executed in turn rather than in parallel.");
+
+				runPartitionsInTurn();
+				return;
+			}
+		}
+
+		Thread[] workers = new Thread[partitions.length];
+
+		for(int i = 0; i < partitions.length; i++)
+		{
+			workers[i] = new Thread(partitions[i], name + " partition " + i);
+			partitions[i].setWorker(workers[i]);
+		}
+
+		for(int i = 0; i < workers.length; i++)
+			workers[i].start();
+
+		for(int i = 0; i < workers.length; i++)
+		{
+			workers[i].join(progressMillis);
+
+			while(workers[i].isAlive())
+			{
+				printProgress(System.currentTimeMillis() - before, partitionTime());
+				workers[i].join(progressMillis);
+			}
+		}
+
+		for(int i = 0; i < partitions.length; i++)
+			partitions[i].rethrowFailure();
+	}
+
+	/**
+	 * Execute the partitions of this system in turn, always executing
+	 * next the one with the earliest event or message.
+	 */
+
+	private void runPartitionsInTurn()
+	{
+		long steps = 0;
+
+		while(true)
+		{
+			Partition next = null;
+			double t = Double.POSITIVE_INFINITY;
+
+			for(int i = 0; i < partitions.length; i++)
+			{
+				partitions[i].receive();
+
+				double u = Math.min(partitions[i].nextEventTime(), partitions[i].nextDeliveryTime());
+
+				if(next == null || u < t)
+				{
+					next = partitions[i];
+					t = u;
+				}
+			}
+
+			if(t > runTime)
+				break;
+
+			next.step(t, Double.POSITIVE_INFINITY);
+
+			if(++steps % PROGRESS_EVENTS == 0)
+				reportProgress(t);
+		}
+
+		// Make sure that every partition has reset its statistics.
+
+		for(int i = 0; i < partitions.length; i++)
+			partitions[i].step(runTime);
+	}
+
+	/**
+	 * Add a system object to its partition, and tell the partitions
+	 * which its connections lead to that they can be sent messages from it.
+	 */
+
+	private void connectPartitions(RouteableSystemObject rso)
+	{
+		Partition from = (Partition) rso.getSimulation();
+		Connection[] connections = rso.getConnections();
+
+		from.addSystemObject(rso);
+
+		for(int i = 0; i < connections.length; i++)
+		{
+			String toName = connections[i].getTo().getName();
+			int toInstances = ((Integer) instances.get(toName)).intValue();
+
+			for(int j = 0; j < toInstances; j++)
+			{
+				RouteableSystemObject to = (RouteableSystemObject) systemMap.get(new SystemObjectID(toName, j));
+
+				if(to.getSimulation() != from)
+					((Partition) to.getSimulation()).connect(from, to);
+			}
+		}
+	}
+
+	/**
+	 * @return the virtual time which every partition has reached. For
+	 *	optimistic partitions, this is the last GVT computed.
+	 */
+
+	private double partitionTime()
+	{
+		if(gvt != null)
+			return gvt.value();
+
+		double time = Double.POSITIVE_INFINITY;
+
+		for(int i = 0; i < partitions.length; i++)
+			time = Math.min(time, partitions[i].now());
+
+		return time;
+	}
+
+	private void printProgress(long realTimeSinceStart, double virtualTime)
+	{
+		double virtualTimeRatio = (runTime - virtualTime) / virtualTime;
+
+		long ETA = (long) (virtualTimeRatio * realTimeSinceStart);
+
+		System.out.println("Still progress, real time " + realTimeSinceStart / MS_IN_SECOND + "s, virtual time " + WebSim.formatDouble(virtualTime) + "s. ETA " + (ETA / MS_IN_SECOND) + " real s.");
+
+		systemStatusTrace("Free VM memory: " + Runtime.getRuntime().freeMemory() + "b");
+	}
+
+	public void printFinalInformation(PrintStream out)
+	{
+        for(int i = 0; i < systemObjects.length; i++)
+		{
+			out.println(systemObjects[i].toFinalString());
+		}
+
+		double realSeconds = getRealTime();
+		double virtualSeconds = now();
+		long events = eventsProcessed();
+		long messages = 0, nullMessages = 0;
+		long rollbacks = 0, eventsRolledBack = 0, antiMessages = 0;
+
+		if(partitions != null)
+		{
+			virtualSeconds = 0.0;
+
+			for(int i = 0; i < partitions.length; i++)
+			{
+				virtualSeconds = Math.max(virtualSeconds, partitions[i].now());
+				messages += partitions[i].messagesSent();
+				nullMessages += partitions[i].nullMessagesSent();
+
+				if(gvt != null)
+				{
+					OptimisticPartition p = (OptimisticPartition) partitions[i];
+					rollbacks += p.rollbacks();
+					eventsRolledBack += p.eventsRolledBack();
+					antiMessages += p.antiMessagesSent();
+				}
+			}
+		}
+
+		double speedUp = (stoppingRule != null && stoppingRule.hasStopped() ? virtualSeconds : runTime) / realSeconds;
+
+		out.println("Simulation took " + WebSim.formatDouble(realSeconds) + "s (real), " + WebSim.formatDouble(virtualSeconds) + "s (virtual) to execute.");
+		out.println("Speedup of " + WebSim.formatDouble(speedUp) + " over virtual time.");
+		out.println("Executed " + events + " events, " + WebSim.formatDouble(events / realSeconds) + " events/s (real).");
+
+		if(partitions != null)
+			out.println("Executed in " + partitions.length + " partitions, which sent each other " + messages + " messages and " + nullMessages + " null messages.");
+
+		if(gvt != null)
+		{
+			double rolledBack = 100.0 * eventsRolledBack / (events + eventsRolledBack);
+
+			out.println("Executed optimistically: " + rollbacks + " rollbacks, " + eventsRolledBack + " events rolled back (" +
+				WebSim.formatDouble(rolledBack) + "% of those executed), " + antiMessages + " anti-messages, " +
+				gvt.computations() + " GVT computations.");
+		}
+
+		if(warmUpDetector != null)
+			out.print(warmUpDetector.toFinalString());
+
+		if(stoppingRule != null)
+			out.print(stoppingRule.toFinalString());
+
+		if(tracesDropped > 0)
+			out.println("Dropped " + tracesDropped + " trace records because the trace buffer was full.");
+
+		String gc = collections + " garbage collections took " + WebSim.formatDouble(collectionMillis / (double) MS_IN_SECOND) + "s";
+
+		if(allocatedBytes < 0)
+			out.println(gc + " (allocation is only measured in event-driven mode).");
+		else
+			out.println("Allocated " + allocatedBytes + " bytes, " + WebSim.formatDouble(events > 0 ? allocatedBytes / (double) events : 0.0) + " bytes/event; " + gc + ".");
+	}
+
+	public String toString()
+	{
+		return name;
+	}
+
+	public double getRuntime()
+	{
+		return runTime;
+	}
+
+	public RouteableSystemObject[] getSystemObjects()
+	{
+		return systemObjects;
+	}
+
+	/**
+	 * @return the real time, in seconds, which the simulation took
+	 * to run.
+	 */
+
+	public double getRealTime()
+	{
+		return (after - before) / (double) MS_IN_SECOND;
+	}
+
+    // THE FOLLOWING ARE GENERALISED OUTPUT FUNCTIONS
+
+	// Operations are traced for every event, so nothing is formatted
+	// until the trace level is known to include them: the object is
+	// only named then, and a caller which builds its message should
+	// check isTraceObjectOperation() or isTraceObjectOperationDetailed()
+	// first.
+
+	/**
+	 * @param object the object, or its name, which is only turned into
+	 *	a string if the operation is traced.
+	 */
+
+	public void traceObjectOperation(String objectType, Object object, String message)
+	{
+		if(isTraceObjectOperation())
+		{
+			double time = partitions == null ? now() : Partition.currentTime();
+			String objectName = String.valueOf(object);
+			TraceWriter writer = traceWriter;
+
+			if(writer != null)
+				writer.trace(time, objectType, objectName, message);
+			else
+				traceFile.println("@" + WebSim.formatDouble(time) + " " + objectType + " " + objectName + " : " + message);
+		}
+	}
+
+	public boolean isTraceObjectOperation()
+	{
+		return traceLevel >= WebSim.TRACE_MOST;
+	}
+
+	public void traceObjectOperationDetailed(String objectType, Object object, String message)
+	{
+		if(isTraceObjectOperationDetailed())
+			traceObjectOperation(objectType, object, message);
+	}
+
+	public boolean isTraceObjectOperationDetailed()
+	{
+		return traceLevel >= WebSim.TRACE_ALL;
+	}
+
+	public void traceObjectCreation(String objectType, String objectName, String message)
+	{
+		if(traceLevel >= WebSim.TRACE_SOME)
+			traceLine(objectType, objectName, message);
+	}
+
+	public void traceObjectCreation(String objectType, SystemObjectID soid, String message)
+	{
+		traceObjectCreation(objectType, soid.toString(), message);
+	}
+
+	public void traceObjectCreationDetailed(String objectType, String objectName, String message)
+	{
+		if(isTraceObjectCreationDetailed())
+			traceObjectCreation(objectType, objectName, message);
+	}
+
+	public boolean isTraceObjectCreationDetailed()
+	{
+		return traceLevel >= WebSim.TRACE_MOST;
+	}
+
+	public void systemStatusTrace(String message)
+	{
+		if(isSystemSetupTrace())
+			System.out.println(message);
+	}
+
+	public void systemSetupTrace(String message)
+	{
+		if(isSystemSetupTrace())
+			traceLine(null, null, message);
+	}
+
+	public boolean isSystemSetupTrace()
+	{
+		return traceLevel >= WebSim.TRACE_LITTLE;
+	}
+
+	public void error(String errorMessage)
+	{
+		traceLine(null, null, errorMessage);
+		WebSim.error(errorMessage);
+	}
+
+	public void warning(String warningMessage)
+	{
+		traceLine(null, null, warningMessage);
+		WebSim.warning(warningMessage);
+	}
+
+	/**
+	 * Write a line which is not timed to the trace, after any records
+	 * which are still in its buffer.
+	 */
+
+	private void traceLine(String objectType, String objectName, String message)
+	{
+		TraceWriter writer = traceWriter;
+
+		if(writer != null)
+			writer.println(objectType, objectName, message);
+		else if(objectType != null)
+			traceFile.println(objectType + " " + objectName + " : " + message);
+		else
+			traceFile.println(message);
+	}
+
+	private DataDump dataDump;
+	private String name;
+	private RouteableSystemObject[] systemObjects;
+	private double runTime;
+	private double resetTime;
+	private int defaultTTL;
+	private long before, after;
+
+	/**
+	 * The memory allocated and the garbage collections done while the
+	 * system ran.
+	 */
+
+	private long allocatedBytes = -1, collections, collectionMillis;
+	private long seed;
+
+	/**
+	 * The partitions of this system, or null if it is not partitioned.
+	 */
+
+	private Partition[] partitions = null;
+
+	/**
+	 * The partition which each system object is assigned to, by ID.
+	 */
+
+	private final Map partitionMap = new HashMap();
+
+	/**
+	 * The GVT computation for optimistic partitions, or null.
+	 */
+
+	private GlobalVirtualTime gvt = null;
+
+	private final int traceLevel;
+	private PrintStream traceFile;
+
+	/**
+	 * The size of the trace buffer, and what happens when it is full.
+	 * While the system runs, its trace is written by the writer, if
+	 * there is one.
+	 */
+
+	private int traceBufferRecords = 0, traceOverflow = TRACE_OVERFLOW_BLOCK;
+	private volatile TraceWriter traceWriter = null;
+	private long tracesDropped = 0;
+
+	private final Map systemMap = new HashMap();
+
+	/**
+	 * The number of instances of each system object, by name.
+	 */
+
+	private final Map instances = new HashMap();
+
+	private static final int MS_IN_SECOND = 1000;
+
+	/**
+	 * The number of events (or, for partitions executed in turn, steps)
+	 * executed between looking at the real time to report progress.
+	 */
+
+	private static final long PROGRESS_EVENTS = 100000;
+
+	private long progressMillis = 10 * MS_IN_SECOND;
+
+	private double[] percentiles = DEFAULT_PERCENTILES;
+	private int percentileEstimator = PERCENTILES_HISTOGRAM;
+	private long lastProgress = 0;
+
+	/**
+	 * Every process in this system, for snapshots.
+	 */
+
+	private final List processes = new ArrayList();
+
+	/**
+	 * The file to write snapshots to, or null if none are written.
+	 */
+
+	private File snapshotFile = null;
+
+	private long snapshotMillis;
+	private long lastSnapshot = 0;
+	private boolean resetYet = false;
+
+	/**
+	 * The rule which ends the run early, or null if there is none.
+	 */
+
+	private StoppingRule stoppingRule = null;
+
+	/**
+	 * The detector which finds when to reset the statistics, or null if
+	 * they are reset at a fixed time, if at all.
+	 */
+
+	private WarmUpDetector warmUpDetector = null;
+
+	/**
+	 * Set once the system objects have been activated, or restored from
+	 * a snapshot.
+	 */
+
+	private boolean started = false;
 }
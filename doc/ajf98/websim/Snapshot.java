@@ -0,0 +1,233 @@
+/*
+
+Copyright (c) 2002, 2012, Andrew Ferrier. Portions based on work by, and (c) 
+Tony Field 2000, 2001. All rights reserved.
+
+Redistribution and use in source and binary forms, with or without 
+modification, are permitted provided that the following conditions are 
+met: 
+
+Redistributions of source code must retain the above copyright notice, 
+this list of conditions and the following disclaimer.
+ 
+Redistributions in binary form must reproduce the above copyright notice, 
+this list of conditions and the following disclaimer in the documentation 
+and/or other materials provided with the distribution. 
+ 
+The name(s) of the author(s) of the software may not be used to endorse or 
+promote products derived from this software without specific prior written 
+permission.
+ 
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS 
+IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, 
+THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR 
+PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR 
+CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, 
+EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, 
+PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR 
+PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF 
+LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING 
+NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS 
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+*/
+
+package doc.ajf98.websim;
+
+import java.io.*;
+import java.util.*;
+import java.util.zip.*;
+
+import doc.ajf98.SimTools.SimProcess;
+
+import java.util.List;
+
+/**
+ * Writes the state of a simulation system to a file, and restores a
+ * system to the state in a file, so that a long run can be resumed
+ * after it has been stopped.
+ *
+ * The state is that saved by {@link SimulationSystem#saveState()},
+ * written with Java serialisation and compressed. A process which is
+ * referred to, such as one in the event list, is written as its name.
+ * A snapshot can therefore be restored into a different system, as long
+ * as it has the same system objects, which is how a system is warm
+ * started from another.
+ *
+ * @author Andrew Ferrier
+ * @version 0.4
+ */
+
+class Snapshot
+{
+	private Snapshot()
+	{
+	}
+
+	/**
+	 * Write a snapshot of a system to a file. It is written to a
+	 * temporary file first, so that an earlier snapshot is not lost if
+	 * this one cannot be completed.
+	 */
+
+	static void write(SimulationSystem system, File file) throws IOException
+	{
+		File temporary = new File(file.getPath() + ".tmp");
+
+		write(system, new FileOutputStream(temporary));
+
+		if(!temporary.renameTo(file))
+		{
+			file.delete();
+
+			if(!temporary.renameTo(file))
+				throw new IOException("Could not rename " + temporary + " to " + file + ".");
+		}
+	}
+
+	/**
+	 * Write a snapshot of a system to a stream, which is closed
+	 * afterwards.
+	 */
+
+	static void write(SimulationSystem system, OutputStream stream) throws IOException
+	{
+		final Map names = new IdentityHashMap();
+		List processes = system.getProcesses();
+
+		for(int i = 0; i < processes.size(); i++)
+			names.put(processes.get(i), processes.get(i).toString());
+
+		ObjectOutputStream out = new ObjectOutputStream(new BufferedOutputStream(new GZIPOutputStream(stream)))
+		{
+			{
+				enableReplaceObject(true);
+			}
+
+			protected Object replaceObject(Object o) throws IOException
+			{
+				if(!(o instanceof SimProcess))
+					return o;
+
+				String name = (String) names.get(o);
+
+				if(name == null)
+					throw new NotSerializableException("The process " + o + " does not belong to the system.");
+
+				return new ProcessReference(name);
+			}
+		};
+
+		try
+		{
+			out.writeUTF(MAGIC);
+			out.writeUTF(system.toString());
+			out.writeObject(system.saveState());
+		}
+		finally
+		{
+			out.close();
+		}
+	}
+
+	/**
+	 * Restore a system to the state in a snapshot file, which must be
+	 * of the same system.
+	 */
+
+	static void read(SimulationSystem system, File file) throws IOException
+	{
+		read(system, new FileInputStream(file), true);
+	}
+
+	/**
+	 * Restore a system to the state in a snapshot, which is read from a
+	 * stream. The stream is closed afterwards.
+	 *
+	 * @param sameSystem whether the snapshot must be of a system with
+	 *	the same name.
+	 */
+
+	static void read(SimulationSystem system, InputStream stream, boolean sameSystem) throws IOException
+	{
+		final Map processes = new HashMap();
+		List registered = system.getProcesses();
+
+		for(int i = 0; i < registered.size(); i++)
+			processes.put(registered.get(i).toString(), registered.get(i));
+
+		ObjectInputStream in = new ObjectInputStream(new BufferedInputStream(new GZIPInputStream(stream)))
+		{
+			{
+				enableResolveObject(true);
+			}
+
+			protected Object resolveObject(Object o) throws IOException
+			{
+				if(!(o instanceof ProcessReference))
+					return o;
+
+				String name = ((ProcessReference) o).name;
+				Object p = processes.get(name);
+
+				if(p == null)
+					throw new InvalidObjectException("The snapshot refers to " + name + ", which the system does not have.");
+
+				return p;
+			}
+		};
+
+		try
+		{
+			if(!in.readUTF().equals(MAGIC))
+				throw new StreamCorruptedException("This is not a snapshot.");
+
+			String name = in.readUTF();
+
+			if(sameSystem && !name.equals(system.toString()))
+				throw new InvalidObjectException("This is a snapshot of a different system ('" + name + "').");
+
+			Object state = in.readObject();
+
+			try
+			{
+				system.restoreState(state);
+			}
+			catch(RuntimeException re)
+			{
+				throw new InvalidObjectException("The snapshot of '" + name + "' does not fit this system: " + re.getMessage());
+			}
+		}
+		catch(ClassNotFoundException cnfe)
+		{
+			throw new InvalidClassException(cnfe.getMessage());
+		}
+		finally
+		{
+			in.close();
+		}
+	}
+
+	/**
+	 * Written in place of a process, which is referred to by its name
+	 * rather than its index in the list of processes, since a system
+	 * which is warm started may have different processes.
+	 */
+
+	private static class ProcessReference implements Serializable
+	{
+		ProcessReference(String name)
+		{
+			this.name = name;
+		}
+
+		final String name;
+	}
+
+	/**
+	 * Written at the start of every snapshot, and changed whenever
+	 * their format is.
+	 */
+
+	private static final String MAGIC = "WS3 snapshot 12";
+}
@@ -0,0 +1,294 @@
+/*
+
+Copyright (c) 2002, 2012, Andrew Ferrier. Portions based on work by, and (c) 
+Tony Field 2000, 2001. All rights reserved.
+
+Redistribution and use in source and binary forms, with or without 
+modification, are permitted provided that the following conditions are 
+met: 
+
+Redistributions of source code must retain the above copyright notice, 
+this list of conditions and the following disclaimer.
+ 
+Redistributions in binary form must reproduce the above copyright notice, 
+this list of conditions and the following disclaimer in the documentation 
+and/or other materials provided with the distribution. 
+ 
+The name(s) of the author(s) of the software may not be used to endorse or 
+promote products derived from this software without specific prior written 
+permission.
+ 
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS 
+IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, 
+THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR 
+PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR 
+CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, 
+EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, 
+PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR 
+PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF 
+LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING 
+NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS 
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+*/
+
+package doc.ajf98.websim;
+
+import java.util.*;
+
+import doc.ajf98.SimTools.*;
+import doc.ajf98.websim.processes.abs.*;
+
+import java.util.List;
+
+/**
+ * A sequential stopping rule, which ends a run once its results are
+ * precise enough. The run is divided into batches of equal virtual
+ * time, and at the end of each the mean response time of every client
+ * and the utilisation of every server and network node are estimated
+ * by {@link BatchMeans}. The run stops once the confidence interval of
+ * each of them is no wider, either side of its mean, than a given
+ * fraction of that mean.
+ *
+ * The rule is only looked at between batches, so the event loop
+ * itself does nothing extra.
+ *
+ * @author Andrew Ferrier
+ * @version 0.1
+ */
+
+class StoppingRule implements Checkpointable
+{
+	/**
+	 * @param system the system, whose objects must have been set.
+	 * @param precision the largest half-width of each confidence
+	 *	interval, as a fraction of its mean.
+	 * @param confidence the level of confidence, such as 0.95.
+	 * @param batchLength the virtual time of each batch.
+	 */
+
+	StoppingRule(SimulationSystem system, double precision, double confidence, double batchLength)
+	{
+		this.system = system;
+		this.precision = precision;
+		this.confidence = confidence;
+		this.batchLength = batchLength;
+
+		List objects = new ArrayList();
+		List names = new ArrayList();
+		RouteableSystemObject[] systemObjects = system.getSystemObjects();
+
+		for(int i = 0; i < systemObjects.length; i++)
+		{
+			if(systemObjects[i] instanceof HasResponseTime)
+				names.add(systemObjects[i].getName() + " response time");
+			else if(systemObjects[i] instanceof HasUtilisation)
+				names.add(systemObjects[i].getName() + " utilisation");
+			else
+				continue;
+
+			objects.add(systemObjects[i]);
+		}
+
+		this.objects = (RouteableSystemObject[]) objects.toArray(new RouteableSystemObject[0]);
+		this.names = (String[]) names.toArray(new String[0]);
+		this.batches = new BatchMeans[this.objects.length];
+		this.lastSum = new double[this.objects.length];
+		this.lastWeight = new double[this.objects.length];
+
+		for(int i = 0; i < batches.length; i++)
+			batches[i] = new BatchMeans(MAX_BATCHES);
+	}
+
+	/**
+	 * Start the first batch, unless it has been started already. This
+	 * must be done when the statistics were last reset.
+	 */
+
+	void start()
+	{
+		if(started)
+			return;
+
+		startTime = system.now();
+		nextBatchEnd = startTime + batchLength;
+
+		for(int i = 0; i < objects.length; i++)
+		{
+			lastSum[i] = sum(i);
+			lastWeight[i] = weight(i);
+		}
+
+		started = true;
+	}
+
+	/**
+	 * @return the virtual time at which the current batch ends.
+	 */
+
+	double nextBatchEnd()
+	{
+		return nextBatchEnd;
+	}
+
+	/**
+	 * End the current batch, and start the next.
+	 *
+	 * @return whether every confidence interval is now narrow enough.
+	 */
+
+	boolean endBatch()
+	{
+		for(int i = 0; i < objects.length; i++)
+		{
+			double sum = sum(i), weight = weight(i);
+			batches[i].addBatch(sum - lastSum[i], weight - lastWeight[i]);
+			lastSum[i] = sum;
+			lastWeight[i] = weight;
+		}
+
+		nextBatchEnd += batchLength;
+
+		for(int i = 0; i < objects.length; i++)
+			if(!isPrecise(i))
+				return false;
+
+		stopped = true;
+		return true;
+	}
+
+	/**
+	 * @return whether the run was stopped by this rule.
+	 */
+
+	boolean hasStopped()
+	{
+		return stopped;
+	}
+
+	private boolean isPrecise(int i)
+	{
+		return batches[i].batches() >= MIN_BATCHES
+			&& batches[i].confidenceHalfWidth(confidence) <= precision * Math.abs(batches[i].mean());
+	}
+
+	/**
+	 * The sum of the response times, or the time for which the object
+	 * was busy, since the statistics were reset.
+	 */
+
+	private double sum(int i)
+	{
+		if(objects[i] instanceof HasResponseTime)
+		{
+			HasResponseTime o = (HasResponseTime) objects[i];
+			return o.getResponseCount() > 0 ? o.getMeanResponseTime() * o.getResponseCount() : 0.0;
+		}
+		else
+			return weight(i) > 0 ? ((HasUtilisation) objects[i]).getUtilisation() * weight(i) : 0.0;
+	}
+
+	/**
+	 * The number of responses, or the time, since the statistics were
+	 * reset.
+	 */
+
+	private double weight(int i)
+	{
+		if(objects[i] instanceof HasResponseTime)
+			return ((HasResponseTime) objects[i]).getResponseCount();
+		else
+			return system.now() - startTime;
+	}
+
+	public String toFinalString()
+	{
+		String interval = WebSim.formatDouble(confidence * 100) + "% confidence interval";
+		String s;
+
+		if(stopped)
+			s = "Stopped at virtual time " + WebSim.formatDouble(system.now()) + "s, when every " + interval + " was within " + WebSim.formatDouble(precision * 100) + "% of its mean.\n";
+		else
+			s = "Not every " + interval + " was within " + WebSim.formatDouble(precision * 100) + "% of its mean by the run time.\n";
+
+		for(int i = 0; i < objects.length; i++)
+		{
+			s += "Batch means of " + names[i] + ": " + WebSim.formatDouble(batches[i].mean()) + " +/- " +
+				WebSim.formatDouble(batches[i].confidenceHalfWidth(confidence)) + " (" + batches[i].batches() + " batches of " +
+				WebSim.formatDouble(batchLength * batches[i].batchSize()) + "s)\n";
+		}
+
+		return s;
+	}
+
+	public Object saveState()
+	{
+		State s = new State();
+		s.batches = new Object[batches.length];
+
+		for(int i = 0; i < batches.length; i++)
+			s.batches[i] = batches[i].saveState();
+
+		s.lastSum = (double[]) lastSum.clone();
+		s.lastWeight = (double[]) lastWeight.clone();
+		s.startTime = startTime;
+		s.nextBatchEnd = nextBatchEnd;
+		s.started = started;
+		s.stopped = stopped;
+		return s;
+	}
+
+	public void restoreState(Object state)
+	{
+		State s = (State) state;
+
+		if(s.batches.length != batches.length)
+			throw new IllegalStateException("The state is of a stopping rule for " + s.batches.length + " system objects, not " + batches.length + ".");
+
+		for(int i = 0; i < batches.length; i++)
+			batches[i].restoreState(s.batches[i]);
+
+		lastSum = (double[]) s.lastSum.clone();
+		lastWeight = (double[]) s.lastWeight.clone();
+		startTime = s.startTime;
+		nextBatchEnd = s.nextBatchEnd;
+		started = s.started;
+		stopped = s.stopped;
+	}
+
+	private static class State implements java.io.Serializable
+	{
+		Object[] batches;
+		double[] lastSum, lastWeight;
+		double startTime, nextBatchEnd;
+		boolean started, stopped;
+	}
+
+	/**
+	 * The fewest batches from which an interval is trusted.
+	 */
+
+	private static final int MIN_BATCHES = 10;
+
+	/**
+	 * The number of batches at which they are merged in pairs.
+	 */
+
+	private static final int MAX_BATCHES = 40;
+
+	private final SimulationSystem system;
+	private final double precision, confidence, batchLength;
+	private final RouteableSystemObject[] objects;
+	private final String[] names;
+	private final BatchMeans[] batches;
+
+	/**
+	 * The sum and weight of each estimate when the current batch
+	 * started.
+	 */
+
+	private double[] lastSum, lastWeight;
+
+	private double startTime, nextBatchEnd;
+	private boolean started = false, stopped = false;
+}
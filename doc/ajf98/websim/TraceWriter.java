@@ -0,0 +1,250 @@
+/*
+
+Copyright (c) 2002, 2012, Andrew Ferrier. Portions based on work by, and (c) 
+Tony Field 2000, 2001. All rights reserved.
+
+Redistribution and use in source and binary forms, with or without 
+modification, are permitted provided that the following conditions are 
+met: 
+
+Redistributions of source code must retain the above copyright notice, 
+this list of conditions and the following disclaimer.
+ 
+Redistributions in binary form must reproduce the above copyright notice, 
+this list of conditions and the following disclaimer in the documentation 
+and/or other materials provided with the distribution. 
+ 
+The name(s) of the author(s) of the software may not be used to endorse or 
+promote products derived from this software without specific prior written 
+permission.
+ 
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS 
+IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, 
+THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR 
+PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR 
+CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, 
+EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, 
+PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR 
+PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF 
+LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING 
+NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS 
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+*/
+
+package doc.ajf98.websim;
+
+import java.io.PrintStream;
+import java.util.concurrent.atomic.*;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Writes the trace of a system from a background thread, so that the
+ * threads which execute the system only have to put each record in a
+ * buffer. A record holds the virtual time and the parts of the line,
+ * which are only joined and formatted by the writer.
+ *
+ * The buffer is a bounded ring which any number of threads can add to
+ * without locking, as partitions do (D. Vyukov's bounded queue). Each
+ * slot has a sequence number which says whether it is free for the
+ * record with a given position, or holds it. When the buffer is full,
+ * a record is either waited for room, or dropped and counted. Lines
+ * which are not timed, such as warnings, are never dropped.
+ *
+ * @author Andrew Ferrier
+ * @version 0.1
+ */
+
+class TraceWriter implements Runnable
+{
+	/**
+	 * @param out the stream to write the trace to, which nothing else
+	 *	should write to until this writer is closed.
+	 * @param capacity the number of records the buffer can hold, which
+	 *	is rounded up to a power of two.
+	 * @param drop whether to drop records when the buffer is full,
+	 *	rather than wait.
+	 * @param name the name of the system, for the thread.
+	 */
+
+	TraceWriter(PrintStream out, int capacity, boolean drop, String name)
+	{
+		int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+
+		this.out = out;
+		this.drop = drop;
+		this.mask = size - 1;
+		this.times = new double[size];
+		this.types = new String[size];
+		this.names = new String[size];
+		this.texts = new String[size];
+		this.sequences = new AtomicLongArray(size);
+
+		for(int i = 0; i < size; i++)
+			sequences.set(i, i);
+
+		thread = new Thread(this, "Trace writer for " + name);
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * Add a line of the trace of an operation, which is written as
+	 * "@time type name : text".
+	 */
+
+	void trace(double time, String type, String name, String text)
+	{
+		while(!offer(time, type, name, text))
+		{
+			if(drop)
+			{
+				dropped.incrementAndGet();
+				return;
+			}
+
+			waitForRoom();
+		}
+	}
+
+	/**
+	 * Add a line which is not timed, written as "type name : text", or
+	 * as the text alone if there is no type.
+	 */
+
+	void println(String type, String name, String text)
+	{
+		while(!offer(Double.NaN, type, name, text))
+			waitForRoom();
+	}
+
+	/**
+	 * Write out every record in the buffer, and stop the writer.
+	 */
+
+	void close() throws InterruptedException
+	{
+		closing = true;
+		LockSupport.unpark(thread);
+		thread.join();
+	}
+
+	/**
+	 * @return the number of records dropped because the buffer was full.
+	 */
+
+	long dropped()
+	{
+		return dropped.get();
+	}
+
+	private boolean offer(double time, String type, String name, String text)
+	{
+		long position;
+		int i;
+
+		while(true)
+		{
+			position = tail.get();
+			i = (int) position & mask;
+			long difference = sequences.get(i) - position;
+
+			if(difference == 0)
+			{
+				if(tail.compareAndSet(position, position + 1))
+					break;
+			}
+			else if(difference < 0)
+				return false;
+		}
+
+		times[i] = time;
+		types[i] = type;
+		names[i] = name;
+		texts[i] = text;
+		sequences.set(i, position + 1);
+		return true;
+	}
+
+	private void waitForRoom()
+	{
+		LockSupport.unpark(thread);
+		Thread.yield();
+	}
+
+	/**
+	 * Write the next record, if it has been added.
+	 *
+	 * @return whether there was one.
+	 */
+
+	private boolean poll()
+	{
+		int i = (int) head & mask;
+
+		if(sequences.get(i) != head + 1)
+			return false;
+
+		if(!Double.isNaN(times[i]))
+			out.println("@" + WebSim.formatDouble(times[i]) + " " + types[i] + " " + names[i] + " : " + texts[i]);
+		else if(types[i] != null)
+			out.println(types[i] + " " + names[i] + " : " + texts[i]);
+		else
+			out.println(texts[i]);
+
+		types[i] = names[i] = texts[i] = null;
+		sequences.set(i, head + mask + 1);
+		head++;
+		return true;
+	}
+
+	public void run()
+	{
+		while(true)
+		{
+			if(poll())
+				continue;
+
+			if(closing)
+			{
+				while(poll())
+					;
+
+				return;
+			}
+
+			LockSupport.parkNanos(IDLE_NANOS);
+		}
+	}
+
+	/**
+	 * How long the writer sleeps for when the buffer is empty.
+	 */
+
+	private static final long IDLE_NANOS = 100000;
+
+	private final PrintStream out;
+	private final boolean drop;
+	private final int mask;
+	private final double[] times;
+	private final String[] types, names, texts;
+
+	/**
+	 * For each slot, the position of the record which it is free for,
+	 * or one more than the position of the record which it holds.
+	 */
+
+	private final AtomicLongArray sequences;
+
+	/**
+	 * The position of the next record to be added, and of the next to
+	 * be written, which only the writer uses.
+	 */
+
+	private final AtomicLong tail = new AtomicLong();
+	private long head = 0;
+
+	private final AtomicLong dropped = new AtomicLong();
+	private final Thread thread;
+	private volatile boolean closing = false;
+}
@@ -0,0 +1,266 @@
+/*
+
+Copyright (c) 2002, 2012, Andrew Ferrier. Portions based on work by, and (c) 
+Tony Field 2000, 2001. All rights reserved.
+
+Redistribution and use in source and binary forms, with or without 
+modification, are permitted provided that the following conditions are 
+met: 
+
+Redistributions of source code must retain the above copyright notice, 
+this list of conditions and the following disclaimer.
+ 
+Redistributions in binary form must reproduce the above copyright notice, 
+this list of conditions and the following disclaimer in the documentation 
+and/or other materials provided with the distribution. 
+ 
+The name(s) of the author(s) of the software may not be used to endorse or 
+promote products derived from this software without specific prior written 
+permission.
+ 
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS 
+IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, 
+THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR 
+PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR 
+CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, 
+EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, 
+PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR 
+PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF 
+LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING 
+NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS 
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+*/
+
+package doc.ajf98.websim;
+
+import java.util.*;
+
+import doc.ajf98.SimTools.*;
+import doc.ajf98.websim.processes.abs.*;
+
+import java.util.List;
+
+/**
+ * Finds the end of the warm-up period of a system while it runs, so
+ * that its statistics can be reset there rather than at a fixed point.
+ * Every observation interval, the queue length of every server and
+ * network node, and the mean response time of every client over the
+ * interval, are observed. Once {@link MserTruncation} finds that every
+ * one of these series has settled, the statistics are reset.
+ *
+ * A client which has had no replies in an interval is observed to have
+ * the response time it had in the interval before, and its series
+ * starts with its first reply.
+ *
+ * @author Andrew Ferrier
+ * @version 0.1
+ */
+
+class WarmUpDetector implements Checkpointable
+{
+	/**
+	 * @param system the system, whose objects must have been set.
+	 * @param interval the virtual time between observations.
+	 */
+
+	WarmUpDetector(SimulationSystem system, double interval)
+	{
+		this.system = system;
+		this.interval = interval;
+
+		List objects = new ArrayList();
+		RouteableSystemObject[] systemObjects = system.getSystemObjects();
+
+		for(int i = 0; i < systemObjects.length; i++)
+			if(systemObjects[i] instanceof HasQueue || systemObjects[i] instanceof HasResponseTime)
+				objects.add(systemObjects[i]);
+
+		this.objects = (RouteableSystemObject[]) objects.toArray(new RouteableSystemObject[0]);
+		this.series = new MserTruncation[this.objects.length];
+		this.skipped = new int[this.objects.length];
+		this.lastSum = new double[this.objects.length];
+		this.lastCount = new long[this.objects.length];
+		this.lastValue = new double[this.objects.length];
+
+		for(int i = 0; i < series.length; i++)
+			series[i] = new MserTruncation();
+	}
+
+	/**
+	 * Start observing, unless this has been done already.
+	 */
+
+	void start()
+	{
+		if(started)
+			return;
+
+		startTime = system.now();
+		nextObservation = startTime + interval;
+
+		for(int i = 0; i < objects.length; i++)
+		{
+			if(objects[i] instanceof HasResponseTime)
+			{
+				HasResponseTime o = (HasResponseTime) objects[i];
+				lastCount[i] = o.getResponseCount();
+				lastSum[i] = lastCount[i] > 0 ? o.getMeanResponseTime() * lastCount[i] : 0.0;
+				lastValue[i] = Double.NaN;
+			}
+		}
+
+		started = true;
+	}
+
+	/**
+	 * @return the virtual time at which the next observation is due.
+	 */
+
+	double nextObservation()
+	{
+		return nextObservation;
+	}
+
+	/**
+	 * Observe every series, and look for the end of the warm-up period
+	 * once a batch of each is complete.
+	 *
+	 * @return whether the warm-up period has been found to be over.
+	 */
+
+	boolean observe()
+	{
+		for(int i = 0; i < objects.length; i++)
+		{
+			if(objects[i] instanceof HasQueue)
+			{
+				series[i].add(((HasQueue) objects[i]).getQueueLength());
+				continue;
+			}
+
+			HasResponseTime o = (HasResponseTime) objects[i];
+			long count = o.getResponseCount();
+			double sum = count > 0 ? o.getMeanResponseTime() * count : 0.0;
+
+			if(count > lastCount[i])
+				lastValue[i] = (sum - lastSum[i]) / (count - lastCount[i]);
+
+			lastSum[i] = sum;
+			lastCount[i] = count;
+
+			if(Double.isNaN(lastValue[i]))
+				skipped[i]++;
+			else
+				series[i].add(lastValue[i]);
+		}
+
+		observations++;
+		nextObservation += interval;
+
+		if(observations % MserTruncation.BATCH_SIZE != 0)
+			return false;
+
+		for(int i = 0; i < series.length; i++)
+			if(series[i].batches() < MIN_BATCHES || !series[i].isSettled())
+				return false;
+
+		truncationTime = startTime;
+
+		for(int i = 0; i < series.length; i++)
+			truncationTime = Math.max(truncationTime, startTime + interval * (skipped[i] + MserTruncation.BATCH_SIZE * series[i].truncation()));
+
+		resetAt = system.now();
+		return true;
+	}
+
+	public String toFinalString()
+	{
+		if(resetAt < 0)
+			return "No end to the warm-up period was found by MSER-5 before half of the run time, so the statistics were not reset.\n";
+		else
+			return "The warm-up period was found by MSER-5 to end at virtual time " + WebSim.formatDouble(truncationTime) +
+				"s; the statistics were reset at virtual time " + WebSim.formatDouble(resetAt) + "s.\n";
+	}
+
+	public Object saveState()
+	{
+		State s = new State();
+		s.series = new Object[series.length];
+
+		for(int i = 0; i < series.length; i++)
+			s.series[i] = series[i].saveState();
+
+		s.skipped = (int[]) skipped.clone();
+		s.lastSum = (double[]) lastSum.clone();
+		s.lastCount = (long[]) lastCount.clone();
+		s.lastValue = (double[]) lastValue.clone();
+		s.times = new double[] { startTime, nextObservation, truncationTime, resetAt };
+		s.observations = observations;
+		s.started = started;
+		return s;
+	}
+
+	public void restoreState(Object state)
+	{
+		State s = (State) state;
+
+		if(s.series.length != series.length)
+			throw new IllegalStateException("The state is of a warm-up detector for " + s.series.length + " system objects, not " + series.length + ".");
+
+		for(int i = 0; i < series.length; i++)
+			series[i].restoreState(s.series[i]);
+
+		skipped = (int[]) s.skipped.clone();
+		lastSum = (double[]) s.lastSum.clone();
+		lastCount = (long[]) s.lastCount.clone();
+		lastValue = (double[]) s.lastValue.clone();
+		startTime = s.times[0];
+		nextObservation = s.times[1];
+		truncationTime = s.times[2];
+		resetAt = s.times[3];
+		observations = s.observations;
+		started = s.started;
+	}
+
+	private static class State implements java.io.Serializable
+	{
+		Object[] series;
+		int[] skipped;
+		double[] lastSum, lastValue, times;
+		long[] lastCount;
+		long observations;
+		boolean started;
+	}
+
+	/**
+	 * The fewest batches of each series from which the warm-up period
+	 * is judged.
+	 */
+
+	private static final int MIN_BATCHES = 20;
+
+	private final SimulationSystem system;
+	private final double interval;
+	private final RouteableSystemObject[] objects;
+	private final MserTruncation[] series;
+
+	/**
+	 * The number of intervals before the first reply to each client.
+	 */
+
+	private int[] skipped;
+
+	/**
+	 * The sum and count of the response times of each client at the
+	 * last observation, and the response time it was observed to have.
+	 */
+
+	private double[] lastSum, lastValue;
+	private long[] lastCount;
+
+	private double startTime, nextObservation, truncationTime;
+	private double resetAt = -1;
+	private long observations = 0;
+	private boolean started = false;
+}
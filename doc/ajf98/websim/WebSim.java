@@ -37,6 +37,7 @@ package doc.ajf98.websim;
 import java.io.*;
 import java.text.*;
 import java.util.*;
+import java.util.concurrent.*;
 
 import javax.xml.parsers.*;
 
@@ -65,8 +66,24 @@ import java.util.List;
  * functions (outputting errors, etc.). This is unfortunate but also
  * generally unavoidable.
  *
+ * Several input files can be given, in which case their simulation
+ * systems are run at the same time. A system can also be run as a
+ * number of independent replications, again at the same time. An
+ * event-driven system can be divided into partitions, which are
+ * executed in parallel.
+ *
+ * An event-driven system which is not partitioned can write a snapshot
+ * of itself every so often. If the option -resume is given, each system
+ * which has a snapshot continues from it, rather than starting again.
+ *
+ * If the option -warmstart is given, the first system is only executed
+ * until it resets its statistics. Every system is then run on from that
+ * point, at the same time, with its own parameters. This is useful for a
+ * set of variations of a system, which need not each simulate the same
+ * warm-up period.
+ *
  * @author Andrew Ferrier.
- * @version 1.7.4
+ * @version 1.20
  */
 
 public class WebSim
@@ -89,8 +106,6 @@ public class WebSim
 	public static final int TRACE_MOST = 3;
 	public static final int TRACE_ALL = 4;
 
-	public static int traceLevel = TRACE_LITTLE;
-
 	private static final String TAG_ALPHA = "alpha";
     private static final String TAG_BETA = "beta";
     private static final String TAG_CLIENT = "client";
@@ -136,30 +151,80 @@ public class WebSim
 	private static final String ATTRIBUTE_PROCESSORS = "processors";
 	private static final String ATTRIBUTE_THREAD_GRAIN = "threadGrain";
 	private static final String ATTRIBUTE_RESETTIME = "resetStatsPoint";
+	private static final String ATTRIBUTE_EVENTQUEUE = "eventQueue";
+	private static final String ATTRIBUTE_EXECUTION = "execution";
+	private static final String ATTRIBUTE_HANDOFF = "handoff";
+	private static final String ATTRIBUTE_REPLICATIONS = "replications";
+	private static final String ATTRIBUTE_PARTITIONS = "partitions";
+	private static final String ATTRIBUTE_PARTITION = "partition";
+	private static final String ATTRIBUTE_SYNCHRONISATION = "synchronisation";
+	private static final String ATTRIBUTE_PROGRESS_INTERVAL = "progressInterval";
+	private static final String ATTRIBUTE_SNAPSHOT_INTERVAL = "snapshotInterval";
+	private static final String ATTRIBUTE_PERCENTILES = "percentiles";
+	private static final String ATTRIBUTE_PERCENTILE_ESTIMATOR = "percentileEstimator";
+	private static final String ATTRIBUTE_STOPPING_PRECISION = "stoppingPrecision";
+	private static final String ATTRIBUTE_STOPPING_CONFIDENCE = "stoppingConfidence";
+	private static final String ATTRIBUTE_BATCH_LENGTH = "batchLength";
+	private static final String ATTRIBUTE_WARM_UP_INTERVAL = "warmUpInterval";
+	private static final String ATTRIBUTE_TRACE_BUFFER = "traceBuffer";
+	private static final String ATTRIBUTE_TRACE_OVERFLOW = "traceOverflow";
+
+	private static final String ATTRVALUE_EVENTQUEUE_LIST = "list";
+	private static final String ATTRVALUE_EVENTQUEUE_HEAP = "heap";
+	private static final String ATTRVALUE_EVENTQUEUE_CALENDAR = "calendar";
+	private static final String ATTRVALUE_PERCENTILES_HISTOGRAM = "histogram";
+	private static final String ATTRVALUE_PERCENTILES_P_SQUARED = "p2";
+	private static final String ATTRVALUE_RESETTIME_AUTO = "auto";
+	private static final String ATTRVALUE_EXECUTION_THREADED = "threaded";
+	private static final String ATTRVALUE_EXECUTION_EVENT = "event";
+	private static final String ATTRVALUE_EXECUTION_VIRTUAL = "virtual";
+	private static final String ATTRVALUE_HANDOFF_MONITOR = "monitor";
+	private static final String ATTRVALUE_HANDOFF_PARK = "park";
+	private static final String ATTRVALUE_HANDOFF_SPIN = "spin";
+	private static final String ATTRVALUE_SYNCHRONISATION_CONSERVATIVE = "conservative";
+	private static final String ATTRVALUE_SYNCHRONISATION_OPTIMISTIC = "optimistic";
+	private static final String ATTRVALUE_TRACE_OVERFLOW_BLOCK = "block";
+	private static final String ATTRVALUE_TRACE_OVERFLOW_DROP = "drop";
+
+	private static final String OPTION_RESUME = "-resume";
+	private static final String OPTION_WARMSTART = "-warmstart";
 
 	private static final int DEFAULT_INSTANCES = 1;
 	private static final float DEFAULT_DROP = 0;
 
-	private static PrintStream traceFile;
-
 	public static void main(String[] args) throws InterruptedException
 	{
 		System.out.println("\n" + APPLICATION_NAME + " " + VERSION);
 		System.out.println("Copyright (C) Andrew Ferrier 2002, 2012.");
 		System.out.println("See the file LICENCE for licencing information\n");
       
-		if (args.length != 2)
+		boolean resume = false, warmStart = false;
+		int firstInput = 0;
+
+		for(; firstInput < args.length && args[firstInput].startsWith("-"); firstInput++)
+		{
+			if(args[firstInput].equals(OPTION_RESUME))
+				resume = true;
+			else if(args[firstInput].equals(OPTION_WARMSTART))
+				warmStart = true;
+			else
+			{
+				error("Unknown option " + args[firstInput] + ".");
+				return;
+			}
+		}
+
+		if (args.length - firstInput < 2 || (resume && warmStart))
 		{
 			error("You have entered the wrong number of arguments.");
 			
 			System.out.println("Usage: ");
-			System.out.println(" ...websim XMLInputSpec.xml XMLSchema.xsd");
+			System.out.println(" ...websim [" + OPTION_RESUME + " | " + OPTION_WARMSTART + "] XMLInputSpec.xml [XMLInputSpec.xml ...] XMLSchema.xsd");
 
 			return;
 		}
 
-		File inputFile = new File(args[0]);
-		File schemaFile = new File(args[1]);
+		File schemaFile = new File(args[args.length - 1]);
   			
 		System.out.println("Initializing system.");
 
@@ -183,65 +248,219 @@ public class WebSim
 			dbf.setValidating(false);
 		}
 
+		List systems = new ArrayList();
+		List replicationSets = new ArrayList();
+
 		try
 		{
 			DocumentBuilder db = dbf.newDocumentBuilder();
-			db.setErrorHandler(XMLErrorHandler.getXMLErrorHandler());
 
 			diagnostics(dbf, db);
 
-			Document d = parseFile(inputFile, db);
-
-			if(!(XMLErrorHandler.getXMLErrorHandler().abortParse() || d == null))
+			for(int i = firstInput; i < args.length - 1; i++)
 			{
-				System.out.println();
-									
-				SimulationSystem[] systems = parseDocument(d, inputFile);
-		
-				for(int i = 0; i < systems.length; i++)
+				File inputFile = new File(args[i]);
+				XMLErrorHandler errorHandler = new XMLErrorHandler();
+
+				db.setErrorHandler(errorHandler);
+
+				Document d = parseFile(inputFile, db);
+
+				if(!(errorHandler.abortParse() || d == null))
 				{
-					try
-					{
-						System.out.println("Running simulation '" + systems[i].toString() + "' for " + formatDouble(systems[i].getRuntime()) + " virtual seconds.");
-						systems[i].run();
-	
-						System.out.println("\nFinal Information:\n");
-						systems[i].printFinalInformation();
-					}
-					catch(Exception e)
-					{
-						SimProcess.killAll();
-						e.printStackTrace();
-					}
+					System.out.println();
+
+					SimulationSystem[] parsed = parseDocument(d, inputFile, resume);
+
+					if(parsed.length > 1)
+						replicationSets.add(parsed);
+					else
+						systems.addAll(Arrays.asList(parsed));
 				}
 			}
 		}
 		catch(ParserConfigurationException pce)
 		{
 			error("Cannot create XML document parser.");
+			return;
 		}
+
+		if(warmStart && systems.size() > 1)
+			systems = warmStart(systems);
+
+		if(systems.size() == 1)
+			runSystem((SimulationSystem) systems.get(0), System.out);
+		else if(systems.size() > 1)
+			runSystems(systems);
+
+		for(int i = 0; i < replicationSets.size(); i++)
+			runReplications((SimulationSystem[]) replicationSets.get(i));
 	}
 
-	private static void diagnostics(DocumentBuilderFactory dbf, DocumentBuilder db)
+	/**
+	 * Run a simulation system, and print its final information.
+	 *
+	 * @param out the stream to print the final information to.
+	 */
+
+	private static void runSystem(SimulationSystem system, PrintStream out)
+	{
+		try
+		{
+			System.out.println("Running simulation '" + system.toString() + "' for " + formatDouble(system.getRuntime()) + " virtual seconds.");
+			system.run();
+
+			out.println("\nFinal Information:\n");
+			system.printFinalInformation(out);
+		}
+		catch(Exception e)
+		{
+			system.killAll();
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Execute the first system until it resets its statistics, and warm
+	 * start the others from there. A system which cannot be warm started
+	 * is left out, with an error.
+	 *
+	 * @return the systems which are ready to run.
+	 */
+
+	private static List warmStart(List systems) throws InterruptedException
+	{
+		SimulationSystem first = (SimulationSystem) systems.get(0);
+		byte[] snapshot;
+
+		try
+		{
+			if(first.getResetTime() > 0)
+				System.out.println("Warming up simulation '" + first + "' until virtual time " + formatDouble(first.getResetTime()) + ".");
+			else
+				System.out.println("Warming up simulation '" + first + "' until the end of its warm-up period is found.");
+
+			snapshot = first.warmUp();
+		}
+		catch(IllegalStateException ise)
+		{
+			warning(ise.getMessage() + " Every system will be run from the start.");
+			return systems;
+		}
+		catch(IOException ioe)
+		{
+			warning("Could not take a snapshot of simulation '" + first + "': " + ioe.getMessage() + " Every system will be run from the start.");
+			return systems;
+		}
+
+		List started = new ArrayList();
+		started.add(first);
+
+		for(int i = 1; i < systems.size(); i++)
+		{
+			SimulationSystem system = (SimulationSystem) systems.get(i);
+
+			try
+			{
+				system.warmStart(snapshot);
+				started.add(system);
+			}
+			catch(IllegalStateException ise)
+			{
+				system.error("Could not warm start simulation '" + system + "': " + ise.getMessage());
+			}
+			catch(IOException ioe)
+			{
+				system.error("Could not warm start simulation '" + system + "': " + ioe.getMessage());
+			}
+		}
+
+		return started;
+	}
+
+	/**
+	 * Run the replications of a simulation system, and print a summary
+	 * of their results.
+	 */
+
+	private static void runReplications(SimulationSystem[] systems)
 	{
-		if(isSystemSetupTrace())
+		Replications replications = new Replications(systems);
+
+		try
 		{
-			System.out.println("DocumentBuilderFactory is ignoring comments: " +
-				dbf.isIgnoringComments());
-			System.out.println("DocumentBuilderFactory is ignoring element content whitespace: " +
-				dbf.isIgnoringElementContentWhitespace());
-			System.out.println("DocumentBuilder is namespace aware: " +
-				db.isNamespaceAware());
-			System.out.println("DocumentBuilder is validating: " +
-				db.isValidating());
+			System.out.println("Running " + systems.length + " replications of simulation '" + systems[0].toString() + "' for " + formatDouble(systems[0].getRuntime()) + " virtual seconds.");
+			replications.run();
 
-			DOMImplementation implementation = db.getDOMImplementation();
+			System.out.println("\nFinal Information:\n");
+			replications.printSummary(System.out);
+		}
+		catch(Exception e)
+		{
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Run several simulation systems at the same time, one per
+	 * processor. The final information for each is printed, in order,
+	 * once they have all finished.
+	 */
+
+	private static void runSystems(List systems) throws InterruptedException
+	{
+		int threads = Math.min(systems.size(), Runtime.getRuntime().availableProcessors());
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		List results = new ArrayList();
+
+		for(int i = 0; i < systems.size(); i++)
+		{
+			final SimulationSystem system = (SimulationSystem) systems.get(i);
+
+			results.add(executor.submit(new Callable()
+			{
+				public Object call()
+				{
+					ByteArrayOutputStream finalInformation = new ByteArrayOutputStream();
+					runSystem(system, new PrintStream(finalInformation));
+					return finalInformation.toString();
+				}
+			}));
+		}
+
+		executor.shutdown();
+
+		for(int i = 0; i < results.size(); i++)
+		{
+			try
+			{
+				System.out.println("\nSimulation '" + systems.get(i) + "':");
+				System.out.print(((Future) results.get(i)).get());
+			}
+			catch(ExecutionException ee)
+			{
+				ee.getCause().printStackTrace();
+			}
+		}
+	}
+
+	private static void diagnostics(DocumentBuilderFactory dbf, DocumentBuilder db)
+	{
+		System.out.println("DocumentBuilderFactory is ignoring comments: " +
+			dbf.isIgnoringComments());
+		System.out.println("DocumentBuilderFactory is ignoring element content whitespace: " +
+			dbf.isIgnoringElementContentWhitespace());
+		System.out.println("DocumentBuilder is namespace aware: " +
+			db.isNamespaceAware());
+		System.out.println("DocumentBuilder is validating: " +
+			db.isValidating());
+
+		DOMImplementation implementation = db.getDOMImplementation();
 	
-			final String[] features = {"Core", "XML", "Traversal"};
+		final String[] features = {"Core", "XML", "Traversal"};
 			
-			for(int i = 0; i < features.length; i++)
-				System.out.println("DOMImplementation supports '" + features[i] + "': " + implementation.hasFeature(features[i], "2.0"));
-		}
+		for(int i = 0; i < features.length; i++)
+			System.out.println("DOMImplementation supports '" + features[i] + "': " + implementation.hasFeature(features[i], "2.0"));
 	}
 
 	/**
@@ -274,26 +493,49 @@ public class WebSim
 
 	/**
 	 * Parse a whole document. Only supports parsing for one simulation system
-	 * currently: more might be supported later, though this in unlikely
-	 * because it would require widescale changes to the `static' objects
-	 * throughout the program.
+	 * per document currently: several documents can be given instead.
+	 * If the system has more than one replication, one SimulationSystem
+	 * is created for each, with its own seed and output files.
 	 *
+	 * @param resume whether to resume each system from its snapshot.
 	 * @return an array of SimulationSystem objects.
 	 */
 
-	private static SimulationSystem[] parseDocument(Document d, File outputPath)
+	private static SimulationSystem[] parseDocument(Document d, File outputPath, boolean resume)
 	{
 		NodeList systems = d.getElementsByTagName(TAG_SYSTEM);
-		return new SimulationSystem[] { parseSystem((Element) systems.item(0), outputPath) };
+		Element system = (Element) systems.item(0);
+		int replications = Integer.parseInt(system.getAttribute(ATTRIBUTE_REPLICATIONS));
+
+		if(replications == 1)
+		{
+			SimulationSystem simulationSystem = parseSystem(system, outputPath, "", PSim.DEFAULT_SEED, resume);
+			return (simulationSystem == null) ? new SimulationSystem[0] : new SimulationSystem[] { simulationSystem };
+		}
+
+		SimulationSystem[] simulationSystems = new SimulationSystem[replications];
+
+		for(int i = 0; i < replications; i++)
+		{
+			simulationSystems[i] = parseSystem(system, outputPath, "_r" + i, Replications.seed(i), resume);
+
+			if(simulationSystems[i] == null)
+				return new SimulationSystem[0];
+		}
+
+		return simulationSystems;
 	}
 
 	/*
 	 * Parse a single system.
 	 *
+	 * @param fileSuffix added to the names of the output files.
+	 * @param seed the seed for the system's random number stream.
+	 * @param resume whether to resume the system from its snapshot.
 	 * @return a single SimulationSystem object.
 	 */
 
-	private static SimulationSystem parseSystem(Element system, File outputPath)
+	private static SimulationSystem parseSystem(Element system, File outputPath, String fileSuffix, long seed, boolean resume)
 	{
         String name = ((Element) system.getElementsByTagName(TAG_NAME).item(0)).getFirstChild().getNodeValue();
 		String runtime = ((Element) system.getElementsByTagName(TAG_RUNTIME).item(0)).getFirstChild().getNodeValue();
@@ -303,16 +545,20 @@ public class WebSim
 		String dataDumpPeriod = system.getAttribute(ATTRIBUTE_DATADUMPPERIOD);
 		double dataDumpPeriodD = new Double(dataDumpPeriod).doubleValue();
 		String traceL = system.getAttribute(ATTRIBUTE_TRACELEVEL);
-		traceLevel = new Integer(traceL).intValue();
+		int traceLevel = Integer.parseInt(traceL);
 		String resetTime = system.getAttribute(ATTRIBUTE_RESETTIME);
-		double resetTimeD = new Double(resetTime).doubleValue();
+		boolean detectWarmUp = resetTime.equals(ATTRVALUE_RESETTIME_AUTO);
+		double resetTimeD = detectWarmUp ? -1 : Double.parseDouble(resetTime);
+		double progressInterval = Double.parseDouble(system.getAttribute(ATTRIBUTE_PROGRESS_INTERVAL));
+		double snapshotInterval = Double.parseDouble(system.getAttribute(ATTRIBUTE_SNAPSHOT_INTERVAL));
+		double stoppingPrecision = Double.parseDouble(system.getAttribute(ATTRIBUTE_STOPPING_PRECISION));
 
 		File traceFileF, dumpFileF = null;
-		PrintStream dataDumpStream;
+		PrintStream traceFile, dataDumpStream;
 
 		try
 		{
-			traceFileF = new File(outputPath.getParentFile(), name + "_trace.txt");
+			traceFileF = new File(outputPath.getParentFile(), name + fileSuffix + "_trace.txt");
 			traceFile = new PrintStream(new BufferedOutputStream(new FileOutputStream(traceFileF)));
         }
 		catch(FileNotFoundException fnfe)
@@ -321,7 +567,40 @@ public class WebSim
 			return null;
 		}
 
-        List processObjects = new LinkedList();
+		SimulationSystem simulationSystem = new SimulationSystem(name, runtimeDouble, defaultTTLInt, resetTimeD, traceLevel, traceFile, seed);
+		simulationSystem.setProgressInterval(progressInterval);
+
+		int traceBuffer = Integer.parseInt(system.getAttribute(ATTRIBUTE_TRACE_BUFFER));
+
+		if(traceBuffer > 0 && traceLevel >= TRACE_MOST)
+		{
+			simulationSystem.setTraceBuffer(traceBuffer, parseTraceOverflow(simulationSystem, system.getAttribute(ATTRIBUTE_TRACE_OVERFLOW)));
+			simulationSystem.systemStatusTrace("Writing the trace in the background, from a buffer of " + traceBuffer + " records.");
+		}
+
+		// The execution mode must be set before any processes
+		// are created.
+
+		try
+		{
+			simulationSystem.setExecutionMode(parseExecutionMode(simulationSystem, system.getAttribute(ATTRIBUTE_EXECUTION)));
+		}
+		catch(UnsupportedOperationException uoe)
+		{
+			simulationSystem.warning(uoe.getMessage() + " Using " + ATTRVALUE_EXECUTION_THREADED + " execution.");
+			simulationSystem.setExecutionMode(PSim.EXECUTION_THREADED);
+		}
+
+		if(!simulationSystem.isEventDriven())
+			simulationSystem.setHandoff(parseHandoff(simulationSystem, system.getAttribute(ATTRIBUTE_HANDOFF)));
+
+		// So must the percentiles, since each object has its own
+		// estimator.
+
+		simulationSystem.setPercentiles(parsePercentiles(system.getAttribute(ATTRIBUTE_PERCENTILES)),
+			parsePercentileEstimator(simulationSystem, system.getAttribute(ATTRIBUTE_PERCENTILE_ESTIMATOR)));
+
+        List systemObjectElements = new ArrayList();
 		NodeList systemObjects = system.getChildNodes();
 
 		for(int j = 0; j < systemObjects.getLength(); j++)
@@ -335,30 +614,176 @@ public class WebSim
 
 			if(nodeName.equals(TAG_CLIENT) || nodeName.equals(TAG_SERVER)
 				|| nodeName.equals(TAG_NETWORKNODE))
-				processObjects.addAll(parseSystemObject((Element) systemObject));
+				systemObjectElements.add(systemObject);
+		}
+
+		int partitions = Integer.parseInt(system.getAttribute(ATTRIBUTE_PARTITIONS));
+
+		if(partitions > 1)
+		{
+			if(simulationSystem.isEventDriven())
+			{
+				simulationSystem.systemStatusTrace("Executing the system in " + partitions + " partitions.");
+
+				int synchronisation = parseSynchronisation(simulationSystem, system.getAttribute(ATTRIBUTE_SYNCHRONISATION));
+
+				if(synchronisation == SimulationSystem.SYNCHRONISATION_OPTIMISTIC && traceLevel >= TRACE_MOST)
+					simulationSystem.warning("The trace of a system which is executed optimistically includes events which were later rolled back.");
+
+				simulationSystem.setPartitions(partitions, synchronisation);
+				assignPartitions(simulationSystem, systemObjectElements);
+			}
+			else
+				simulationSystem.warning("Only a system with " + ATTRVALUE_EXECUTION_EVENT + " execution can be divided into partitions. It will be executed as one.");
 		}
 
+        List processObjects = new LinkedList();
+
+		for(int j = 0; j < systemObjectElements.size(); j++)
+			processObjects.addAll(parseSystemObject(simulationSystem, (Element) systemObjectElements.get(j)));
+
 		RouteableSystemObject[] rso = (RouteableSystemObject[]) processObjects.toArray(new RouteableSystemObject[0]);
+		EventQueue eventQueue = parseEventQueue(simulationSystem, system.getAttribute(ATTRIBUTE_EVENTQUEUE));
         		
 		try
 		{
-			dumpFileF = new File(outputPath.getParentFile(), name + "_dump.csv");
+			dumpFileF = new File(outputPath.getParentFile(), name + fileSuffix + "_dump.csv");
 			dataDumpStream = new PrintStream(new BufferedOutputStream(new FileOutputStream(dumpFileF)));
         }
 		catch(FileNotFoundException fnfe)
 		{
-			error("Could not create dump file.");
+			simulationSystem.error("Could not create dump file.");
 			return null;
 		}
 
-		DataDump dataDump = new DataDump(dataDumpPeriodD, dataDumpStream, rso);
+		DataDump dataDump = new DataDump(simulationSystem, dataDumpPeriodD, dataDumpStream, rso);
+
+		simulationSystem.traceObjectCreation("Simulation system ", name, " created with maximum runtime " + runtimeDouble + ".");
+
+		simulationSystem.systemStatusTrace("Outputting to data dump file " + dumpFileF + " every " + dataDumpPeriodD + " virtual seconds.");
+		simulationSystem.systemStatusTrace("Outputting to trace file " + traceFileF);
+
+		simulationSystem.systemStatusTrace("Using event queue " + eventQueue.getClass().getName());
+
+		simulationSystem.setEventQueue(eventQueue);
+		simulationSystem.setSystemObjects(rso, dataDump);
+
+		if(simulationSystem.getPartitionCount() > 1)
+		{
+			simulationSystem.warning("The data dump file is not written for a system which is divided into partitions.");
+
+			for(int i = 0; i < simulationSystem.getPartitionCount(); i++)
+				simulationSystem.getPartition(i).setEventQueue(parseEventQueue(simulationSystem, system.getAttribute(ATTRIBUTE_EVENTQUEUE)));
+		}
+
+		// The warm-up detector and the stopping rule are part of the
+		// state in a snapshot, so they must be set before the system
+		// is resumed.
+
+		if(detectWarmUp)
+		{
+			if(simulationSystem.getPartitionCount() > 1)
+				simulationSystem.warning("Only a system which is not divided into partitions can detect its warm-up period. Its statistics will not be reset.");
+			else
+			{
+				simulationSystem.setWarmUpDetection(Double.parseDouble(system.getAttribute(ATTRIBUTE_WARM_UP_INTERVAL)));
+				simulationSystem.systemStatusTrace("Resetting statistics once the warm-up period is found by MSER-5.");
+			}
+		}
+
+		if(stoppingPrecision > 0)
+		{
+			if(simulationSystem.getPartitionCount() > 1)
+				simulationSystem.warning("Only a system which is not divided into partitions can be stopped early. It will run until its run time.");
+			else
+			{
+				double stoppingConfidence = Double.parseDouble(system.getAttribute(ATTRIBUTE_STOPPING_CONFIDENCE));
+				simulationSystem.setStoppingRule(stoppingPrecision, stoppingConfidence, Double.parseDouble(system.getAttribute(ATTRIBUTE_BATCH_LENGTH)));
+				simulationSystem.systemStatusTrace("Stopping once every " + formatDouble(stoppingConfidence * 100) + "% confidence interval is within " + formatDouble(stoppingPrecision * 100) + "% of its mean.");
+			}
+		}
+
+		if(snapshotInterval > 0 || resume)
+		{
+			File snapshotFileF = new File(outputPath.getParentFile(), name + fileSuffix + "_snapshot.gz");
+
+			if(!simulationSystem.isEventDriven() || simulationSystem.getPartitionCount() > 1)
+				simulationSystem.warning("Only a system with " + ATTRVALUE_EXECUTION_EVENT + " execution which is not divided into partitions can write or resume from snapshots.");
+			else
+			{
+				if(snapshotInterval > 0)
+				{
+					simulationSystem.setSnapshot(snapshotFileF, snapshotInterval);
+					simulationSystem.systemStatusTrace("Writing a snapshot to " + snapshotFileF + " every " + snapshotInterval + " real seconds.");
+				}
+
+				if(resume && snapshotFileF.exists())
+				{
+					try
+					{
+						simulationSystem.resume(snapshotFileF);
+						System.out.println("Resuming simulation '" + name + fileSuffix + "' from virtual time " + formatDouble(simulationSystem.now()) + "s.");
+					}
+					catch(IOException ioe)
+					{
+						simulationSystem.error("Could not resume from snapshot " + snapshotFileF + ": " + ioe.getMessage());
+						return null;
+					}
+				}
+				else if(resume)
+					simulationSystem.warning("There is no snapshot " + snapshotFileF + ". The system will be run from the start.");
+			}
+		}
+
+		return simulationSystem;
+	}
+
+	/**
+	 * Assign every instance of each system object to a partition. An
+	 * object can be given a partition explicitly. The others are divided
+	 * into equal blocks in the order in which they are declared, since
+	 * objects which are declared together are usually connected together.
+	 *
+	 * @param systemObjects the elements for the system objects.
+	 */
+
+	private static void assignPartitions(SimulationSystem system, List systemObjects)
+	{
+		int partitions = system.getPartitionCount();
+		int total = 0;
+
+		for(int i = 0; i < systemObjects.size(); i++)
+			total += Integer.parseInt(((Element) systemObjects.get(i)).getAttribute(ATTRIBUTE_INSTANCES));
+
+		int index = 0;
+
+		for(int i = 0; i < systemObjects.size(); i++)
+		{
+			Element systemObject = (Element) systemObjects.get(i);
+			String name = ((Element) systemObject.getElementsByTagName(TAG_NAME).item(0)).getFirstChild().getNodeValue();
+			int instances = Integer.parseInt(systemObject.getAttribute(ATTRIBUTE_INSTANCES));
+			String partition = systemObject.getAttribute(ATTRIBUTE_PARTITION);
+
+			for(int j = 0; j < instances; j++, index++)
+			{
+				SystemObjectID soid = new SystemObjectID(name, j);
 
-		traceObjectCreation("Simulation system ", name, " created with maximum runtime " + runtimeDouble + ".");
+				if(partition.equals(""))
+					system.assignPartition(soid, (int) ((long) index * partitions / total));
+				else
+				{
+					int p = Integer.parseInt(partition);
 
-		systemStatusTrace("Outputting to data dump file " + dumpFileF + " every " + dataDumpPeriodD + " virtual seconds.");
-		systemStatusTrace("Outputting to trace file " + traceFileF);
+					if(p >= partitions)
+					{
+						system.warning(soid + ": There are only " + partitions + " partitions. Using partition " + (p % partitions) + ".");
+						p %= partitions;
+					}
 
-		return new SimulationSystem(name, rso, runtimeDouble, defaultTTLInt, dataDump, resetTimeD);
+					system.assignPartition(soid, p);
+				}
+			}
+		}
 	}
 
 	/**
@@ -368,7 +793,7 @@ public class WebSim
 	 * of the object.
 	 */
 
-	private static List parseSystemObject(Element systemObject)
+	private static List parseSystemObject(SimulationSystem system, Element systemObject)
 	{
 		String nodeName = systemObject.getNodeName();
 
@@ -380,12 +805,12 @@ public class WebSim
 		List systemObjects = new LinkedList();
 
 		for (int i = 0; i < instances; i++)
-			systemObjects.add(parseSingleSystemObject(systemObject, nodeName, new SystemObjectID(name, i, instances), children, instances));
+			systemObjects.add(parseSingleSystemObject(system, systemObject, nodeName, new SystemObjectID(name, i), children, instances));
 
 		return systemObjects;
 	}
 	
-	private static RouteableSystemObject parseSingleSystemObject(Element systemObject, String nodeName, SystemObjectID soid, NodeList children, int instances)
+	private static RouteableSystemObject parseSingleSystemObject(SimulationSystem system, Element systemObject, String nodeName, SystemObjectID soid, NodeList children, int instances)
 	{
 		DistributionSampler distribution = null;
 		List connections = new LinkedList();
@@ -404,11 +829,11 @@ public class WebSim
 			String childNodeName = childElement.getNodeName();
 
 			if (childNodeName.equals(TAG_CONNECTTO))
-				connections.add(parseConnection(soid, childElement));
+				connections.add(parseConnection(system, soid, childElement));
 			else if (childNodeName.equals(TAG_ROUTETO))
-				routes.add(parseRoute(soid, childElement));
+				routes.add(parseRoute(system, soid, childElement));
 			else if (childNodeName.equals(TAG_DEST_POSSIBILITY))
-				destinations.add(parseDestination(soid, childElement));
+				destinations.add(parseDestination(system, soid, childElement));
 			else if (childNodeName.equals(TAG_QUEUE_LENGTH))
 			{
 				String queueLen = childElement.getFirstChild().getNodeValue();
@@ -426,28 +851,28 @@ public class WebSim
 
 		if(nodeName.equals(TAG_CLIENT))
 		{
-			distribution = parseDistributionSampler((Element) systemObject.getElementsByTagName(TAG_CREATION_DISTRIBUTION).item(0).getFirstChild());
+			distribution = parseDistributionSampler(system, (Element) systemObject.getElementsByTagName(TAG_CREATION_DISTRIBUTION).item(0).getFirstChild(), system.simulationFor(soid).getRandom());
 
-			traceObjectCreation("Client", soid, "Created.");
-			return new Client(soid, distribution, connectionsArray, routesArray, destinationsArray);
+			system.traceObjectCreation("Client", soid, "Created.");
+			return new Client(system, soid, distribution, connectionsArray, routesArray, destinationsArray);
 		}
 		else if(nodeName.equals(TAG_SERVER))
 		{
-			distribution = parseDistributionSampler((Element) systemObject.getElementsByTagName(TAG_SERVICE_TIME_DISTRIBUTION).item(0).getFirstChild());
+			distribution = parseDistributionSampler(system, (Element) systemObject.getElementsByTagName(TAG_SERVICE_TIME_DISTRIBUTION).item(0).getFirstChild(), system.simulationFor(soid).getRandom());
 
 			int threads = new Integer(systemObject.getAttribute(ATTRIBUTE_THREADS)).intValue();
 			int processors = new Integer(systemObject.getAttribute(ATTRIBUTE_PROCESSORS)).intValue();
 			double threadGrain = new Double(systemObject.getAttribute(ATTRIBUTE_THREAD_GRAIN)).doubleValue();
 
 			if (processors > threads)
-				warning(soid + ": There are more processors defined than threads. Harmless, but pointless.");
+				system.warning(soid + ": There are more processors defined than threads. Harmless, but pointless.");
 
-			traceObjectCreation("Server", soid, "Created.");
-			return new Server(soid, distribution, connectionsArray, routesArray, threads, queueLength, processors, threadGrain);
+			system.traceObjectCreation("Server", soid, "Created.");
+			return new Server(system, soid, distribution, connectionsArray, routesArray, threads, queueLength, processors, threadGrain);
 		}
 		else if(nodeName.equals(TAG_NETWORKNODE))
 		{
-			distribution = parseDistributionSampler((Element) systemObject.getElementsByTagName(TAG_SERVICE_TIME_DISTRIBUTION).item(0).getFirstChild());
+			distribution = parseDistributionSampler(system, (Element) systemObject.getElementsByTagName(TAG_SERVICE_TIME_DISTRIBUTION).item(0).getFirstChild(), system.simulationFor(soid).getRandom());
 
             NodeList dropList = systemObject.getElementsByTagName(TAG_DROP);
 
@@ -455,22 +880,153 @@ public class WebSim
 				new Float(((Element) dropList.item(0)).getFirstChild().getNodeValue()).floatValue() :
 				DEFAULT_DROP;
 
-			traceObjectCreation("Network Node", soid, "Created.");
-			return new NetworkNode(soid, distribution, connectionsArray, routesArray, drop, queueLength);
+			system.traceObjectCreation("Network Node", soid, "Created.");
+			return new NetworkNode(system, soid, distribution, connectionsArray, routesArray, drop, queueLength);
 		}
 		else return null;
 	}
 
-    private static Connection parseConnection(SystemObjectID fromSOID, Element node)
+	private static int parseSynchronisation(SimulationSystem system, String synchronisation)
+	{
+		if(synchronisation.equals(ATTRVALUE_SYNCHRONISATION_OPTIMISTIC))
+		{
+			system.systemStatusTrace("Executing the partitions optimistically.");
+			return SimulationSystem.SYNCHRONISATION_OPTIMISTIC;
+		}
+		else if(synchronisation.equals(ATTRVALUE_SYNCHRONISATION_CONSERVATIVE) || synchronisation.equals(""))
+		{
+			return SimulationSystem.SYNCHRONISATION_CONSERVATIVE;
+		}
+		else
+		{
+			system.warning("Unsupported synchronisation: " + synchronisation + ". Using " + ATTRVALUE_SYNCHRONISATION_CONSERVATIVE + ".");
+			return SimulationSystem.SYNCHRONISATION_CONSERVATIVE;
+		}
+	}
+
+	private static int parseTraceOverflow(SimulationSystem system, String overflow)
+	{
+		if(overflow.equals(ATTRVALUE_TRACE_OVERFLOW_DROP))
+		{
+			system.systemStatusTrace("Dropping trace records when the trace buffer is full.");
+			return SimulationSystem.TRACE_OVERFLOW_DROP;
+		}
+		else if(overflow.equals(ATTRVALUE_TRACE_OVERFLOW_BLOCK) || overflow.equals(""))
+		{
+			return SimulationSystem.TRACE_OVERFLOW_BLOCK;
+		}
+		else
+		{
+			system.warning("Unsupported trace overflow: " + overflow + ". Using " + ATTRVALUE_TRACE_OVERFLOW_BLOCK + ".");
+			return SimulationSystem.TRACE_OVERFLOW_BLOCK;
+		}
+	}
+
+	private static int parseHandoff(SimulationSystem system, String handoff)
+	{
+		if(handoff.equals(ATTRVALUE_HANDOFF_PARK))
+		{
+			system.systemStatusTrace("Handing off between threads by parking them.");
+			return PSim.HANDOFF_PARK;
+		}
+		else if(handoff.equals(ATTRVALUE_HANDOFF_SPIN))
+		{
+			system.systemStatusTrace("Handing off between threads by spinning, then parking them.");
+			return PSim.HANDOFF_SPIN;
+		}
+		else if(handoff.equals(ATTRVALUE_HANDOFF_MONITOR) || handoff.equals(""))
+		{
+			return PSim.HANDOFF_MONITOR;
+		}
+		else
+		{
+			system.warning("Unsupported handoff: " + handoff + ". Using " + ATTRVALUE_HANDOFF_MONITOR + ".");
+			return PSim.HANDOFF_MONITOR;
+		}
+	}
+
+	private static int parseExecutionMode(SimulationSystem system, String execution)
+	{
+		if(execution.equals(ATTRVALUE_EXECUTION_EVENT))
+		{
+			system.systemStatusTrace("Using event-driven execution.");
+			return PSim.EXECUTION_EVENT_DRIVEN;
+		}
+		else if(execution.equals(ATTRVALUE_EXECUTION_VIRTUAL))
+		{
+			system.systemStatusTrace("Using threaded execution, with virtual threads.");
+			return PSim.EXECUTION_VIRTUAL_THREADED;
+		}
+		else if(execution.equals(ATTRVALUE_EXECUTION_THREADED) || execution.equals(""))
+		{
+			system.systemStatusTrace("Using threaded execution.");
+			return PSim.EXECUTION_THREADED;
+		}
+		else
+		{
+			system.warning("Unsupported execution mode: " + execution + ". Using " + ATTRVALUE_EXECUTION_THREADED + ".");
+			return PSim.EXECUTION_THREADED;
+		}
+	}
+
+	private static double[] parsePercentiles(String percentiles)
+	{
+		StringTokenizer st = new StringTokenizer(percentiles);
+
+		if(!st.hasMoreTokens())
+			return SimulationSystem.DEFAULT_PERCENTILES;
+
+		double[] p = new double[st.countTokens()];
+
+		for(int i = 0; i < p.length; i++)
+			p[i] = Double.parseDouble(st.nextToken());
+
+		return p;
+	}
+
+	private static int parsePercentileEstimator(SimulationSystem system, String estimator)
+	{
+		if(estimator.equals(ATTRVALUE_PERCENTILES_P_SQUARED))
+		{
+			system.systemStatusTrace("Estimating percentiles with the P-squared algorithm.");
+			return SimulationSystem.PERCENTILES_P_SQUARED;
+		}
+		else if(estimator.equals(ATTRVALUE_PERCENTILES_HISTOGRAM) || estimator.equals(""))
+		{
+			return SimulationSystem.PERCENTILES_HISTOGRAM;
+		}
+		else
+		{
+			system.warning("Unsupported percentile estimator: " + estimator + ". Using " + ATTRVALUE_PERCENTILES_HISTOGRAM + ".");
+			return SimulationSystem.PERCENTILES_HISTOGRAM;
+		}
+	}
+
+	private static EventQueue parseEventQueue(SimulationSystem system, String eventQueue)
+	{
+		if(eventQueue.equals(ATTRVALUE_EVENTQUEUE_LIST))
+			return new ListEventQueue();
+		else if(eventQueue.equals(ATTRVALUE_EVENTQUEUE_HEAP) || eventQueue.equals(""))
+			return new HeapEventQueue();
+		else if(eventQueue.equals(ATTRVALUE_EVENTQUEUE_CALENDAR))
+			return new CalendarEventQueue();
+		else
+		{
+			system.warning("Unsupported event queue type: " + eventQueue + ". Using " + ATTRVALUE_EVENTQUEUE_HEAP + ".");
+			return new HeapEventQueue();
+		}
+	}
+
+    private static Connection parseConnection(SimulationSystem system, SystemObjectID fromSOID, Element node)
 	{
         String connectToString = node.getFirstChild().getNodeValue();
 		SystemObjectID connectToSOID = new SystemObjectID(connectToString, SystemObjectID.NO_SPECIFIC_INSTANCE);
 
-		traceObjectCreation("Connection", "from " + fromSOID, "Created to object " + connectToSOID + ".");
-		return new Connection(connectToSOID);
+		system.traceObjectCreation("Connection", "from " + fromSOID, "Created to object " + connectToSOID + ".");
+		return new Connection(system, system.simulationFor(fromSOID), connectToSOID);
 	}
 
-	private static Route parseRoute(SystemObjectID routeFromSOID, Element node)
+	private static Route parseRoute(SimulationSystem system, SystemObjectID routeFromSOID, Element node)
 	{
 		String destinationString = ((Element) node.getElementsByTagName(TAG_DESTINATION).item(0)).getFirstChild().getNodeValue();
 		String routeToString = ((Element) node.getElementsByTagName(TAG_ROUTE).item(0)).getFirstChild().getNodeValue();
@@ -478,21 +1034,25 @@ public class WebSim
 		SystemObjectID destinationSOID = new SystemObjectID(destinationString, SystemObjectID.NO_SPECIFIC_INSTANCE);
 		SystemObjectID routeToSOID = new SystemObjectID(routeToString, SystemObjectID.NO_SPECIFIC_INSTANCE);
 
-		traceObjectCreation("Route", "from " + routeFromSOID, "Route to object " + destinationSOID + " via connection " + routeToSOID + ".");
+		system.traceObjectCreation("Route", "from " + routeFromSOID, "Route to object " + destinationSOID + " via connection " + routeToSOID + ".");
 		return new Route(destinationSOID, routeToSOID);
 	}
 
-	private static SystemObjectID parseDestination(SystemObjectID clientName, Element node)
+	private static SystemObjectID parseDestination(SimulationSystem system, SystemObjectID clientName, Element node)
 	{
 		String destinationString = node.getFirstChild().getNodeValue();
 
 		SystemObjectID destinationSOID = new SystemObjectID(destinationString, SystemObjectID.NO_SPECIFIC_INSTANCE);
 
-        traceObjectCreation("Potential destination", "for " + clientName, "Created as " + destinationSOID + ".");
+        system.traceObjectCreation("Potential destination", "for " + clientName, "Created as " + destinationSOID + ".");
 		return destinationSOID;
 	}
 
-	private static DistributionSampler parseDistributionSampler(Element element)
+	/**
+	 * @param random the random number stream for the sampler to use.
+	 */
+
+	private static DistributionSampler parseDistributionSampler(SimulationSystem system, Element element, doc.ajf98.util.Random random)
 	{
 		String elementName = element.getNodeName();
 
@@ -504,130 +1064,148 @@ public class WebSim
 		else if(elementName.equals(TAG_EXPONENTIAL))
 		{
 			double rate = new Double(element.getFirstChild().getNodeValue()).doubleValue();
-			return new Samplers.Exp(rate);
+			return new Samplers.Exp(rate, random);
 		}
 		else if(elementName.equals(TAG_GEOMETRIC))
 		{
 			double p = new Double(element.getFirstChild().getNodeValue()).doubleValue();
-			return new Samplers.Geometric(p);
+			return new Samplers.Geometric(p, random);
 		}
 		else if(elementName.equals(TAG_UNIFORM))
 		{
 			double lbound = new Double(((Element) element.getElementsByTagName(TAG_LBOUND).item(0)).getFirstChild().getNodeValue()).doubleValue();
 			double ubound = new Double(((Element) element.getElementsByTagName(TAG_UBOUND).item(0)).getFirstChild().getNodeValue()).doubleValue();
-			return new Samplers.Uniform(lbound, ubound);
+			return new Samplers.Uniform(lbound, ubound, random);
 		}
 		else if(elementName.equals(TAG_POSITIVENORMAL))
 		{
 			double mu = new Double(((Element) element.getElementsByTagName(TAG_MU).item(0)).getFirstChild().getNodeValue()).doubleValue();
 			double sigma = new Double(((Element) element.getElementsByTagName(TAG_SIGMA).item(0)).getFirstChild().getNodeValue()).doubleValue();
-			return new Samplers.PositiveNormal(mu, sigma);
+			return new Samplers.PositiveNormal(mu, sigma, random);
 		}
 		else if(elementName.equals(TAG_ERLANG))
 		{
             double k = new Double(((Element) element.getElementsByTagName(TAG_K).item(0)).getFirstChild().getNodeValue()).doubleValue();
 			double theta = new Double(((Element) element.getElementsByTagName(TAG_THETA).item(0)).getFirstChild().getNodeValue()).doubleValue();
-			return new Samplers.Erlang(k, theta);
+			return new Samplers.Erlang(k, theta, random);
 		}
 		else if(elementName.equals(TAG_WEIBULL))
 		{
             double alpha = new Double(((Element) element.getElementsByTagName(TAG_ALPHA).item(0)).getFirstChild().getNodeValue()).doubleValue();
 			double beta = new Double(((Element) element.getElementsByTagName(TAG_BETA).item(0)).getFirstChild().getNodeValue()).doubleValue();
-			return new Samplers.Weibull(alpha, beta);
+			return new Samplers.Weibull(alpha, beta, random);
 		}
 		else if(elementName.equals(TAG_PARETO))
 		{
             double lambda = new Double(element.getFirstChild().getNodeValue()).doubleValue();
-			return new Samplers.Pareto(lambda);
+			return new Samplers.Pareto(lambda, random);
 		}
 		else
 		{
-			error("Unsupported distribution type: " + elementName + "\n" +
+			system.error("Unsupported distribution type: " + elementName + "\n" +
 			      "The entire system object will be ignored.");
 			return null;
 		}
 	}
 
     // THE FOLLOWING ARE GENERALISED OUTPUT FUNCTIONS
+	// Output for a particular simulation system, including its trace
+	// file, is done through the SimulationSystem object.
 
-	public static void traceObjectOperation(String objectType, String objectName, String message)
+	public static void error(String errorMessage)
 	{
-		if(isTraceObjectOperation())
-			traceFile.println("@" + formatDouble(PSim.now()) + " " + objectType + " " + objectName + " : " + message);
+		System.err.println("ERROR: " + errorMessage);
 	}
 
-	public static boolean isTraceObjectOperation()
+	public static void warning(String warningMessage)
 	{
-		return traceLevel >= TRACE_MOST;
+		System.err.println("WARNING: " + warningMessage);
 	}
 
-	public static void traceObjectOperationDetailed(String objectType, String objectName, String message)
+	public static String formatDouble(double d)
 	{
-		if(traceLevel >= TRACE_ALL)
-			traceObjectOperation(objectType, objectName, message);
-	}
+        StringBuffer sb = new StringBuffer(20);
 
-	public static void traceObjectOperationDetailed(String objectType, SystemObjectID soid, String message)
-	{
-        traceObjectOperationDetailed(objectType, soid.toString(), message);
-	}
+		// DecimalFormat is not thread-safe, and systems may be
+		// running at the same time.
 
-	public static void traceObjectCreation(String objectType, String objectName, String message)
-	{
-		if(traceLevel >= TRACE_SOME)
-			traceFile.println(objectType + " " + objectName + " : " + message);
+		synchronized(df)
+		{
+			return df.format(d, sb, fp).toString().trim();
+		}
 	}
 
-	public static void traceObjectCreation(String objectType, SystemObjectID soid, String message)
+	public static String formatFloat(float f)
 	{
-		traceObjectCreation(objectType, soid.toString(), message);
+		return formatDouble((double) f);
 	}
 
-	public static void traceObjectCreationDetailed(String objectType, String objectName, String message)
-	{
-		if(traceLevel >= TRACE_MOST)
-			traceObjectCreation(objectType, objectName, message);
-	}
+	/**
+	 * @param e the estimator to read the percentiles from.
+	 * @param percentiles the percentiles to read.
+	 * @return the percentiles, in the form "50%: 0.1, 90%: 0.2, ...".
+	 */
 
-	public static void systemStatusTrace(String message)
+	public static String formatPercentiles(PercentileEstimator e, double[] percentiles)
 	{
-		if(isSystemSetupTrace())
-			System.out.println(message);
-	}
+		String s = "";
 
-	public static void systemSetupTrace(String message)
-	{
-		if(isSystemSetupTrace())
-			traceFile.println(message);
-	}
+		for(int i = 0; i < percentiles.length; i++)
+			s += (i > 0 ? ", " : "") + formatPercentile(percentiles[i]) + "%: " + formatDouble(e.percentile(percentiles[i]));
 
-	public static boolean isSystemSetupTrace()
-	{
-		return traceLevel >= TRACE_LITTLE;
+		return s;
 	}
 
-	public static void error(String errorMessage)
-	{
-		traceFile.println(errorMessage);
-		System.err.println("ERROR: " + errorMessage);
-	}
+	/**
+	 * @return the given percentiles of a distribution of levels over
+	 *	time, such as queue lengths, and the largest level.
+	 */
 
-	public static void warning(String warningMessage)
+	public static String formatPercentiles(TimeWeightedDistribution d, double[] percentiles)
 	{
-		traceFile.println(warningMessage);
-		System.err.println("WARNING: " + warningMessage);
+		String s = "";
+
+		for(int i = 0; i < percentiles.length; i++)
+		{
+			double level = d.percentile(percentiles[i]);
+			s += (i > 0 ? ", " : "") + formatPercentile(percentiles[i]) + "%: " + (Double.isNaN(level) ? "NaN" : Long.toString((long) level));
+		}
+
+		return s + ", max: " + d.max();
 	}
 
-	public static String formatDouble(double d)
+	/**
+	 * @param capacity the largest level which can be held, such as the
+	 *	size of a {@link BalkingQueue}, or
+	 *	{@link BalkingQueue#INFINITE_SIZE} if there is none.
+	 * @return the fraction of the time for which a distribution of
+	 *	levels was at least each power of ten up to the largest level
+	 *	held (or at least 1), and at least the capacity, in the form "1: 0.9, 10: 0.2,
+	 *	50 (full): 0.01".
+	 */
+
+	public static String formatProbabilitiesAtLeast(TimeWeightedDistribution d, int capacity)
 	{
-        StringBuffer sb = new StringBuffer(20);
+		String s = "";
+		long k = 1;
+
+		for(; (k == 1 || k <= d.max()) && (capacity == BalkingQueue.INFINITE_SIZE || k < capacity); k *= 10)
+			s += (k > 1 ? ", " : "") + k + ": " + formatDouble(d.probabilityAtLeast((int) k));
 
-		return df.format(d, sb, fp).toString().trim();
+		if(capacity != BalkingQueue.INFINITE_SIZE)
+			s += (k > 1 ? ", " : "") + capacity + " (full): " + formatDouble(d.probabilityAtLeast(capacity));
+
+		return s;
 	}
 
-	public static String formatFloat(float f)
+	/**
+	 * @return a percentile without a decimal point if it is whole, as
+	 *	in "99" or "99.9".
+	 */
+
+	public static String formatPercentile(double p)
 	{
-		return formatDouble((double) f);
+		return p == Math.rint(p) ? Long.toString((long) p) : Double.toString(p);
 	}
 
     /**
@@ -648,17 +1226,12 @@ public class WebSim
 	}
 
 	/**
-	 * This class uses the singleton design pattern.
+	 * A new instance of this class is used for each file parsed.
 	 */
 
 	private static class XMLErrorHandler implements org.xml.sax.ErrorHandler
 	{
-		static XMLErrorHandler getXMLErrorHandler()
-		{
-			return instance;
-		}
-
-		private XMLErrorHandler()
+		XMLErrorHandler()
 		{
 			super();
 		}
@@ -691,6 +1264,5 @@ public class WebSim
 		}
 
 		private boolean abortParse = false;
-		private static XMLErrorHandler instance = new XMLErrorHandler();
 	}
 }
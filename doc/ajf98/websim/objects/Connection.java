@@ -34,6 +34,7 @@ SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
 
 package doc.ajf98.websim.objects;
 
+import doc.ajf98.SimTools.PSim;
 import doc.ajf98.websim.*;
 import doc.ajf98.websim.exceptions.*;
 import doc.ajf98.websim.processes.abs.RouteableSystemObject;
@@ -43,10 +44,13 @@ import doc.ajf98.websim.processes.abs.RouteableSystemObject;
  * one system object to another.
  * 
  * However, the 'from' object is implicit: only the target of the
- * connection is stored within the Connection object.
+ * connection is stored within the Connection object, along with the
+ * simulation which executes it. If the target of the connection is
+ * executed by a different partition of the system, messages are sent to
+ * that partition rather than given to the target directly.
  * 
  * @author Andrew Ferrier
- * @version 1.1.1
+ * @version 1.5
  */
 
 public class Connection	implements Cloneable
@@ -54,12 +58,17 @@ public class Connection	implements Cloneable
 	/**
 	 * Create a new Connection to a SystemObject.
 	 *
+	 * @param system the simulation system which the connection is in.
+	 * @param sim the simulation which executes the object which the
+	 *	connection is from.
 	 * @param the ID of the {@link doc.ajf98.websim.processes.abs.SystemObject}
 	 * 	which the connection should link to.
 	 */
 
-	public Connection(SystemObjectID to)
+	public Connection(SimulationSystem system, PSim sim, SystemObjectID to)
 	{
+		this.system = system;
+		this.sim = sim;
         this.to = to;
 	}
 
@@ -70,15 +79,34 @@ public class Connection	implements Cloneable
 	 */
 
 	public void sendMessageVia(Message message)
+	{
+		sendMessageVia(message, message.getHops());
+	}
+
+	/**
+	 * Send a message via this connection, from a system object which
+	 * has added a hop to it.
+	 *
+	 * @param message the message to send.
+	 * @param hops the last of the hops of the message, once sent.
+	 */
+
+	public void sendMessageVia(Message message, Hop hops)
 	{
 		try
 		{
-			message.routed();
-			RouteableSystemObject.getSystemObject(to).messageIn(message);
+			message = message.routed(hops);
+
+			RouteableSystemObject target = system.getSystemObject(to, sim.getRandom());
+
+			if(target.getSimulation() == sim)
+				target.messageIn(message);
+			else
+				((Partition) sim).send((Partition) target.getSimulation(), target, message);
 		}
 		catch(MessageExpiredException mee)
 		{
-			WebSim.warning(mee.getLocalizedMessage());
+			system.warning(mee.getLocalizedMessage());
 		}
 	}
 
@@ -91,7 +119,7 @@ public class Connection	implements Cloneable
 
 	public Object clone()
 	{
-		return new Connection((SystemObjectID) to.clone());
+		return new Connection(system, sim, (SystemObjectID) to.clone());
 	}                           
 
 	public SystemObjectID getTo()
@@ -104,5 +132,7 @@ public class Connection	implements Cloneable
 		return "Connection to " + to;
 	}
 
+	private SimulationSystem system;
+	private PSim sim;
 	private SystemObjectID to;
 }
@@ -0,0 +1,106 @@
+/*
+
+Copyright (c) 2002, 2012, Andrew Ferrier. Portions based on work by, and (c) 
+Tony Field 2000, 2001. All rights reserved.
+
+Redistribution and use in source and binary forms, with or without 
+modification, are permitted provided that the following conditions are 
+met: 
+
+Redistributions of source code must retain the above copyright notice, 
+this list of conditions and the following disclaimer.
+ 
+Redistributions in binary form must reproduce the above copyright notice, 
+this list of conditions and the following disclaimer in the documentation 
+and/or other materials provided with the distribution. 
+ 
+The name(s) of the author(s) of the software may not be used to endorse or 
+promote products derived from this software without specific prior written 
+permission.
+ 
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS 
+IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, 
+THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR 
+PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR 
+CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, 
+EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, 
+PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR 
+PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF 
+LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING 
+NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS 
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+*/
+
+package doc.ajf98.websim.objects;
+
+/**
+ * A record of the time which a message spent at one system object on
+ * its way: waiting in the object's queue, and being served by it.
+ * Each hop refers to the one before, so a message carries the whole
+ * path it has taken, and a reply carries that of its request too.
+ * Like messages, hops are never changed once created, so they can be
+ * shared by the copies of a message which are made as it is routed.
+ *
+ * @author Andrew Ferrier
+ * @version 0.1
+ */
+
+public final class Hop implements java.io.Serializable
+{
+	/**
+	 * @param at the name of the system object.
+	 * @param timeInQueue the time spent waiting in its queue.
+	 * @param serviceTime the time from leaving the queue to being sent
+	 *	on.
+	 * @param previous the hop before this one, or null.
+	 */
+
+	public Hop(String at, double timeInQueue, double serviceTime, Hop previous)
+	{
+		this.at = at;
+		this.timeInQueue = timeInQueue;
+		this.serviceTime = serviceTime;
+		this.previous = previous;
+		this.count = previous == null ? 1 : previous.count + 1;
+	}
+
+	public String getAt()
+	{
+		return at;
+	}
+
+	public double getTimeInQueue()
+	{
+		return timeInQueue;
+	}
+
+	public double getServiceTime()
+	{
+		return serviceTime;
+	}
+
+	public Hop getPrevious()
+	{
+		return previous;
+	}
+
+	/**
+	 * @return the number of hops up to and including this one.
+	 */
+
+	public int count()
+	{
+		return count;
+	}
+
+	public String toString()
+	{
+		return at;
+	}
+
+	private final String at;
+	private final double timeInQueue, serviceTime;
+	private final Hop previous;
+	private final int count;
+}
@@ -40,11 +40,14 @@ import doc.ajf98.websim.exceptions.*;
  * An instance of this class represents a message in the simulation
  * system from one system object to another.
  *
+ * A message is never changed once it has been created, so that the
+ * same message can be held in several saved states.
+ *
  * @author Andrew Ferrier
- * @version 1.1.2.1
+ * @version 1.5
  */
 
-public abstract class Message
+public abstract class Message implements Cloneable, java.io.Serializable
 {
 	/**
 	 * Get a general String representation of this message.
@@ -59,16 +62,32 @@ public abstract class Message
 	 *
 	 * @param source the ID of the source system object.
 	 * @param dest the ID of the destination system object.
+	 * @param timeToLive the number of times the message can be routed.
 	 */
 
-	public Message(SystemObjectID source, SystemObjectID dest)
+	public Message(SystemObjectID source, SystemObjectID dest, int timeToLive)
+	{
+		this(source, dest, timeToLive, null);
+	}
+
+	/**
+	 * Create a new message which carries on from hops already made.
+	 *
+	 * @param hops the last of the hops, or null.
+	 */
+
+	protected Message(SystemObjectID source, SystemObjectID dest, int timeToLive, Hop hops)
 	{
 		if(source == null || dest == null)
 			throw new IllegalArgumentException("Neither source nor dest can be null.");
 
+		if(timeToLive <= 0)
+			throw new IllegalArgumentException("The time to live must be greater than zero.");
+
 		this.source = source;
 		this.dest = dest;
-		this.timeToLive = defaultTimeToLive;
+		this.timeToLive = timeToLive;
+		this.hops = hops;
 	}
 
 	/**
@@ -93,41 +112,59 @@ public abstract class Message
 		return dest;
 	}
 
+	/**
+	 * @return the last of the system objects which this message has
+	 *	passed through, or null if it has not passed through any. A
+	 *	reply carries on from the hops of its request.
+	 */
+
+	public Hop getHops()
+	{
+		return hops;
+	}
+
 	/**
 	 * Inform the message that it just been routed.
 	 *
+	 * @return a copy of this message with a time-to-live one less.
 	 * @throws MessageExpiredException if this message has expired because
 	 *  it's time-to-live has fallen below zero.
 	 */
 
-	public void routed() throws MessageExpiredException
+	public Message routed() throws MessageExpiredException
 	{
-		timeToLive--;
-
-		if(timeToLive < 0)
-			throw new MessageExpiredException(this);
-
-		if(defaultTimeToLive <= 0)
-			throw new UnsupportedOperationException("Messages cannot be routed until the default TTL has been set.");
+		return routed(hops);
 	}
 
 	/**
-	 * This method should be called to set the initial (default)
-	 * time to live for all messages. It affects messages created
-	 * from the point it is called onwards.
+	 * Inform the message that it just been routed, from a system object
+	 * which has added a hop.
 	 *
-	 * @param defaultTimeToLive the default time to live for all messages.
+	 * @param hops the last of the hops of the copy.
+	 * @return a copy of this message with a time-to-live one less.
+	 * @throws MessageExpiredException if this message has expired because
+	 *  it's time-to-live has fallen below zero.
 	 */
 
-	public static void setDefaultTimeToLive(int defaultTimeToLive)
+	public Message routed(Hop hops) throws MessageExpiredException
 	{
-		if(defaultTimeToLive <= 0)
-			throw new IllegalArgumentException("The default time to live must be greater than zero.");
+		if(timeToLive <= 0)
+			throw new MessageExpiredException(this);
 
-		Message.defaultTimeToLive = defaultTimeToLive;
+		try
+		{
+			Message m = (Message) super.clone();
+			m.timeToLive--;
+			m.hops = hops;
+			return m;
+		}
+		catch(CloneNotSupportedException cnse)
+		{
+			throw new InternalError(cnse.toString());
+		}
 	}
 
 	private SystemObjectID source, dest;
 	private int timeToLive;
-	private static int defaultTimeToLive = -1;
+	private Hop hops;
 }
@@ -40,11 +40,12 @@ public class Refusal extends Message
 	 * Create a new refusal.
 	 *
 	 * @param m the message which is being refused.
+	 * @param timeToLive the number of times the refusal can be routed.
 	 */
 
-	public Refusal(Message message)
+	public Refusal(Message message, int timeToLive)
 	{
-		super(message.getDest(), message.getSource());
+		super(message.getDest(), message.getSource(), timeToLive);
 		this.message = message;
 	}
 
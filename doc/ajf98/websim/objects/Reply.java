@@ -34,14 +34,12 @@ SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
 
 package doc.ajf98.websim.objects;
 
-import doc.ajf98.SimTools.*;
-
 /**
  * An instance of this class represents an abstraction of a reply to a request
  * in the simulation system.
  *
  * @author Andrew Ferrier
- * @version 1.1
+ * @version 1.3
  */
 
 public class Reply extends Message
@@ -50,11 +48,12 @@ public class Reply extends Message
 	 * Create a new reply.
 	 *
 	 * @param request the request that this is a reply to.
+	 * @param timeToLive the number of times the reply can be routed.
 	 */
 
-	public Reply(Request request)
+	public Reply(Request request, int timeToLive)
 	{
-		super(request.getDest(), request.getSource());
+		super(request.getDest(), request.getSource(), timeToLive, request.getHops());
 		this.request = request;
 	}
 
@@ -64,18 +63,19 @@ public class Reply extends Message
 	}
 
 	/**
-	 * Get the virtual time difference between 'now' and the
+	 * Get the virtual time difference between the time given and the
 	 * time at which the request corresponding to this reply was
 	 * made.
 	 *
-	 * @return the virtual time difference between 'now' and the
+	 * @param now the current virtual time.
+	 * @return the virtual time difference between now and the
 	 *  time at which the request corresponding to this reply was
 	 *  made.
 	 */
 
-	public double requestTimeToNow()
+	public double requestTimeTo(double now)
 	{
-		return PSim.now() - request.getRequestTime();
+		return now - request.getRequestTime();
 	}
 
 	private Request request;
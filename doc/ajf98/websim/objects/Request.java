@@ -34,13 +34,11 @@ SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
 
 package doc.ajf98.websim.objects;
 
-import doc.ajf98.SimTools.*;
-
 /**
  * An abstraction of a request for a web page in the simulation system.
  *
  * @author Andrew Ferrier
- * @version 1.1
+ * @version 1.2
  */
 
 public class Request extends Message
@@ -51,13 +49,15 @@ public class Request extends Message
 	 * @param fileName the 'filename' which is being requested.
 	 * @param source the ID of the source system object which made the request.
 	 * @param dest the ID of the destination system object which the request is being made to.
+	 * @param startTime the virtual time at which the request is made.
+	 * @param timeToLive the number of times the request can be routed.
 	 */
 
-	public Request(String fileName, SystemObjectID source, SystemObjectID dest)
+	public Request(String fileName, SystemObjectID source, SystemObjectID dest, double startTime, int timeToLive)
 	{
-		super(source, dest);
+		super(source, dest, timeToLive);
 		this.fileName = fileName;
-		this.startTime = PSim.now();
+		this.startTime = startTime;
 	}
 
 	public String toString()
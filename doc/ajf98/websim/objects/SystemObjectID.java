@@ -34,8 +34,6 @@ SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
 
 package doc.ajf98.websim.objects;
 
-import java.util.*;
-
 import doc.ajf98.websim.*;
 
 /**
@@ -45,10 +43,10 @@ import doc.ajf98.websim.*;
  * IDs.
  * 
  * @author Andrew Ferrier
- * @version 1.1.1.1
+ * @version 1.3
  */
 
-public class SystemObjectID
+public class SystemObjectID implements java.io.Serializable
 {
 	/**
 	 * The magic instance number representing no specific instance.
@@ -56,23 +54,6 @@ public class SystemObjectID
 
 	public static final int NO_SPECIFIC_INSTANCE = -1;
 
-	/**
-	 * Create a new system object ID with the specified name and
-	 * instance number. Also specify the total number of instances
-	 * for this name (will be saved in a static cache).
-	 *
-	 * @param name the name for this object ID.
-	 * @param instance the instance number for this object ID.
-	 * @param totalInstancesInt the total number of instances for this object name.
-	 */
-
-	public SystemObjectID(String name, int instance, int totalInstancesInt)
-	{
-		this.name = name;
-		this.instance = instance;
-		totalInstances.put(name, new Integer(totalInstancesInt));
-	}
-
 	/**
 	 * Create a new system object ID with the specified name and
 	 * instance number.
@@ -200,22 +181,6 @@ public class SystemObjectID
 		this.instance = instance;
 	}
 
-	/**
-	 * Get a random instance of the system object that this ID refers to.
-	 *
-	 * @return a SystemObjectID which represents a random instance (uniformly
-	 *	distributed) of the system object which this SystemObjectID refers to.
-	 */
-
-	public SystemObjectID returnRandomInstance()
-	{
-		int totalInstancesInt = ((Integer) totalInstances.get(name)).intValue();
-        return new SystemObjectID(name, random.nextInt(totalInstancesInt));
-	}
-
 	private String name;
 	private int instance;
-
-	private static final Map totalInstances = new HashMap();
-	private static final doc.ajf98.util.Random random = doc.ajf98.util.Random.getRandom();
 }
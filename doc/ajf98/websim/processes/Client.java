@@ -39,22 +39,23 @@ import java.util.*;
 import doc.ajf98.SimTools.*;
 import doc.ajf98.websim.*;
 import doc.ajf98.websim.objects.*;
-import doc.ajf98.websim.processes.abs.RouteableSystemObject;
+import doc.ajf98.websim.processes.abs.*;
 
 /**
  * Represents a client in the simulation system.
  * 
  * @author Andrew Ferrier
- * @version 0.2.2
+ * @version 0.3.9
  */
 
-public class Client extends RouteableSystemObject
+public class Client extends RouteableSystemObject implements HasResponseTime
 {
-    public Client(SystemObjectID soid, DistributionSampler interarrivalTime, Connection[] connections, Route[] routes, SystemObjectID[] destinations)
+    public Client(SimulationSystem system, SystemObjectID soid, DistributionSampler interarrivalTime, Connection[] connections, Route[] routes, SystemObjectID[] destinations)
 	{
-		super(soid, connections, routes);
+		super(system, soid, connections, routes);
 		this.interarrivalTime = interarrivalTime;
 		this.destinations = destinations;
+		this.replyPercentiles = system.newPercentileEstimator();
 		this.reset();
 	}
 
@@ -63,25 +64,41 @@ public class Client extends RouteableSystemObject
         while(true)
 		{
 			hold(interarrivalTime.next());
+			sendRequest();
+		}
+	}
 
-			SystemObjectID destination = destinations[random.nextInt(destinations.length)];
+	public void resumeProcess()
+	{
+		if(holding)
+			sendRequest();
 
-			String fileName = WebSim.isTraceObjectOperation() ? 
-				"/testFile_" + random.nextInt(FILE_RANDOM_NAME_EXCLUSIVEMAX) + ".html" :
-				"/testFile_uncalculated.html";
+		holding = true;
+		scheduleHold(interarrivalTime.next());
+	}
 
-			Request r = new Request(fileName, this.getSOID(), destination);
-			
-			WebSim.traceObjectOperation("Client", getName(), "Created " + r + ": finding route.");
+	private void sendRequest()
+	{
+		SystemObjectID destination = destinations[random.nextInt(destinations.length)];
 
-			Connection c = findRoute(r);
+		String fileName = system.isTraceObjectOperation() ? 
+			"/testFile_" + random.nextInt(FILE_RANDOM_NAME_EXCLUSIVEMAX) + ".html" :
+			"/testFile_uncalculated.html";
 
-			if (c != null)
-			{
-                WebSim.traceObjectOperation("Client", getName(), "Route found. Sending " + r + " via " + c);
-                c.sendMessageVia(r);
-				out++;
-			}
+		Request r = new Request(fileName, this.getSOID(), destination, getSimulation().now(), system.getDefaultTimeToLive());
+		
+		if(system.isTraceObjectOperation())
+			system.traceObjectOperation("Client", this, "Created " + r + ": finding route.");
+
+		Connection c = findRoute(r);
+
+		if (c != null)
+		{
+			if(system.isTraceObjectOperation())
+				system.traceObjectOperation("Client", this, "Route found. Sending " + r + " via " + c);
+
+			c.sendMessageVia(r);
+			out++;
 		}
 	}
 
@@ -91,14 +108,19 @@ public class Client extends RouteableSystemObject
 		{
 			if(m.getDest().equals(this.getSOID()))
 			{
-				WebSim.traceObjectOperation("Client", getName(), "Recieved reply " + m);
+				if(system.isTraceObjectOperation())
+					system.traceObjectOperation("Client", this, "Recieved reply " + m);
 	
 				in++;
-				replies.add(((Reply) m).requestTimeToNow());
+
+				double responseTime = ((Reply) m).requestTimeTo(getSimulation().now());
+				replies.add(responseTime);
+				replyPercentiles.add(responseTime);
+				latencies.add(m.getHops(), responseTime);
 			}
 			else
 			{                                                  
-				WebSim.warning("There is probably a routing error in your system specification.\n" +
+				system.warning("There is probably a routing error in your system specification.\n" +
 					"Client " + getName() + " has recieved a reply destined for  " + m.getDest() + "\n" +
 					"It will be ignored.");
 
@@ -107,12 +129,14 @@ public class Client extends RouteableSystemObject
 		}
 		else if(m instanceof Refusal)
 		{
-			WebSim.traceObjectOperation("Client", getName(), "Recieved refusal " + m);
+			if(system.isTraceObjectOperation())
+				system.traceObjectOperation("Client", this, "Recieved refusal " + m);
+
 			refusals++;
 		}
 		else
 		{   
-			WebSim.warning("WARNING: There is probably a routing error in your system specification.\n" +
+			system.warning("WARNING: There is probably a routing error in your system specification.\n" +
 				"Client " + getName() + " has recieved the message  " + m + "\n" +
 				"It will be ignored.");
 			
@@ -132,19 +156,89 @@ public class Client extends RouteableSystemObject
 			s += "Also recieved " + refusals + " refusals.\n";
 
 		s += "Average response time: " + WebSim.formatDouble(replies.mean()) + ", variance in response time: " + WebSim.formatDouble(replies.variance()) + "\n";
+		s += "Response time percentiles: " + WebSim.formatPercentiles(replyPercentiles, system.getPercentiles()) + "\n";
+		s += latencies.toFinalString();
 
 		return s;
 	}        
 
+	/**
+	 * A client never sends a message in response to one.
+	 */
+
+	public double getLookahead()
+	{
+		return Double.POSITIVE_INFINITY;
+	}
+
+	public double getMeanResponseTime()
+	{
+		return replies.mean();
+	}
+
+	public long getResponseCount()
+	{
+		return replies.count();
+	}
+
+	public PercentileEstimator getResponseTimePercentiles()
+	{
+		return replyPercentiles;
+	}
+
 	public void reset()
 	{
 		in = faultyIn = out = refusals = 0;
 		replies.reset();
+		replyPercentiles.reset();
+		latencies.reset();
+	}
+
+	public Object saveState()
+	{
+		State s = new State();
+		s.process = super.saveState();
+		s.holding = holding;
+		s.counts = new long[] { in, faultyIn, out, refusals };
+		s.replies = replies.saveState();
+		s.replyPercentiles = replyPercentiles.saveState();
+		s.interarrivalTime = interarrivalTime.saveState();
+		s.latencies = latencies.saveState();
+		return s;
+	}
+
+	public void restoreState(Object state)
+	{
+		State s = (State) state;
+		super.restoreState(s.process);
+		holding = s.holding;
+		in = s.counts[0];
+		faultyIn = s.counts[1];
+		out = s.counts[2];
+		refusals = s.counts[3];
+		replies.restoreState(s.replies);
+		replyPercentiles.restoreState(s.replyPercentiles);
+		interarrivalTime.restoreState(s.interarrivalTime);
+		latencies.restoreState(s.latencies);
+	}
+
+	private static class State implements java.io.Serializable
+	{
+		Object process, replies, replyPercentiles, interarrivalTime, latencies;
+		boolean holding;
+		long[] counts;
 	}
 
 	private DistributionSampler interarrivalTime;
 	private SystemObjectID[] destinations;
 
+	/**
+	 * Used in event-driven mode: true once the first hold has been
+	 * scheduled.
+	 */
+
+	private boolean holding = false;
+
 	private final static short FILE_RANDOM_NAME_EXCLUSIVEMAX = Short.MAX_VALUE;
 
 	private long in;
@@ -153,4 +247,6 @@ public class Client extends RouteableSystemObject
 	private long refusals;
 
 	private Measure replies = new Measure();
+	private PercentileEstimator replyPercentiles;
+	private LatencyBreakdown latencies = new LatencyBreakdown();
 }
@@ -37,6 +37,7 @@ package doc.ajf98.websim.processes;
 import java.io.PrintStream;
 import java.util.*;
 
+import doc.ajf98.websim.SimulationSystem;
 import doc.ajf98.websim.WebSim;
 import doc.ajf98.websim.processes.abs.*;
 import doc.ajf98.SimTools.*;
@@ -46,15 +47,52 @@ import doc.ajf98.SimTools.*;
  * from the simulation to an output stream, during execution of the simulation.
  *
  * @author Andrew Ferrier
- * @version 1.2.1
+ * @version 1.6
  */
 
 public class DataDump extends SimProcess
 {
 	protected void runProcess() throws InterruptedException
 	{
-        java.util.List printList = new ArrayList();
+		printHeader();
 
+		while(true)
+		{
+			hold(period);
+			dump();
+		}
+	}
+
+	protected void resumeProcess()
+	{
+		if(holding)
+			dump();
+		else
+			printHeader();
+
+		holding = true;
+		scheduleHold(period);
+	}
+
+	public String toString()
+	{
+		return "Data dump";
+	}
+
+	public Object saveState()
+	{
+		return new Object[] { super.saveState(), Boolean.valueOf(holding) };
+	}
+
+	public void restoreState(Object state)
+	{
+		Object[] s = (Object[]) state;
+		super.restoreState(s[0]);
+		holding = ((Boolean) s[1]).booleanValue();
+	}
+
+	private void printHeader()
+	{
 		printList.add("v-time");
 
 		for(int i = 0; i < rso.length; i++)
@@ -64,30 +102,42 @@ public class DataDump extends SimProcess
 
 			if(rso[i] instanceof HasUtilisation)
 				printList.add(rso[i].getName() + "Utilisation");
+
+			if(rso[i] instanceof HasResponseTime)
+			{
+				for(int j = 0; j < percentiles.length; j++)
+					printList.add(rso[i].getName() + "ResponseTimeP" + WebSim.formatPercentile(percentiles[j]));
+			}
 		}
 
 		printLine(out, printList);
+	}
 
-		while(true)
+	private void dump()
+	{
+        system.traceObjectOperation("DataDump", "DataDump", "Dumping");
+
+		printList.clear();
+		printList.add(system.now() + "");
+        
+		for(int i = 0; i < rso.length; i++)
 		{
-			hold(period);
+			if (rso[i] instanceof HasQueue)
+				printList.add("" + ((HasQueue) rso[i]).getQueueLength());
 
-            WebSim.traceObjectOperation("DataDump", "DataDump", "Dumping");
+			if (rso[i] instanceof HasUtilisation)
+				printList.add("" + ((HasUtilisation) rso[i]).getUtilisation());
 
-			printList.clear();
-			printList.add(PSim.now() + "");
-            
-			for(int i = 0; i < rso.length; i++)
+			if (rso[i] instanceof HasResponseTime)
 			{
-				if (rso[i] instanceof HasQueue)
-					printList.add("" + ((HasQueue) rso[i]).getQueueLength());
+				PercentileEstimator e = ((HasResponseTime) rso[i]).getResponseTimePercentiles();
 
-				if (rso[i] instanceof HasUtilisation)
-					printList.add("" + ((HasUtilisation) rso[i]).getUtilisation());
+				for(int j = 0; j < percentiles.length; j++)
+					printList.add("" + e.percentile(percentiles[j]));
 			}
-
-			printLine(out, printList);
 		}
+
+		printLine(out, printList);
 	}
 
 	private static void printLine(PrintStream out, java.util.List toPrint)
@@ -117,17 +167,21 @@ public class DataDump extends SimProcess
 	}
 
 	/**
+	 * @param system the simulation system to dump data from.
 	 * @param period period in virtual seconds.
 	 * @param out the stream to dump data to.
 	 * @param rso an array of all the RouteableSystemObjects in the simulation system.
 	 *	that should be dumped.
 	 */
 
-	public DataDump(double period, PrintStream out, RouteableSystemObject[] rso)
+	public DataDump(SimulationSystem system, double period, PrintStream out, RouteableSystemObject[] rso)
 	{
+		super(system);
+		this.system = system;
 		this.out = out;
 		this.period = period;
 		this.rso = rso;
+		this.percentiles = system.getPercentiles();
 	}
 
 	/**
@@ -140,7 +194,11 @@ public class DataDump extends SimProcess
 		out.close();
 	}
 
+	private java.util.List printList = new ArrayList();
+	private boolean holding = false;
+	private SimulationSystem system;
 	private double period;
 	private PrintStream out;
 	private RouteableSystemObject[] rso;
+	private double[] percentiles;
 }
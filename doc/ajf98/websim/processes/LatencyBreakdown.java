@@ -0,0 +1,256 @@
+/*
+
+Copyright (c) 2002, 2012, Andrew Ferrier. Portions based on work by, and (c) 
+Tony Field 2000, 2001. All rights reserved.
+
+Redistribution and use in source and binary forms, with or without 
+modification, are permitted provided that the following conditions are 
+met: 
+
+Redistributions of source code must retain the above copyright notice, 
+this list of conditions and the following disclaimer.
+ 
+Redistributions in binary form must reproduce the above copyright notice, 
+this list of conditions and the following disclaimer in the documentation 
+and/or other materials provided with the distribution. 
+ 
+The name(s) of the author(s) of the software may not be used to endorse or 
+promote products derived from this software without specific prior written 
+permission.
+ 
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS 
+IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, 
+THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR 
+PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR 
+CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, 
+EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, 
+PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR 
+PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF 
+LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING 
+NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS 
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+*/
+
+package doc.ajf98.websim.processes;
+
+import java.util.*;
+
+import doc.ajf98.SimTools.*;
+import doc.ajf98.websim.*;
+import doc.ajf98.websim.objects.*;
+
+import java.util.List;
+
+/**
+ * The latency of the replies to a client, broken down by the route which
+ * each request and its reply took, and then by the time spent waiting
+ * and being served at each system object on the route. Since messages
+ * pass between objects instantly, these times add up to the response
+ * time.
+ *
+ * Routes are found from the hops of each reply with a tree keyed by
+ * the names of the objects, so adding a reply allocates nothing unless
+ * its route is new.
+ *
+ * @author Andrew Ferrier
+ * @version 0.1
+ */
+
+class LatencyBreakdown implements Checkpointable
+{
+	void add(Hop last, double responseTime)
+	{
+		int n = last == null ? 0 : last.count();
+
+		if(path.length < n)
+			path = new Hop[Math.max(n, 2 * path.length)];
+
+		int i = n;
+
+		for(Hop h = last; h != null; h = h.getPrevious())
+			path[--i] = h;
+
+		Node node = root;
+
+		for(i = 0; i < n; i++)
+			node = node.child(path[i].getAt());
+
+		if(node.route == null)
+		{
+			String[] names = new String[n];
+
+			for(i = 0; i < n; i++)
+				names[i] = path[i].getAt();
+
+			node.route = new Route(names);
+			routes.add(node.route);
+		}
+
+		for(i = 0; i < n; i++)
+		{
+			node.route.timeInQueue[i].add(path[i].getTimeInQueue());
+			node.route.serviceTime[i].add(path[i].getServiceTime());
+		}
+
+		node.route.responseTime.add(responseTime);
+	}
+
+	public String toFinalString()
+	{
+		if(routes.isEmpty())
+			return "";
+
+		Route[] sorted = (Route[]) routes.toArray(new Route[0]);
+		Arrays.sort(sorted);
+
+		String s = "Mean time in queue + service time at each hop, by route:\n";
+
+		for(int i = 0; i < sorted.length; i++)
+			s += sorted[i].toFinalString() + "\n";
+
+		return s;
+	}
+
+	public void reset()
+	{
+		root = new Node();
+		routes.clear();
+	}
+
+	public Object saveState()
+	{
+		Object[] s = new Object[routes.size()];
+
+		for(int i = 0; i < s.length; i++)
+			s[i] = ((Route) routes.get(i)).saveState();
+
+		return s;
+	}
+
+	public void restoreState(Object state)
+	{
+		Object[] s = (Object[]) state;
+		reset();
+
+		for(int i = 0; i < s.length; i++)
+		{
+			Object[] r = (Object[]) s[i];
+			String[] names = (String[]) r[0];
+			Node node = root;
+
+			for(int j = 0; j < names.length; j++)
+				node = node.child(names[j]);
+
+			node.route = new Route(names);
+			node.route.restoreState(r);
+			routes.add(node.route);
+		}
+	}
+
+	private static class Node
+	{
+		Node child(String at)
+		{
+			Node n = (Node) children.get(at);
+
+			if(n == null)
+			{
+				n = new Node();
+				children.put(at, n);
+			}
+
+			return n;
+		}
+
+		final Map children = new HashMap(4);
+
+		/**
+		 * The route which ends here, or null if none has yet.
+		 */
+
+		Route route;
+	}
+
+	private static class Route implements Comparable
+	{
+		Route(String[] names)
+		{
+			this.names = names;
+			this.timeInQueue = new Measure[names.length];
+			this.serviceTime = new Measure[names.length];
+
+			for(int i = 0; i < names.length; i++)
+			{
+				timeInQueue[i] = new Measure();
+				serviceTime[i] = new Measure();
+			}
+
+			String key = "";
+
+			for(int i = 0; i < names.length; i++)
+				key += (i > 0 ? " > " : "") + names[i];
+
+			this.key = key;
+		}
+
+		String toFinalString()
+		{
+			String s = key + ": " + responseTime.count() + " replies, mean response time " + WebSim.formatDouble(responseTime.mean());
+
+			for(int i = 0; i < names.length; i++)
+				s += (i > 0 ? ", " : "; ") + names[i] + " " + WebSim.formatDouble(timeInQueue[i].mean()) + " + " + WebSim.formatDouble(serviceTime[i].mean());
+
+			return s;
+		}
+
+		public int compareTo(Object o)
+		{
+			return key.compareTo(((Route) o).key);
+		}
+
+		Object[] saveState()
+		{
+			Object[] queue = new Object[names.length], service = new Object[names.length];
+
+			for(int i = 0; i < names.length; i++)
+			{
+				queue[i] = timeInQueue[i].saveState();
+				service[i] = serviceTime[i].saveState();
+			}
+
+			return new Object[] { names, queue, service, responseTime.saveState() };
+		}
+
+		void restoreState(Object[] s)
+		{
+			for(int i = 0; i < names.length; i++)
+			{
+				timeInQueue[i].restoreState(((Object[]) s[1])[i]);
+				serviceTime[i].restoreState(((Object[]) s[2])[i]);
+			}
+
+			responseTime.restoreState(s[3]);
+		}
+
+		final String[] names;
+		final String key;
+		final Measure[] timeInQueue, serviceTime;
+		final Measure responseTime = new Measure();
+	}
+
+	private Node root = new Node();
+
+	/**
+	 * Every route, in the order in which they were first taken.
+	 */
+
+	private final List routes = new ArrayList();
+
+	/**
+	 * The hops of the reply being added, in order, which is kept to save
+	 * allocating it each time.
+	 */
+
+	private Hop[] path = new Hop[8];
+}
@@ -44,17 +44,21 @@ import doc.ajf98.websim.processes.abs.*;
 
 /**
  * @author Andrew Ferrier
- * @version 1.3
+ * @version 1.14
  */
 
 public class NetworkNode extends RouteableSystemObject implements HasQueue, HasUtilisation
 {
-	public NetworkNode(SystemObjectID soid, DistributionSampler serviceTimeDist, Connection[] connections, Route[] routes, float drop, int queueSize)
+	public NetworkNode(SimulationSystem system, SystemObjectID soid, DistributionSampler serviceTimeDist, Connection[] connections, Route[] routes, float drop, int queueSize)
 	{
-		super(soid, connections, routes);
+		super(system, soid, connections, routes);
 		this.serviceTimeDist = serviceTimeDist;
 		this.drop = drop;
-		this.q = queueSize == (BalkingQueue.INFINITE_SIZE) ? new doc.ajf98.SimTools.Queue() : new BalkingQueue(queueSize);
+		this.q = queueSize == (BalkingQueue.INFINITE_SIZE) ? new doc.ajf98.SimTools.Queue(getSimulation()) : new BalkingQueue(getSimulation(), queueSize);
+		this.q.setTimeInQueuePercentiles(system.newPercentileEstimator());
+		this.u = new Resource(getSimulation());
+		this.u.setBusyPeriodPercentiles(system.newPercentileEstimator());
+		this.name = getName();
 		this.reset();
 	}
 
@@ -62,43 +66,13 @@ public class NetworkNode extends RouteableSystemObject implements HasQueue, HasU
 	{
         while(true)
 		{
-			WebSim.traceObjectOperation("Network Node", getName(), "Looking at queue.");
-			
-			if(!q.isEmpty())
+			if(startService())
 			{
-				WebSim.traceObjectOperationDetailed("Network Node", getName(), "Discovered message " + q.front() + " at the head of the queue. Starting processing.");
-
-				Message message = (Message) q.dequeue();
-
-				double serviceTimeNow = serviceTimeDist.next();
-
-				u.claim();
-                hold(serviceTimeNow);
-				u.release();
-
-				serviceTimeMeasure.add(serviceTimeNow);
-
-				if(random.nextFloat() > drop)
-				{
-					Connection c = findRoute(message);
-
-					if(c != null)
-					{
-						c.sendMessageVia(message);
-						out++;
-						WebSim.traceObjectOperationDetailed("Network Node", getName(), "Processing " + message + " complete. Sent on via " + c + ".");
-					}
-				}
-				else
-				{
-					WebSim.traceObjectOperationDetailed("Network Node", getName(), "Processing " + message + " complete. Randomly dropped message.");
-					dropped++;
-				}
+				hold(serviceTimeNow);
+				finishService();
 			}
 			else
 			{
-				WebSim.traceObjectOperationDetailed("Network Node", getName(), "Nothing to process. Going to sleep.");
-
 				// Wait until a message arrives.
 
 				passivate();
@@ -106,6 +80,78 @@ public class NetworkNode extends RouteableSystemObject implements HasQueue, HasU
 		}
 	}
 
+	public void resumeProcess()
+	{
+		if(message != null)
+			finishService();
+
+		if(startService())
+			scheduleHold(serviceTimeNow);
+		else
+			schedulePassivate();
+	}
+
+	/**
+	 * Take the message at the head of the queue, if there is one,
+	 * and start processing it.
+	 *
+	 * @return true if processing has started, false if the queue was
+	 *	empty.
+	 */
+
+	private boolean startService()
+	{
+		system.traceObjectOperation("Network Node", this, "Looking at queue.");
+
+		if(!q.isEmpty())
+		{
+			if(system.isTraceObjectOperationDetailed())
+				system.traceObjectOperationDetailed("Network Node", this, "Discovered message " + q.front() + " at the head of the queue. Starting processing.");
+
+			message = (Message) q.dequeue();
+			timeInQueueNow = q.lastTimeInQueue();
+			serviceTimeNow = serviceTimeDist.next();
+
+			u.claim();
+			return true;
+		}
+		else
+		{
+			system.traceObjectOperationDetailed("Network Node", this, "Nothing to process. Going to sleep.");
+			return false;
+		}
+	}
+
+	private void finishService()
+	{
+		u.release();
+
+		serviceTimeMeasure.add(serviceTimeNow);
+
+		if(random.nextFloat() > drop)
+		{
+			Connection c = findRoute(message);
+
+			if(c != null)
+			{
+				c.sendMessageVia(message, new Hop(name, timeInQueueNow, serviceTimeNow, message.getHops()));
+				out++;
+
+				if(system.isTraceObjectOperationDetailed())
+					system.traceObjectOperationDetailed("Network Node", this, "Processing " + message + " complete. Sent on via " + c + ".");
+			}
+		}
+		else
+		{
+			if(system.isTraceObjectOperationDetailed())
+				system.traceObjectOperationDetailed("Network Node", this, "Processing " + message + " complete. Randomly dropped message.");
+
+			dropped++;
+		}
+
+		message = null;
+	}
+
 	public void messageIn(Message message)
 	{
 		try
@@ -116,7 +162,9 @@ public class NetworkNode extends RouteableSystemObject implements HasQueue, HasU
 		}
 		catch(QueueFullException qfe)
 		{
-            WebSim.traceObjectOperation("NetworkNode", this.toString(), "Dropping " + message + " because input queue is full.");
+			if(system.isTraceObjectOperation())
+				system.traceObjectOperation("NetworkNode", this, "Dropping " + message + " because input queue is full.");
+
 			dropped++;
 		}
 	}
@@ -133,12 +181,35 @@ public class NetworkNode extends RouteableSystemObject implements HasQueue, HasU
 		s += "Current Queue Length: " + WebSim.formatDouble(q.queueLength()) + "\n";
 		s += "Mean Queue Length: " + WebSim.formatDouble(q.meanQueueLength()) + "\n";
 		s += "Mean Time in Queue: " + WebSim.formatDouble(q.meanTimeInQueue()) + "\n";
+		s += "Time in Queue percentiles: " + WebSim.formatPercentiles(q.timeInQueuePercentiles(), system.getPercentiles()) + "\n";
+		s += "Queue Length percentiles over time: " + WebSim.formatPercentiles(q.queueLengthDistribution(), system.getPercentiles()) + "\n";
+		s += "Fraction of time Queue Length was at least: " + WebSim.formatProbabilitiesAtLeast(q.queueLengthDistribution(), queueCapacity()) + "\n";
 		s += "Mean Service Time: " + WebSim.formatDouble(serviceTimeMeasure.mean()) + ", Variance of Service Time: " + WebSim.formatDouble(serviceTimeMeasure.variance()) + "\n";
 		s += "Utilisation: " + WebSim.formatDouble(u.utilisation()) + "\n";
+		s += "Busy Periods: " + u.busyPeriods().count() + ", Mean Length: " + WebSim.formatDouble(u.busyPeriods().mean()) + "\n";
+		s += "Busy Period percentiles: " + WebSim.formatPercentiles(u.busyPeriodPercentiles(), system.getPercentiles()) + "\n";
 			
 		return s;
 	}
 
+	/**
+	 * A message is passed on no sooner than the shortest service time.
+	 */
+
+	public double getLookahead()
+	{
+		return Math.max(0.0, serviceTimeDist.minimum());
+	}
+
+	/**
+	 * @return the size of the queue, or BalkingQueue.INFINITE_SIZE.
+	 */
+
+	private int queueCapacity()
+	{
+		return q instanceof BalkingQueue ? ((BalkingQueue) q).getMaxSize() : BalkingQueue.INFINITE_SIZE;
+	}
+
 	public int getQueueLength()
 	{
 		return q.queueLength();
@@ -156,11 +227,64 @@ public class NetworkNode extends RouteableSystemObject implements HasQueue, HasU
 		serviceTimeMeasure.reset();
 	}
                         
+	public Object saveState()
+	{
+		State s = new State();
+		s.process = super.saveState();
+		s.queue = q.saveState();
+		s.message = message;
+		s.serviceTimeNow = serviceTimeNow;
+		s.timeInQueueNow = timeInQueueNow;
+		s.serviceTimeMeasure = serviceTimeMeasure.saveState();
+		s.utilisation = u.saveState();
+		s.counts = new long[] { in, out, dropped };
+		s.serviceTimeDist = serviceTimeDist.saveState();
+		return s;
+	}
+
+	public void restoreState(Object state)
+	{
+		State s = (State) state;
+		super.restoreState(s.process);
+		q.restoreState(s.queue);
+		message = s.message;
+		serviceTimeNow = s.serviceTimeNow;
+		timeInQueueNow = s.timeInQueueNow;
+		serviceTimeMeasure.restoreState(s.serviceTimeMeasure);
+		u.restoreState(s.utilisation);
+		in = s.counts[0];
+		out = s.counts[1];
+		dropped = s.counts[2];
+		serviceTimeDist.restoreState(s.serviceTimeDist);
+	}
+
+	private static class State implements java.io.Serializable
+	{
+		Object process, queue, serviceTimeMeasure, utilisation, serviceTimeDist;
+		Message message;
+		double serviceTimeNow, timeInQueueNow;
+		long[] counts;
+	}
+
 	private DistributionSampler serviceTimeDist;
 	private doc.ajf98.SimTools.Queue q;
+	private Message message;
+	private double serviceTimeNow;
+
+	/**
+	 * The time which the message being served spent in the queue.
+	 */
+
+	private double timeInQueueNow;
 	private Measure serviceTimeMeasure = new Measure();
-	private Resource u = new Resource();
+	private Resource u;
 	private float drop;
+
+	/**
+	 * The name of this node, which is kept for the hops of messages.
+	 */
+
+	private final String name;
 	private long in;
 	private long out;
 	private long dropped;
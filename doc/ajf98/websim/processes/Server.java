@@ -44,18 +44,23 @@ import doc.ajf98.websim.processes.abs.*;
 
 /**
  * @author Andrew Ferrier
- * @version 0.2.4
+ * @version 0.13
  */
 
 public class Server extends RouteableSystemObject implements HasQueue, HasUtilisation
 {
-	public Server(SystemObjectID soid, DistributionSampler serviceTimeDist, Connection[] connections, Route[] routes, int threads, int queueSize, int processors, double threadGrain)
+	public Server(SimulationSystem system, SystemObjectID soid, DistributionSampler serviceTimeDist, Connection[] connections, Route[] routes, int threads, int queueSize, int processors, double threadGrain)
 	{
-		super(soid, connections, routes);
+		super(system, soid, connections, routes);
 		this.serviceTimeDist = serviceTimeDist;
 		this.threads = threads;
-		this.q = queueSize == (BalkingQueue.INFINITE_SIZE) ? new doc.ajf98.SimTools.Queue() : new BalkingQueue(queueSize);
+		this.q = queueSize == (BalkingQueue.INFINITE_SIZE) ? new doc.ajf98.SimTools.Queue(getSimulation()) : new BalkingQueue(getSimulation(), queueSize);
+		this.q.setTimeInQueuePercentiles(system.newPercentileEstimator());
+		this.resource = new Resource(getSimulation());
+		this.resource.setBusyPeriodPercentiles(system.newPercentileEstimator());
+		this.processors = processors;
 		this.serverProcessors = processors;
+		this.name = getName();
 
 		this.reset();
 
@@ -70,7 +75,8 @@ public class Server extends RouteableSystemObject implements HasQueue, HasUtilis
 	{
 		try
 		{
-			WebSim.traceObjectOperationDetailed("Server", this.toString(), "Asked to process message " + message);
+			if(system.isTraceObjectOperationDetailed())
+				system.traceObjectOperationDetailed("Server", this, "Asked to process message " + message);
 
 			q.enqueue(message);
 			in++;
@@ -78,9 +84,10 @@ public class Server extends RouteableSystemObject implements HasQueue, HasUtilis
 		}
 		catch(QueueFullException qfe)
 		{
-			WebSim.traceObjectOperation("Server", this.toString(), "Sending refuse for " + message + " because input queue is full.");
+			if(system.isTraceObjectOperation())
+				system.traceObjectOperation("Server", this, "Sending refuse for " + message + " because input queue is full.");
 
-			Refusal refusal = new Refusal(message);
+			Refusal refusal = new Refusal(message, system.getDefaultTimeToLive());
 			Connection c = findRoute(refusal);
 
 			if(c != null)
@@ -91,13 +98,18 @@ public class Server extends RouteableSystemObject implements HasQueue, HasUtilis
 		}
 	}
                                         
-	void returnReply(Reply r)
+	/**
+	 * @param hop the hop which the request made at this server, which
+	 *	the reply carries on from.
+	 */
+
+	void returnReply(Reply r, Hop hop)
 	{
 		Connection c = findRoute(r);
 
 		if (c != null)
 		{
-			c.sendMessageVia(r);
+			c.sendMessageVia(r, hop);
 			out++;
 		}	
 
@@ -121,8 +133,13 @@ public class Server extends RouteableSystemObject implements HasQueue, HasUtilis
 		s += "Current Queue Length: " + q.queueLength() + "\n";
 		s += "Mean Queue Length: " + WebSim.formatDouble(q.meanQueueLength()) + "\n";
 		s += "Mean Time in Queue: " + WebSim.formatDouble(q.meanTimeInQueue()) + "\n";
+		s += "Time in Queue percentiles: " + WebSim.formatPercentiles(q.timeInQueuePercentiles(), system.getPercentiles()) + "\n";
+		s += "Queue Length percentiles over time: " + WebSim.formatPercentiles(q.queueLengthDistribution(), system.getPercentiles()) + "\n";
+		s += "Fraction of time Queue Length was at least: " + WebSim.formatProbabilitiesAtLeast(q.queueLengthDistribution(), queueCapacity()) + "\n";
 		s += "Mean Service Time: " + WebSim.formatDouble(serviceTimeMeasure.mean()) + ", Variance of Service Time: " + WebSim.formatDouble(serviceTimeMeasure.variance()) + "\n";
 		s += "Utilisation: " + WebSim.formatDouble(resource.utilisation()) + "\n";
+		s += "Busy Periods: " + resource.busyPeriods().count() + ", Mean Length: " + WebSim.formatDouble(resource.busyPeriods().mean()) + "\n";
+		s += "Busy Period percentiles: " + WebSim.formatPercentiles(resource.busyPeriodPercentiles(), system.getPercentiles()) + "\n";
 
 		// The following call to sort ensures that server threads
 		// are printed in ascending numerical order: they implement
@@ -148,29 +165,63 @@ public class Server extends RouteableSystemObject implements HasQueue, HasUtilis
 	{
     	while(true)
 		{
-			WebSim.traceObjectOperation("Server", this.toString(), "Looking at queue.");
+			assignMessages();
+			passivate();
+		}
+	}
+
+	public void resumeProcess()
+	{
+		assignMessages();
+		schedulePassivate();
+	}
+
+	private void assignMessages()
+	{
+		system.traceObjectOperation("Server", this, "Looking at queue.");
 
-			//Iterator i = getListIterator();
+		//Iterator i = getListIterator();
 
-			Iterator i = serverThreads.iterator();
+		Iterator i = serverThreads.iterator();
 
-			while(i.hasNext() && (!q.isEmpty()))
+		while(i.hasNext() && (!q.isEmpty()))
+		{
+            ServerThread st = (ServerThread) i.next();
+
+			if (!st.isExecutingRequest())
 			{
-                ServerThread st = (ServerThread) i.next();
-
-				if (!st.isExecutingRequest())
-				{
-					Message m = (Message) q.dequeue();
-											
-					WebSim.traceObjectOperationDetailed("Server", this.toString(), "Handing over message " + m + " to " + st);
-					
-					st.messageIn(m);
-				}
+				Message m = (Message) q.dequeue();
+										
+				if(system.isTraceObjectOperationDetailed())
+					system.traceObjectOperationDetailed("Server", this, "Handing over message " + m + " to " + st);
+				
+				st.messageIn(m, q.lastTimeInQueue());
 			}
-
-			WebSim.traceObjectOperation("Server", this.toString(), "Going to sleep.");
-			passivate();
 		}
+
+		system.traceObjectOperation("Server", this, "Going to sleep.");
+	}
+
+	/**
+	 * A reply is sent no sooner than the shortest service time, but if
+	 * the queue is finite a refusal can be sent straight away.
+	 */
+
+	public double getLookahead()
+	{
+		if(q instanceof BalkingQueue)
+			return 0.0;
+		else
+			return Math.max(0.0, serviceTimeDist.minimum());
+	}
+
+	/**
+	 * @return the size of the queue, or BalkingQueue.INFINITE_SIZE.
+	 */
+
+	private int queueCapacity()
+	{
+		return q instanceof BalkingQueue ? ((BalkingQueue) q).getMaxSize() : BalkingQueue.INFINITE_SIZE;
 	}
 
 	public int getQueueLength()
@@ -198,6 +249,67 @@ public class Server extends RouteableSystemObject implements HasQueue, HasUtilis
 		serviceTimeMeasure.reset();
 	}
 
+	/**
+	 * The state of the server threads is saved with that of the server.
+	 * It can be restored into a server with more threads, whose extra
+	 * threads are reset, or fewer, as long as the ones which it does not
+	 * have were not executing requests. It can also be restored into a
+	 * server with a different number of processors.
+	 */
+
+	public Object saveState()
+	{
+		State s = new State();
+		s.process = super.saveState();
+		s.queue = q.saveState();
+		s.counts = new long[] { faultyIn, in, out, refused };
+		s.resource = resource.saveState();
+		s.serviceTimeMeasure = serviceTimeMeasure.saveState();
+		s.serverProcessors = serverProcessors;
+		s.processors = processors;
+		s.serviceTimeDist = serviceTimeDist.saveState();
+		s.threads = new Object[serverThreads.size()];
+
+		for(int i = 0; i < s.threads.length; i++)
+			s.threads[i] = ((ServerThread) serverThreads.get(i)).saveState();
+
+		return s;
+	}
+
+	public void restoreState(Object state)
+	{
+		State s = (State) state;
+		super.restoreState(s.process);
+		q.restoreState(s.queue);
+		faultyIn = s.counts[0];
+		in = s.counts[1];
+		out = s.counts[2];
+		refused = s.counts[3];
+		resource.restoreState(s.resource);
+		serviceTimeMeasure.restoreState(s.serviceTimeMeasure);
+		serverProcessors = s.serverProcessors + processors - s.processors;
+		serviceTimeDist.restoreState(s.serviceTimeDist);
+
+		for(int i = 0; i < s.threads.length; i++)
+		{
+			if(i < serverThreads.size())
+				((ServerThread) serverThreads.get(i)).restoreState(s.threads[i]);
+			else if(ServerThread.isExecutingRequest(s.threads[i]))
+				throw new IllegalStateException("Server " + getName() + " has fewer threads than were executing requests.");
+		}
+
+		for(int i = s.threads.length; i < serverThreads.size(); i++)
+			((ServerThread) serverThreads.get(i)).reset();
+	}
+
+	private static class State implements java.io.Serializable
+	{
+		Object process, queue, resource, serviceTimeMeasure, serviceTimeDist;
+		Object[] threads;
+		long[] counts;
+		int serverProcessors, processors;
+	}
+
 	private java.util.List serverThreads = new ArrayList();
 	
 	private DistributionSampler serviceTimeDist;
@@ -208,10 +320,17 @@ public class Server extends RouteableSystemObject implements HasQueue, HasUtilis
 	private long out;
 	private long refused;
 	private int threads;
+	private int processors;
 
 	// These items have package-private access
 
-	Resource resource = new Resource();
+	Resource resource;
 	Measure serviceTimeMeasure = new Measure();
 	int serverProcessors;
+
+	/**
+	 * The name of this server, which is kept for the hops of messages.
+	 */
+
+	final String name;
 }
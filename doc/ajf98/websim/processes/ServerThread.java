@@ -41,28 +41,44 @@ import doc.ajf98.websim.processes.abs.*;
 
 /**
  * @author Andrew Ferrier
- * @version 0.3
+ * @version 0.13
  */
 
 class ServerThread extends SystemObject	implements Comparable
 {
 	ServerThread(Server ownerServer, int index, DistributionSampler serviceTimeDistribution, double threadGrain)
 	{
+		super(ownerServer.getSystem(), ownerServer.getSimulation());
+		this.resource = new Resource(getSimulation());
 		this.ownerServer = ownerServer;
 		this.index = index;
 		this.serviceTimeDistribution = serviceTimeDistribution;
 		this.threadGrain = threadGrain;
+		this.serviceTimePercentiles = system.newPercentileEstimator();
 
 		this.reset();
 
-		WebSim.traceObjectCreation("Server Thread", getName(), "Created.");
+		system.traceObjectCreation("Server Thread", getName(), "Created.");
+	}
+
+	/**
+	 * Process a message which has spent some time in the queue of the
+	 * owning server.
+	 */
+
+	void messageIn(Message message, double timeInQueue)
+	{
+		this.timeInQueue = timeInQueue;
+		messageIn(message);
 	}
 
 	public void messageIn(Message message)
 	{
-		WebSim.traceObjectOperation("SThread", getName(), "Has been asked to process " + message + " by " + ownerServer);
+		if(system.isTraceObjectOperation())
+			system.traceObjectOperation("SThread", this, "Has been asked to process " + message + " by " + ownerServer);
 
 		this.message = message;
+		this.assignedAt = getSimulation().now();
 		in++;
 		activate();
 	}
@@ -71,70 +87,137 @@ class ServerThread extends SystemObject	implements Comparable
 	{
 		while(true)
 		{
-			busy = true;
-
-			WebSim.traceObjectOperationDetailed("SThread", getName(), "Entering execution loop.");
-
-			double serviceTimeNow = serviceTimeDistribution.next();
-			double initialServiceTime = serviceTimeNow;
+			beginRequest();
 
 			while(serviceTimeNow > 0)
 			{
-				WebSim.traceObjectOperationDetailed("SThread", getName(), "Waiting to get control of a processor.");
+				system.traceObjectOperationDetailed("SThread", this, "Waiting to get control of a processor.");
 
 				while(ownerServer.serverProcessors <= 0)
 					passivate();
 
-				ownerServer.serverProcessors--;
-				resource.claim();
-				ownerServer.resource.claim();
+				hold(beginSlice());
+				endSlice();
+			}
+
+			//hold(serviceTimeNow);
+            
+			completeRequest();
 
-				WebSim.traceObjectOperationDetailed("SThread", getName(), "Has control of a processor. " + serviceTimeNow + " vsec still remaining for processing.");
+			passivate();
+		}
+	}
 
-				if(serviceTimeNow > threadGrain)
-				{
-                    hold(threadGrain);
-					serviceTimeNow -= threadGrain;
-				}
-				else
-				{
-					hold(serviceTimeNow);
-					serviceTimeNow = 0;
-				}
+	/**
+	 * The event-driven equivalent of runProcess(). The state records
+	 * which of the suspension points in runProcess() this thread
+	 * is currently at.
+	 */
 
-				resource.release();
-				ownerServer.resource.release();
-				ownerServer.serverProcessors++;
+	public void resumeProcess()
+	{
+		if(state == STATE_IDLE)
+		{
+			beginRequest();
+			state = STATE_NEXT_SLICE;
+		}
+		else if(state == STATE_PROCESSING)
+		{
+			endSlice();
+			state = STATE_NEXT_SLICE;
+		}
 
-				WebSim.traceObjectOperationDetailed("SThread", getName(), "Has released a processor.");
+		if(state == STATE_NEXT_SLICE)
+		{
+			if(serviceTimeNow <= 0)
+			{
+				completeRequest();
+				state = STATE_IDLE;
+				schedulePassivate();
+				return;
 			}
 
-			//hold(serviceTimeNow);
-            
-			serviceTimeMeasure.add(initialServiceTime);
-			ownerServer.serviceTimeMeasure.add(initialServiceTime);
+			system.traceObjectOperationDetailed("SThread", this, "Waiting to get control of a processor.");
+			state = STATE_WAITING_FOR_PROCESSOR;
+		}
 
-			if(message instanceof Request)
-			{
-				Reply reply = new Reply((Request) message);
-				ownerServer.returnReply(reply);
-				out++;
+		if(ownerServer.serverProcessors <= 0)
+		{
+			schedulePassivate();
+			return;
+		}
 
-				WebSim.traceObjectOperation("SThread", getName(), "Service of " + message + " complete. Sent: " + reply + ".");
-			}
-			else
-			{
-				WebSim.warning("There is probably a routing error in your system specification.\n" +
-					"Server " + ownerServer.getName() + " has recieved a message that was not a request: " + message + "\n" +
-					"It will be ignored. Service complete.");
+		scheduleHold(beginSlice());
+		state = STATE_PROCESSING;
+	}
 
-				faulty++;
-			}
+	private void beginRequest()
+	{
+		busy = true;
 
-			busy = false;
+		system.traceObjectOperationDetailed("SThread", this, "Entering execution loop.");
 
-			passivate();
+		serviceTimeNow = serviceTimeDistribution.next();
+		initialServiceTime = serviceTimeNow;
+	}
+
+	/**
+	 * Take control of a processor.
+	 *
+	 * @return the length of time to hold the processor for.
+	 */
+
+	private double beginSlice()
+	{
+		ownerServer.serverProcessors--;
+		resource.claim();
+		ownerServer.resource.claim();
+
+		if(system.isTraceObjectOperationDetailed())
+			system.traceObjectOperationDetailed("SThread", this, "Has control of a processor. " + serviceTimeNow + " vsec still remaining for processing.");
+
+		return (serviceTimeNow > threadGrain) ? threadGrain : serviceTimeNow;
+	}
+
+	private void endSlice()
+	{
+		if(serviceTimeNow > threadGrain)
+			serviceTimeNow -= threadGrain;
+		else
+			serviceTimeNow = 0;
+
+		resource.release();
+		ownerServer.resource.release();
+		ownerServer.serverProcessors++;
+
+		system.traceObjectOperationDetailed("SThread", this, "Has released a processor.");
+	}
+
+	private void completeRequest()
+	{
+		serviceTimeMeasure.add(initialServiceTime);
+		serviceTimePercentiles.add(initialServiceTime);
+		ownerServer.serviceTimeMeasure.add(initialServiceTime);
+
+		if(message instanceof Request)
+		{
+			Reply reply = new Reply((Request) message, system.getDefaultTimeToLive());
+			ownerServer.returnReply(reply, new Hop(ownerServer.name, timeInQueue, getSimulation().now() - assignedAt, message.getHops()));
+			out++;
+
+			if(system.isTraceObjectOperation())
+				system.traceObjectOperation("SThread", this, "Service of " + message + " complete. Sent: " + reply + ".");
 		}
+		else
+		{
+			system.warning("There is probably a routing error in your system specification.\n" +
+				"Server " + ownerServer.getName() + " has recieved a message that was not a request: " + message + "\n" +
+				"It will be ignored. Service complete.");
+
+			faulty++;
+		}
+
+		busy = false;
 	}
 
 	boolean isExecutingRequest()
@@ -142,6 +225,16 @@ class ServerThread extends SystemObject	implements Comparable
 		return busy;
 	}
 
+	/**
+	 * @param state the saved state of a thread.
+	 * @return whether the thread was executing a request.
+	 */
+
+	static boolean isExecutingRequest(Object state)
+	{
+		return ((State) state).busy;
+	}
+
 	public String toString()
 	{
 		return ownerServer + "(" + index + ")";
@@ -156,6 +249,7 @@ class ServerThread extends SystemObject	implements Comparable
 			s += faulty + " of the messages recieved were faulty.\n";
 
 		s += "Mean Service Time: " + WebSim.formatDouble(serviceTimeMeasure.mean()) + ", Variance of Service Time: " + WebSim.formatDouble(serviceTimeMeasure.variance()) + "\n";
+		s += "Service Time percentiles: " + WebSim.formatPercentiles(serviceTimePercentiles, system.getPercentiles()) + "\n";
 		s += "Utilisation: " + WebSim.formatDouble(resource.utilisation()) + "\n";
 
 		return s;
@@ -173,17 +267,86 @@ class ServerThread extends SystemObject	implements Comparable
 		in = out = faulty = 0;
 		resource.reset();
 		serviceTimeMeasure.reset();
+		serviceTimePercentiles.reset();
+	}
+
+	/**
+	 * The service time distribution is shared with the owning server,
+	 * which saves its state.
+	 */
+
+	public Object saveState()
+	{
+		State s = new State();
+		s.process = super.saveState();
+		s.message = message;
+		s.serviceTimeNow = serviceTimeNow;
+		s.initialServiceTime = initialServiceTime;
+		s.timeInQueue = timeInQueue;
+		s.assignedAt = assignedAt;
+		s.state = state;
+		s.counts = new long[] { in, out, faulty };
+		s.busy = busy;
+		s.resource = resource.saveState();
+		s.serviceTimeMeasure = serviceTimeMeasure.saveState();
+		s.serviceTimePercentiles = serviceTimePercentiles.saveState();
+		return s;
+	}
+
+	public void restoreState(Object state)
+	{
+		State s = (State) state;
+		super.restoreState(s.process);
+		message = s.message;
+		serviceTimeNow = s.serviceTimeNow;
+		initialServiceTime = s.initialServiceTime;
+		timeInQueue = s.timeInQueue;
+		assignedAt = s.assignedAt;
+		this.state = s.state;
+		in = s.counts[0];
+		out = s.counts[1];
+		faulty = s.counts[2];
+		busy = s.busy;
+		resource.restoreState(s.resource);
+		serviceTimeMeasure.restoreState(s.serviceTimeMeasure);
+		serviceTimePercentiles.restoreState(s.serviceTimePercentiles);
+	}
+
+	private static class State implements java.io.Serializable
+	{
+		Object process, resource, serviceTimeMeasure, serviceTimePercentiles;
+		Message message;
+		double serviceTimeNow, initialServiceTime, timeInQueue, assignedAt;
+		int state;
+		long[] counts;
+		boolean busy;
 	}
 
 	private Message message;
+	private double serviceTimeNow;
+	private double initialServiceTime;
+
+	/**
+	 * The time which the message being processed spent in the queue of
+	 * the owning server, and the time at which it was handed over.
+	 */
+
+	private double timeInQueue, assignedAt;
+	private int state = STATE_IDLE;
 	private Server ownerServer;
 	private DistributionSampler serviceTimeDistribution;
 	private long in, out, faulty;
 	private int index;
 	private boolean busy = false;
 
-	private Resource resource = new Resource();
+	private Resource resource;
 	private Measure serviceTimeMeasure = new Measure();
+	private PercentileEstimator serviceTimePercentiles;
 
 	private double threadGrain;
+
+	private static final int STATE_IDLE = 0;
+	private static final int STATE_NEXT_SLICE = 1;
+	private static final int STATE_WAITING_FOR_PROCESSOR = 2;
+	private static final int STATE_PROCESSING = 3;
 }
@@ -46,10 +46,11 @@ import doc.ajf98.websim.objects.*;
  * RouteableSystemObjects have a global
  * {@link doc.ajf98.websim.objects.SystemObjectID}
  * which represents them in the system. They also have message I/O
- * capabilities.
+ * capabilities. If the system is partitioned, each object is executed
+ * by the partition which it has been assigned to.
  *
  * @author Andrew Ferrier
- * @version 1.1.
+ * @version 1.4
  */
 
 public abstract class RouteableSystemObject extends SystemObject
@@ -57,19 +58,23 @@ public abstract class RouteableSystemObject extends SystemObject
 	/**
 	 * Create a new RouteableSystemObject.
 	 *
+	 * @param system the simulation system which this object is in.
 	 * @param soid the {@link doc.ajf98.websim.objects.SystemObjectID} which represents this instance.
 	 * @param connections the connections outgoing from this object.
 	 * @param routes the routes for this object.
 	 */
 	 
-	public RouteableSystemObject(SystemObjectID soid, Connection[] connections, Route[] routes)
+	public RouteableSystemObject(SimulationSystem system, SystemObjectID soid, Connection[] connections, Route[] routes)
 	{
+		super(system, system.simulationFor(soid));
 		this.soid = soid;
-		systemMap.put(soid, this);
+		this.connections = connections;
+		this.random = getSimulation().getRandom();
+		system.addSystemObject(this);
 
 		// Form the routing map
 
-		WebSim.traceObjectCreation("Routing map", "for " + getName(), "Being formed.");
+		system.traceObjectCreation("Routing map", "for " + getName(), "Being formed.");
 
 		routeMap = new HashMap(connections.length + routes.length, (float) 1);
 
@@ -77,7 +82,8 @@ public abstract class RouteableSystemObject extends SystemObject
 		{
 			routeMap.put(connections[i].getTo(), connections[i]);
 			
-			WebSim.traceObjectCreationDetailed("Routing map", "for " + getName(), "Adding element with target: " + connections[i].getTo() + ", connection: " + connections[i]);
+			if(system.isTraceObjectCreationDetailed())
+				system.traceObjectCreationDetailed("Routing map", "for " + getName(), "Adding element with target: " + connections[i].getTo() + ", connection: " + connections[i]);
 		}
                                                               
 		for (int i = 0; i < routes.length; i++)
@@ -90,7 +96,8 @@ public abstract class RouteableSystemObject extends SystemObject
 				{
 					routeMap.put(routes[i].getDestination(), connections[j]);
 
-					WebSim.traceObjectCreationDetailed("Routing map", "for " + getName(), "Adding element with target: " + routes[i].getDestination() + ", connection: " + connections[j]);
+					if(system.isTraceObjectCreationDetailed())
+						system.traceObjectCreationDetailed("Routing map", "for " + getName(), "Adding element with target: " + routes[i].getDestination() + ", connection: " + connections[j]);
 				}
 			}
 		}
@@ -111,7 +118,8 @@ public abstract class RouteableSystemObject extends SystemObject
 	{
 		Connection c;
 
-		WebSim.traceObjectOperationDetailed("Object", this.soid, "Attempting to find route for message " + m);
+		if(system.isTraceObjectOperationDetailed())
+			system.traceObjectOperationDetailed("Object", this.soid, "Attempting to find route for message " + m);
 
 		if (m.getDest().specificInstance())
 		{
@@ -126,7 +134,7 @@ public abstract class RouteableSystemObject extends SystemObject
 				generalConnection = (Connection) ((Connection) routeMap.get(generalDestination)).clone();
 			else
 			{
-				WebSim.warning("No route found to " + generalDestination);
+				system.warning("No route found to " + generalDestination);
 				return null;
 			}
 
@@ -144,7 +152,7 @@ public abstract class RouteableSystemObject extends SystemObject
 
 		if (c == null)
 		{
-			WebSim.warning("No route found to " + m.getDest());
+			system.warning("No route found to " + m.getDest());
 			return null;
 		}
 		else
@@ -152,16 +160,23 @@ public abstract class RouteableSystemObject extends SystemObject
 	}
 
 	/**
-	 * Get the RouteableSystemObject object corresponding to the SystemObjectID
-	 * provided.
+	 * @return the connections outgoing from this object.
 	 */
 
-	public static RouteableSystemObject getSystemObject(SystemObjectID soidToGet)
+	public Connection[] getConnections()
 	{
-		if (soidToGet.specificInstance())
-			return (RouteableSystemObject) systemMap.get(soidToGet);
-		else
-			return (RouteableSystemObject) systemMap.get(soidToGet.returnRandomInstance());
+		return connections;
+	}
+
+	/**
+	 * Get the lookahead of this object: a lower bound on the time
+	 * between it receiving a message and it sending any message as a
+	 * result. This is zero unless overridden.
+	 */
+
+	public double getLookahead()
+	{
+		return 0.0;
 	}
 
 	public SystemObjectID getSOID()
@@ -175,14 +190,12 @@ public abstract class RouteableSystemObject extends SystemObject
 	}
 
     private SystemObjectID soid;
+	private Connection[] connections;
 	private Map routeMap;
 
-	private static final Map systemMap = new HashMap();
-
 	/**
 	 * Can be used for generating random numbers.
 	 */
 
-	protected static final doc.ajf98.util.Random random =
-			doc.ajf98.util.Random.getRandom();
+	protected final doc.ajf98.util.Random random;
 }
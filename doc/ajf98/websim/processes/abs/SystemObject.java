@@ -35,6 +35,7 @@ SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
 package doc.ajf98.websim.processes.abs;
 
 import doc.ajf98.SimTools.*;
+import doc.ajf98.websim.SimulationSystem;
 import doc.ajf98.websim.objects.*;
 
 /**
@@ -46,11 +47,42 @@ import doc.ajf98.websim.objects.*;
  * to have a corresponding SystemObjectID.
  *
  * @author Andrew Ferrier
- * @version 1.3
+ * @version 1.6
  */
 
 public abstract class SystemObject extends SimProcess
 {
+	/**
+	 * @param system the simulation system which this object is in.
+	 */
+
+	public SystemObject(SimulationSystem system)
+	{
+		this(system, system);
+	}
+
+	/**
+	 * @param system the simulation system which this object is in.
+	 * @param sim the simulation which executes this object: either
+	 *	the system itself, or one of its partitions.
+	 */
+
+	public SystemObject(SimulationSystem system, PSim sim)
+	{
+		super(sim);
+		this.system = system;
+		system.addProcess(this);
+	}
+
+	/**
+	 * @return the simulation system which this object is in.
+	 */
+
+	public SimulationSystem getSystem()
+	{
+		return system;
+	}
+
 	/**
 	 * @return a simple string representing this object's
 	 * name.
@@ -91,4 +123,6 @@ public abstract class SystemObject extends SimProcess
 	{
 		return toString();
 	}
+
+	protected final SimulationSystem system;
 }